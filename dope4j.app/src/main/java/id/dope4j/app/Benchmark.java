@@ -0,0 +1,184 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.app;
+
+import id.dope4j.DeepObjectPoseEstimationService;
+import id.dope4j.InputResolution;
+import id.dope4j.io.InputImage;
+import id.dope4j.io.Interpolation;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays dataset of images through the {@link DeepObjectPoseEstimationService} and measures its
+ * latency and throughput.
+ *
+ * <p>Images are read into memory before the benchmark starts so that the disk does not affect the
+ * results, but they are decoded as part of each batch, same as the service would do with the
+ * incoming requests.
+ *
+ * <p>When target rate is set, each batch has its scheduled send time and its latency is measured
+ * from that time rather than from the time when the batch was actually sent. Otherwise, when
+ * service cannot keep up with the rate, all the time batches spend waiting for the free worker
+ * would be hidden from the results ("coordinated omission").
+ *
+ * <p>End-to-end latency is measured per batch. Latency of each processing stage is taken from
+ * {@link id.dope4j.impl.LatencyMetrics} histograms.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class Benchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Benchmark.class);
+
+    /** Percentiles which are reported */
+    public static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final DeepObjectPoseEstimationService<?> service;
+    private final List<Path> imageFiles;
+    private final List<byte[]> images;
+    private final InputResolution resolution;
+    private final Interpolation interpolation;
+    private final BenchmarkConfig config;
+    private final StageLatencyReader stageLatencyReader;
+
+    /**
+     * @param service service which should be already started
+     * @param stageLatencyReader reader registered with the global meter provider
+     */
+    public Benchmark(
+            DeepObjectPoseEstimationService<?> service,
+            List<Path> imageFiles,
+            InputResolution resolution,
+            Interpolation interpolation,
+            BenchmarkConfig config,
+            StageLatencyReader stageLatencyReader)
+            throws IOException {
+        if (imageFiles.isEmpty()) throw new IllegalArgumentException("No images to replay");
+        this.service = service;
+        this.imageFiles = imageFiles;
+        this.resolution = resolution;
+        this.interpolation = interpolation;
+        this.config = config;
+        this.stageLatencyReader = stageLatencyReader;
+        images = new ArrayList<>(imageFiles.size());
+        for (var file : imageFiles) images.add(Files.readAllBytes(file));
+    }
+
+    public BenchmarkResult run() throws InterruptedException, ExecutionException {
+        var batchesCount = (config.imagesCount() + config.batchSize() - 1) / config.batchSize();
+        var latencies = new long[batchesCount];
+        var nextBatch = new AtomicInteger();
+        var failed = new AtomicInteger();
+        // nanos between two consecutive batches
+        var interval = config.rate().map(rate -> (long) (config.batchSize() * 1e9 / rate));
+        LOGGER.info(
+                "Sending {} images in {} batches, concurrency {}, rate {}",
+                config.imagesCount(),
+                batchesCount,
+                config.concurrency(),
+                config.rate().map(rate -> rate + " images/s").orElse("max"));
+        stageLatencyReader.reset();
+        var executor = Executors.newFixedThreadPool(config.concurrency());
+        var startAt = System.nanoTime();
+        try {
+            Callable<Void> worker =
+                    () -> {
+                        int batch;
+                        while ((batch = nextBatch.getAndIncrement()) < batchesCount) {
+                            var sentAt = System.nanoTime();
+                            if (interval.isPresent()) {
+                                sentAt = startAt + batch * interval.get();
+                                waitUntil(sentAt);
+                            }
+                            failed.addAndGet(runBatch(batch));
+                            latencies[batch] = System.nanoTime() - sentAt;
+                        }
+                        return null;
+                    };
+            for (var future : executor.invokeAll(Collections.nCopies(config.concurrency(), worker)))
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        var duration = Duration.ofNanos(System.nanoTime() - startAt);
+        return new BenchmarkResult(
+                config.imagesCount(),
+                failed.get(),
+                duration,
+                findPercentiles(latencies, QUANTILES),
+                stageLatencyReader.findPercentiles(QUANTILES));
+    }
+
+    /**
+     * @return number of images which failed
+     */
+    private int runBatch(int batch) {
+        var first = batch * config.batchSize();
+        var last = Math.min(first + config.batchSize(), config.imagesCount());
+        try {
+            var inputImages = new ArrayList<InputImage>(last - first);
+            for (int i = first; i < last; i++) {
+                // dataset is replayed from the beginning when it runs out of images
+                var n = i % images.size();
+                inputImages.add(
+                        new InputImage(
+                                images.get(n),
+                                Optional.of(imageFiles.get(n)),
+                                resolution,
+                                interpolation));
+            }
+            return (int)
+                    service.analyzeBatch(inputImages).stream().filter(Optional::isEmpty).count();
+        } catch (Exception e) {
+            LOGGER.error("Batch " + batch + " failed", e);
+            return last - first;
+        }
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long delay;
+        while ((delay = nanoTime - System.nanoTime()) > 0) LockSupport.parkNanos(delay);
+    }
+
+    /** Calculates exact percentiles using nearest-rank method */
+    private static List<Duration> findPercentiles(long[] values, double... quantiles) {
+        var sorted = values.clone();
+        Arrays.sort(sorted);
+        var percentiles = new ArrayList<Duration>(quantiles.length);
+        for (var quantile : quantiles) {
+            var rank = (int) Math.ceil(quantile * sorted.length);
+            percentiles.add(Duration.ofNanos(sorted[Math.max(rank, 1) - 1]));
+        }
+        return percentiles;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.app;
+
+import id.xfunction.Preconditions;
+import java.util.Optional;
+
+/**
+ * Configuration of the <b>dope4j-app</b> benchmark.
+ *
+ * @param concurrency number of batches which are sent to the service concurrently
+ * @param batchSize number of images in each batch
+ * @param rate target number of images per second. When empty, batches are sent as fast as the
+ *     service can process them (maximum throughput).
+ * @param imagesCount total number of images to send. When it exceeds number of images in the
+ *     dataset, the dataset is replayed from the beginning.
+ * @see Benchmark
+ * @author lambdaprime intid@protonmail.com
+ */
+public record BenchmarkConfig(
+        int concurrency, int batchSize, Optional<Double> rate, int imagesCount) {
+
+    public BenchmarkConfig {
+        Preconditions.isTrue(concurrency > 0, "concurrency should be positive");
+        Preconditions.isTrue(batchSize > 0, "batchSize should be positive");
+        Preconditions.isTrue(rate.filter(r -> r <= 0).isEmpty(), "rate should be positive");
+        Preconditions.isTrue(imagesCount > 0, "imagesCount should be positive");
+    }
+}
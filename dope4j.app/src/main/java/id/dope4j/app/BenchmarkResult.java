@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.app;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * Results of the <b>dope4j-app</b> benchmark.
+ *
+ * <p>All percentiles are reported in the order of {@link Benchmark#QUANTILES}.
+ *
+ * @param images number of images sent to the service
+ * @param failedImages number of images for which service failed or could not decode network
+ *     output
+ * @param duration time it took to process all the images
+ * @param latency end-to-end batch latency percentiles
+ * @param stageLatency latency percentiles of each processing stage, by stage name
+ * @author lambdaprime intid@protonmail.com
+ */
+public record BenchmarkResult(
+        int images,
+        int failedImages,
+        Duration duration,
+        List<Duration> latency,
+        SortedMap<String, List<Duration>> stageLatency) {
+
+    /** Sustained number of images processed per second */
+    public double throughput() {
+        return duration.isZero() ? 0 : images * 1_000_000_000. / duration.toNanos();
+    }
+
+    @Override
+    public String toString() {
+        var buf = new StringBuilder();
+        buf.append(
+                String.format(
+                        "Images: %d, failed: %d, duration: %.3f s%n",
+                        images, failedImages, duration.toNanos() / 1e9));
+        buf.append(String.format("Throughput: %.2f images/s%n", throughput()));
+        buf.append(String.format("%-16s %10s %10s %10s%n", "Latency (ms)", "p50", "p95", "p99"));
+        buf.append(formatRow("end_to_end", latency));
+        stageLatency.forEach((stage, percentiles) -> buf.append(formatRow(stage, percentiles)));
+        return buf.toString();
+    }
+
+    private static String formatRow(String name, List<Duration> percentiles) {
+        var buf = new StringBuilder(String.format("%-16s", name));
+        percentiles.forEach(p -> buf.append(String.format(" %10.3f", p.toNanos() / 1e6)));
+        return buf.append(System.lineSeparator()).toString();
+    }
+}
@@ -19,39 +19,63 @@ package id.dope4j.app;
 
 import ai.djl.engine.Engine;
 import ai.djl.ndarray.NDArray;
+import ai.onnxruntime.OrtSession.SessionOptions.ExecutionMode;
+import ai.onnxruntime.OrtSession.SessionOptions.OptLevel;
 import id.deeplearningutils.modality.cv.output.Cuboid3D;
 import id.deeplearningutils.modality.cv.output.Point3D;
 import id.dope4j.DeepObjectPoseEstimationService;
 import id.dope4j.DopeConstants;
+import id.dope4j.InputResolution;
+import id.dope4j.ModelLoadingConfig;
+import id.dope4j.PnpConfig;
+import id.dope4j.PnpMethod;
+import id.dope4j.WarmupConfig;
+import id.dope4j.backends.DjlInferenceBackend;
+import id.dope4j.backends.InferenceBackend;
+import id.dope4j.backends.ReplayInferenceBackend;
 import id.dope4j.decoders.ObjectsDecoder;
 import id.dope4j.decoders.ObjectsDecoder.Inspector;
 import id.dope4j.impl.CacheFileMapper;
+import id.dope4j.impl.LatencyMetrics;
+import id.dope4j.impl.MemoryMetrics;
 import id.dope4j.io.InputImage;
+import id.dope4j.io.Interpolation;
 import id.dope4j.io.OutputPoses;
 import id.dope4j.jackson.JsonUtils;
+import id.dope4j.metrics.PrometheusMetricsServer;
 import id.opentelemetry.exporters.CsvMetricExporter;
 import id.opentelemetry.exporters.ElasticSearchMetricExporter;
 import id.xfunction.ResourceUtils;
 import id.xfunction.cli.ArgumentParsingException;
 import id.xfunction.cli.CommandOptions;
-import id.xfunction.function.LazyInitializer;
 import id.xfunction.logging.XLogger;
 import id.xfunction.nio.file.FilePredicates;
 import id.xfunction.nio.file.XFiles;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.Aggregation;
+import io.opentelemetry.sdk.metrics.InstrumentSelector;
+import io.opentelemetry.sdk.metrics.InstrumentType;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.View;
 import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.metrics.export.MetricReader;
 import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.regex.Pattern;
 import nu.pattern.OpenCV;
 import org.opencv.core.Mat;
@@ -68,11 +92,14 @@ public class DeepObjectPoseEstimationApp implements Inspector.Builder, AutoClose
     private static final Logger LOGGER = LoggerFactory.getLogger(DeepObjectPoseEstimationApp.class);
     private static final String CACHE_FOLDER_NAME = "_cache_dope4j";
     private static final JsonUtils jsonUtils = new JsonUtils();
+    private static final int PREFETCH_THREADS = Runtime.getRuntime().availableProcessors();
     private CommandOptions commandOptions;
     private ObjectsDecoder objectsDecoder;
     private Optional<CacheFileMapper> cacheFileMapper = Optional.empty();
+    private Optional<Dope4jResultsWriter> resultsWriter = Optional.empty();
     private PrintStream out;
     private Optional<SdkMeterProvider> sdkMeterProvider = Optional.empty();
+    private LongHistogram cacheReadTimeMeter;
 
     static {
         OpenCV.loadLocally();
@@ -95,27 +122,50 @@ public class DeepObjectPoseEstimationApp implements Inspector.Builder, AutoClose
         switch (commandOptions.getRequiredOption("action")) {
             case "runInference" -> runInference();
             case "showResults" -> showResults();
+            case "validate" -> validate();
+            case "benchmark" -> benchmark();
             default -> throw new ArgumentParsingException(
                     "Unknown action: " + commandOptions.getRequiredOption("action"));
         }
         sdkMeterProvider.ifPresent(SdkMeterProvider::forceFlush);
+        if (MemoryMetrics.isEnabled())
+            LOGGER.info("Memory usage summary:\n{}", MemoryMetrics.getSummary());
     }
 
     private void showResults() throws IOException {
-        var results =
-                jsonUtils.readDope4jResults(
-                        Paths.get(commandOptions.getRequiredOption("resultsJson")));
+        var results = readResults(Paths.get(commandOptions.getRequiredOption("resultsJson")));
         var imagesRoot =
                 commandOptions.getOption("imagesRoot").map(Paths::get).orElse(Paths.get(""));
         commandOptions.addOption("showProjectedCuboids2D", true);
+        var resolution = readInputResolution(commandOptions);
+        var interpolation = readInterpolation(commandOptions);
         for (var result : results) {
-            try (var inspector =
-                    build(new InputImage(imagesRoot.resolve(result.imagePath().orElseThrow())))) {
+            var imageFile = imagesRoot.resolve(result.imagePath().orElseThrow());
+            try (var inspector = build(new InputImage(imageFile, resolution, interpolation))) {
                 inspector.inspectPoses(result.detectedPoses());
             }
         }
     }
 
+    /**
+     * Read results which were selected by user. If results file has an index then only selected
+     * results are read from it.
+     */
+    private List<Dope4jResult> readResults(Path resultsJson) throws IOException {
+        var images = commandOptions.getOption("images");
+        if (images.isEmpty()) return jsonUtils.readDope4jResults(resultsJson);
+        if (Dope4jResultsIndex.getIndexFile(resultsJson).toFile().exists()) {
+            try (var reader = new Dope4jResultsReader(resultsJson)) {
+                return reader.findAll(images.get());
+            }
+        }
+        LOGGER.warn("Results index not found, reading all results from {}", resultsJson);
+        var matcher = Dope4jResultsIndex.newMatcher(images.get());
+        return jsonUtils.readDope4jResults(resultsJson).stream()
+                .filter(r -> r.imagePath().map(matcher::matches).orElse(false))
+                .toList();
+    }
+
     public void runInference() throws Exception {
         if (commandOptions.isOptionTrue("debug")) XLogger.load("logging-dope4j-debug.properties");
         var imagePath = Paths.get(commandOptions.getRequiredOption("imagePath"));
@@ -123,41 +173,17 @@ public class DeepObjectPoseEstimationApp implements Inspector.Builder, AutoClose
             throw new RuntimeException("Path does not exist: " + imagePath);
         LOGGER.info("Image path: {}", imagePath.toAbsolutePath());
         if (commandOptions.isOptionTrue("cache")) {
-            cacheFileMapper =
-                    commandOptions
-                            .getOption("cacheFolder")
-                            .map(Paths::get)
-                            .or(() -> XFiles.TEMP_FOLDER.map(p -> p.resolve(CACHE_FOLDER_NAME)))
-                            .or(() -> Optional.of(Paths.get(CACHE_FOLDER_NAME).toAbsolutePath()))
-                            .map(cacheFolder -> new CacheFileMapper(imagePath, cacheFolder));
+            cacheFileMapper = Optional.of(newCacheFileMapper(imagePath));
             LOGGER.info("Cache folder: {}", cacheFileMapper.get().getCacheHome());
         }
         var cameraInfoPath = commandOptions.getRequiredOption("cameraInfo");
         LOGGER.info("Reading camera info from: {}", cameraInfoPath);
         var objectSize = commandOptions.getRequiredOption("objectSize");
         LOGGER.info("Object cuboid size: {}", objectSize);
-        commandOptions
-                .getOption("exportMetricsToElastic")
-                .map(URI::create)
-                .ifPresent(
-                        uri -> {
-                            LOGGER.info("Emitting metrics to ElasticSearch");
-                            var exporter =
-                                    new ElasticSearchMetricExporter(uri, Optional.empty(), true);
-                            configureMetrics(exporter);
-                        });
-        commandOptions
-                .getOption("exportMetricsToCsv")
-                .map(Paths::get)
-                .ifPresent(
-                        path -> {
-                            LOGGER.info("Emitting metrics to CSV files in {}", path);
-                            try {
-                                configureMetrics(new CsvMetricExporter(path));
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        });
+        MemoryMetrics.setEnabled(commandOptions.isOptionTrue("memoryMetrics"));
+        var metricReaders = readMetricReaders(commandOptions);
+        if (!metricReaders.isEmpty())
+            sdkMeterProvider = Optional.of(configureMetrics(metricReaders));
         var cameraInfo = jsonUtils.readCameraInfo(Paths.get(cameraInfoPath));
         var objectModel = newCuboid(objectSize);
         var threshold =
@@ -165,47 +191,397 @@ public class DeepObjectPoseEstimationApp implements Inspector.Builder, AutoClose
                         .getOption("threshold")
                         .map(Double::parseDouble)
                         .orElse(DopeConstants.DEFAULT_PEAK_THRESHOLD);
-        objectsDecoder = new ObjectsDecoder(threshold, objectModel, cameraInfo, this);
+        objectsDecoder =
+                new ObjectsDecoder(
+                        threshold, objectModel, cameraInfo, readPnpConfig(commandOptions), this);
+        // meters should be created only once metrics are configured
+        cacheReadTimeMeter =
+                LatencyMetrics.createHistogram(
+                        GlobalOpenTelemetry.getMeter(
+                                DeepObjectPoseEstimationApp.class.getSimpleName()),
+                        "cache_read",
+                        "Output tensor reading time from the cache");
+        // load the model in background while images are scanned and preprocessed
+        var serviceFuture = startService();
+        var resultsJson = commandOptions.getOption("resultsJson").map(Paths::get);
+        try {
+            var imageFilesList = listImageFiles(imagePath);
+            LOGGER.info("Found {} images to run inference on", imageFilesList.size());
+            if (imageFilesList.isEmpty())
+                throw new RuntimeException("No image files found in " + imagePath);
+            if (resultsJson.isPresent())
+                resultsWriter = Optional.of(new Dope4jResultsWriter(resultsJson.get()));
+            var resolution = readInputResolution(commandOptions);
+            try (var prefetcher =
+                    new ImagePrefetcher(
+                            imageFilesList,
+                            PREFETCH_THREADS,
+                            resolution,
+                            readInterpolation(commandOptions))) {
+                while (prefetcher.hasNext()) {
+                    var next = prefetcher.next();
+                    try {
+                        var image = next.image().get();
+                        if (processFromCache(image).isPresent()) continue;
+                        serviceFuture.join().analyzeBatch(List.of(image));
+                    } catch (Exception e) {
+                        LOGGER.error("Failed to decode image " + next.file() + ": ", e);
+                    }
+                }
+            }
+        } finally {
+            closeService(serviceFuture);
+            if (resultsWriter.isPresent()) resultsWriter.get().close();
+        }
+    }
+
+    /**
+     * Runs the reference model and the candidate model (INT8 quantized, fp16 etc) on the same
+     * images and compares detected poses with the expected results. Fails if candidate model
+     * detects different poses.
+     */
+    private void validate() throws Exception {
+        if (commandOptions.isOptionTrue("debug")) XLogger.load("logging-dope4j-debug.properties");
+        var imagePath = Paths.get(commandOptions.getRequiredOption("imagePath"));
+        var validator =
+                new Dope4jResultsValidator(
+                        jsonUtils.readDope4jResults(
+                                Paths.get(commandOptions.getRequiredOption("resultsJson"))));
+        var cameraInfo =
+                jsonUtils.readCameraInfo(Paths.get(commandOptions.getRequiredOption("cameraInfo")));
+        var threshold =
+                commandOptions
+                        .getOption("threshold")
+                        .map(Double::parseDouble)
+                        .orElse(DopeConstants.DEFAULT_PEAK_THRESHOLD);
+        var decoder =
+                new ObjectsDecoder(
+                        threshold,
+                        newCuboid(commandOptions.getRequiredOption("objectSize")),
+                        cameraInfo,
+                        readPnpConfig(commandOptions),
+                        null);
+        var modelUrl = commandOptions.getRequiredOption("modelUrl");
+        var candidateModelUrl = commandOptions.getRequiredOption("candidateModelUrl");
         var imageFilesList = listImageFiles(imagePath);
-        LOGGER.info("Found {} images to run inference on", imageFilesList.size());
         if (imageFilesList.isEmpty())
             throw new RuntimeException("No image files found in " + imagePath);
-        var serviceGetter =
-                new LazyInitializer<DeepObjectPoseEstimationService<OutputPoses>>(
-                        () -> {
-                            var modelUrl = commandOptions.getRequiredOption("modelUrl");
-                            LOGGER.info("Model URL: {}", modelUrl);
-                            return new DeepObjectPoseEstimationService<OutputPoses>(
-                                    modelUrl, objectsDecoder);
-                        });
-        try {
-            for (var imageFile : imageFilesList) {
-                try {
-                    if (processFromCache(imageFile).isPresent()) continue;
-                    var service = serviceGetter.get();
-                    service.analyze(imageFile).stream().findFirst();
-                } catch (Exception e) {
-                    LOGGER.error("Failed to decode image " + imageFile + ": ", e);
+        var modelLoadingConfig = readModelLoadingConfig(commandOptions);
+        var resolution = readInputResolution(commandOptions);
+        if (validate(modelUrl, decoder, validator, imageFilesList, modelLoadingConfig, resolution)
+                > 0)
+            out.println("Reference model does not match expected results, they may be outdated");
+        var mismatches =
+                validate(
+                        candidateModelUrl,
+                        decoder,
+                        validator,
+                        imageFilesList,
+                        modelLoadingConfig,
+                        resolution);
+        if (mismatches > 0)
+            throw new RuntimeException(
+                    String.format(
+                            "Candidate model %s failed validation on %d images",
+                            candidateModelUrl, mismatches));
+        out.println("Candidate model passed validation");
+    }
+
+    /**
+     * @return number of images for which model detected poses different from expected
+     */
+    private int validate(
+            String modelUrl,
+            ObjectsDecoder decoder,
+            Dope4jResultsValidator validator,
+            List<Path> imageFiles,
+            ModelLoadingConfig modelLoadingConfig,
+            InputResolution resolution)
+            throws IOException {
+        out.println("Validating model " + modelUrl);
+        var validated = 0;
+        var mismatches = 0;
+        var inferenceTime = Duration.ZERO;
+        try (var service =
+                new DeepObjectPoseEstimationService<OutputPoses>(
+                        new DjlInferenceBackend(modelUrl, modelLoadingConfig),
+                        decoder,
+                        resolution)) {
+            service.start();
+            for (var imageFile : imageFiles) {
+                var expected = validator.findExpected(imageFile);
+                if (expected.isEmpty()) {
+                    out.println(imageFile + ": no expected result found, skipping");
+                    continue;
+                }
+                var image = new InputImage(imageFile, resolution);
+                var startAt = Instant.now();
+                var actual = service.analyzeBatch(List.of(image)).get(0);
+                inferenceTime = inferenceTime.plus(Duration.between(startAt, Instant.now()));
+                validated++;
+                var difference =
+                        actual.isEmpty()
+                                ? Optional.of("could not decode network output")
+                                : validator.compare(expected.get().detectedPoses(), actual.get());
+                if (difference.isPresent()) {
+                    mismatches++;
+                    out.println(imageFile + ": " + difference.get());
                 }
             }
-        } finally {
-            serviceGetter.ifInitialized(AutoCloseable::close);
+        }
+        out.printf(
+                "Model %s: validated %d images, %d mismatches, average inference time %d ms%n",
+                modelUrl,
+                validated,
+                mismatches,
+                validated == 0 ? 0 : inferenceTime.toMillis() / validated);
+        return mismatches;
+    }
+
+    /**
+     * Replays images from the imagePath through the service and reports latency and throughput.
+     * When model URL is not provided, network output tensors stored in the cache are replayed
+     * instead of running the inference (see {@link ReplayInferenceBackend}).
+     */
+    private void benchmark() throws Exception {
+        if (commandOptions.isOptionTrue("debug")) XLogger.load("logging-dope4j-debug.properties");
+        var imagePath = Paths.get(commandOptions.getRequiredOption("imagePath"));
+        var imageFilesList = listImageFiles(imagePath);
+        if (imageFilesList.isEmpty())
+            throw new RuntimeException("No image files found in " + imagePath);
+        var cameraInfo =
+                jsonUtils.readCameraInfo(Paths.get(commandOptions.getRequiredOption("cameraInfo")));
+        var config =
+                new BenchmarkConfig(
+                        commandOptions.getOption("concurrency").map(Integer::parseInt).orElse(1),
+                        commandOptions.getOption("batchSize").map(Integer::parseInt).orElse(1),
+                        commandOptions.getOption("rate").map(Double::parseDouble),
+                        commandOptions
+                                .getOption("imagesCount")
+                                .map(Integer::parseInt)
+                                .orElse(imageFilesList.size()));
+        MemoryMetrics.setEnabled(commandOptions.isOptionTrue("memoryMetrics"));
+        var stageLatencyReader = new StageLatencyReader();
+        var metricReaders = readMetricReaders(commandOptions);
+        metricReaders.add(stageLatencyReader);
+        // meters should be created only once metrics are configured
+        sdkMeterProvider = Optional.of(configureMetrics(metricReaders));
+        var threshold =
+                commandOptions
+                        .getOption("threshold")
+                        .map(Double::parseDouble)
+                        .orElse(DopeConstants.DEFAULT_PEAK_THRESHOLD);
+        var decoder =
+                new ObjectsDecoder(
+                        threshold,
+                        newCuboid(commandOptions.getRequiredOption("objectSize")),
+                        cameraInfo,
+                        readPnpConfig(commandOptions),
+                        null);
+        var modelUrl = commandOptions.getOption("modelUrl");
+        InferenceBackend backend;
+        if (modelUrl.isPresent()) {
+            LOGGER.info("Model URL: {}", modelUrl.get());
+            backend =
+                    new DjlInferenceBackend(modelUrl.get(), readModelLoadingConfig(commandOptions));
+        } else {
+            var mapper = newCacheFileMapper(imagePath);
+            LOGGER.info("Model URL is not set, replaying tensors from {}", mapper.getCacheHome());
+            backend =
+                    new ReplayInferenceBackend(
+                            mapper,
+                            commandOptions
+                                    .getOption("replayBatchLatencyMillis")
+                                    .map(Long::parseLong)
+                                    .map(Duration::ofMillis)
+                                    .orElse(Duration.ZERO),
+                            commandOptions
+                                    .getOption("replayImageLatencyMillis")
+                                    .map(Long::parseLong)
+                                    .map(Duration::ofMillis)
+                                    .orElse(Duration.ZERO));
+        }
+        var resolution = readInputResolution(commandOptions);
+        try (var service =
+                new DeepObjectPoseEstimationService<OutputPoses>(backend, decoder, resolution)) {
+            service.start(
+                    new WarmupConfig(
+                            commandOptions
+                                    .getOption("warmupIterations")
+                                    .map(Integer::parseInt)
+                                    .orElse(3),
+                            List.of(config.batchSize())));
+            var result =
+                    new Benchmark(
+                                    service,
+                                    imageFilesList,
+                                    resolution,
+                                    readInterpolation(commandOptions),
+                                    config,
+                                    stageLatencyReader)
+                            .run();
+            out.print(result);
+        }
+    }
+
+    /**
+     * Starts loading the model in background. When model URL is not provided all images are
+     * expected to be found in the cache and returned future completes exceptionally.
+     */
+    private CompletableFuture<DeepObjectPoseEstimationService<OutputPoses>> startService() {
+        var modelUrl = commandOptions.getOption("modelUrl");
+        if (modelUrl.isEmpty())
+            return CompletableFuture.failedFuture(
+                    new ArgumentParsingException(
+                            "Option modelUrl is required to analyze images which are not in"
+                                    + " cache"));
+        LOGGER.info("Model URL: {}", modelUrl.get());
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    var service =
+                            new DeepObjectPoseEstimationService<OutputPoses>(
+                                    new DjlInferenceBackend(
+                                            modelUrl.get(), readModelLoadingConfig(commandOptions)),
+                                    objectsDecoder,
+                                    readInputResolution(commandOptions));
+                    service.start();
+                    return service;
+                });
+    }
+
+    private void closeService(
+            CompletableFuture<DeepObjectPoseEstimationService<OutputPoses>> serviceFuture) {
+        if (!serviceFuture.isDone()) LOGGER.info("Waiting for the model to load before closing it");
+        try {
+            serviceFuture.join().close();
+        } catch (CompletionException e) {
+            LOGGER.debug("Service was not started: {}", e.getMessage());
         }
     }
 
-    private void configureMetrics(MetricExporter exporter) {
-        if (sdkMeterProvider.isPresent()) {
-            LOGGER.warn("Metrics already configured, not configuring them second time");
-            return;
+    /**
+     * Creates metric readers for all the metric exporters enabled in the options. Prometheus
+     * metrics server is started right away.
+     */
+    public static List<MetricReader> readMetricReaders(CommandOptions options) throws IOException {
+        var metricReaders = new ArrayList<MetricReader>();
+        var elasticUri = options.getOption("exportMetricsToElastic").map(URI::create);
+        if (elasticUri.isPresent()) {
+            LOGGER.info("Emitting metrics to ElasticSearch");
+            metricReaders.add(
+                    newPeriodicMetricReader(
+                            new ElasticSearchMetricExporter(
+                                    elasticUri.get(), Optional.empty(), true)));
+        }
+        var csvPath = options.getOption("exportMetricsToCsv").map(Paths::get);
+        if (csvPath.isPresent()) {
+            LOGGER.info("Emitting metrics to CSV files in {}", csvPath.get());
+            metricReaders.add(newPeriodicMetricReader(new CsvMetricExporter(csvPath.get())));
         }
-        var metricReader =
-                PeriodicMetricReader.builder(exporter).setInterval(Duration.ofSeconds(3)).build();
-        var provider = SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+        var prometheusPort = options.getOption("exportMetricsToPrometheus").map(Integer::parseInt);
+        if (prometheusPort.isPresent()) {
+            var server = new PrometheusMetricsServer(new InetSocketAddress(prometheusPort.get()));
+            server.start();
+            metricReaders.add(server);
+        }
+        return metricReaders;
+    }
+
+    private static MetricReader newPeriodicMetricReader(MetricExporter exporter) {
+        return PeriodicMetricReader.builder(exporter).setInterval(Duration.ofSeconds(3)).build();
+    }
+
+    /**
+     * Registers meter provider with the given readers globally. It should be done before any of
+     * dope4j objects are created, otherwise their meters stay no-op.
+     */
+    public static SdkMeterProvider configureMetrics(List<MetricReader> metricReaders) {
+        var builder = SdkMeterProvider.builder();
+        metricReaders.forEach(builder::registerMetricReader);
+        var provider =
+                builder
+                        // default buckets are meant for millis
+                        .registerView(
+                                InstrumentSelector.builder()
+                                        .setName("*" + LatencyMetrics.NAME_SUFFIX)
+                                        .build(),
+                                View.builder()
+                                        .setAggregation(
+                                                Aggregation.explicitBucketHistogram(
+                                                        LatencyMetrics.BUCKET_BOUNDARIES))
+                                        .build())
+                        .registerView(
+                                InstrumentSelector.builder()
+                                        .setMeterName(MemoryMetrics.METER_NAME)
+                                        .setType(InstrumentType.HISTOGRAM)
+                                        .build(),
+                                View.builder()
+                                        .setAggregation(
+                                                Aggregation.explicitBucketHistogram(
+                                                        MemoryMetrics.BUCKET_BOUNDARIES))
+                                        .build())
+                        .build();
         OpenTelemetrySdk.builder().setMeterProvider(provider).buildAndRegisterGlobal();
-        sdkMeterProvider = Optional.of(provider);
+        return provider;
+    }
+
+    /** Reads ONNX Runtime session settings, options which are not set use defaults */
+    public static ModelLoadingConfig readModelLoadingConfig(CommandOptions options) {
+        var defaults = ModelLoadingConfig.DEFAULT;
+        var ortDevice = options.getOption("ortDevice");
+        return new ModelLoadingConfig(
+                options.getOption("intraOpThreads")
+                        .map(Integer::parseInt)
+                        .or(defaults::intraOpThreads),
+                options.getOption("interOpThreads")
+                        .map(Integer::parseInt)
+                        .or(defaults::interOpThreads),
+                options.getOption("optimizationLevel")
+                        .map(OptLevel::valueOf)
+                        .or(defaults::optimizationLevel),
+                options.getOption("executionMode")
+                        .map(ExecutionMode::valueOf)
+                        .or(defaults::executionMode),
+                options.getOption("memoryArena")
+                        .map(Boolean::parseBoolean)
+                        .or(defaults::memoryArena),
+                // CPU does not require any execution provider
+                ortDevice.isPresent()
+                        ? ortDevice.filter(device -> !"CPU".equals(device))
+                        : defaults.ortDevice(),
+                options.getOption("optimizedModelFile")
+                        .map(Paths::get)
+                        .or(defaults::optimizedModelFile));
+    }
+
+    /** Reads resolution of the network input, if it is not set default one is used */
+    public static InputResolution readInputResolution(CommandOptions options) {
+        return options.getOption("inputResolution")
+                .map(InputResolution::parse)
+                .orElse(InputResolution.DEFAULT);
     }
 
-    private Cuboid3D newCuboid(String objectSize) {
+    /** Reads interpolation used to resize input images, if it is not set default one is used */
+    public static Interpolation readInterpolation(CommandOptions options) {
+        return options.getOption("interpolation")
+                .map(Interpolation::valueOf)
+                .orElse(Interpolation.DEFAULT);
+    }
+
+    /** Reads PnP solver settings, if they are not set default ones are used */
+    public static PnpConfig readPnpConfig(CommandOptions options) {
+        var defaults = PnpConfig.DEFAULT;
+        return new PnpConfig(
+                options.getOption("pnpMethod").map(PnpMethod::valueOf).orElse(defaults.method()),
+                options.getOption("pnpRefine")
+                        .map(Boolean::parseBoolean)
+                        .orElse(defaults.refine()));
+    }
+
+    /**
+     * @param objectSize cuboid size in format "width,height,length"
+     */
+    public static Cuboid3D newCuboid(String objectSize) {
         var vals =
                 Pattern.compile(",")
                         .splitAsStream(objectSize)
@@ -217,17 +593,30 @@ public class DeepObjectPoseEstimationApp implements Inspector.Builder, AutoClose
         return new Cuboid3D(new Point3D(), vals[0], vals[1], vals[2]);
     }
 
-    private Optional<OutputPoses> processFromCache(Path imageFile) throws IOException {
+    private Optional<OutputPoses> processFromCache(InputImage image) throws IOException {
         if (cacheFileMapper.isEmpty()) return Optional.empty();
+        var imageFile = image.path().orElseThrow();
         var tensorFile = cacheFileMapper.get().getTensorFile(imageFile);
         if (!tensorFile.toFile().exists()) return Optional.empty();
         LOGGER.debug(
                 "Image data found in cache, do not run inference and use it instead: image {}",
                 imageFile);
-        var tensor =
-                NDArray.decode(
-                        Engine.getInstance().newBaseManager(), Files.readAllBytes(tensorFile));
-        return objectsDecoder.decode(new InputImage(imageFile), tensor);
+        try (var manager = Engine.getInstance().newBaseManager()) {
+            var startAt = System.nanoTime();
+            var tensor = NDArray.decode(manager, Files.readAllBytes(tensorFile));
+            LatencyMetrics.record(cacheReadTimeMeter, startAt);
+            return objectsDecoder.decode(image, tensor);
+        }
+    }
+
+    private CacheFileMapper newCacheFileMapper(Path imagePath) {
+        var cacheFolder =
+                commandOptions
+                        .getOption("cacheFolder")
+                        .map(Paths::get)
+                        .or(() -> XFiles.TEMP_FOLDER.map(p -> p.resolve(CACHE_FOLDER_NAME)))
+                        .orElse(Paths.get(CACHE_FOLDER_NAME).toAbsolutePath());
+        return new CacheFileMapper(imagePath, cacheFolder);
     }
 
     private List<Path> listImageFiles(Path imagePath) throws IOException {
@@ -271,6 +660,7 @@ public class DeepObjectPoseEstimationApp implements Inspector.Builder, AutoClose
                 mat,
                 inputImage,
                 cacheFileMapper,
+                resultsWriter,
                 commandOptions.isOptionTrue("showVerticesBeliefs"),
                 commandOptions.isOptionTrue("showCenterPointBeliefs"),
                 commandOptions.isOptionTrue("showAffinityFields"),
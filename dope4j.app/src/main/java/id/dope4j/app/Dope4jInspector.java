@@ -22,6 +22,7 @@ import id.dope4j.decoders.ObjectsDecoder.Inspector;
 import id.dope4j.decoders.SaveStateToCacheDecoder;
 import id.dope4j.impl.CacheFileMapper;
 import id.dope4j.impl.DjlOpenCvConverters;
+import id.dope4j.impl.MemoryMetrics;
 import id.dope4j.impl.Utils;
 import id.dope4j.io.InputImage;
 import id.dope4j.io.OutputKeypoints;
@@ -50,6 +51,7 @@ class Dope4jInspector implements Inspector {
     private boolean showCuboid2D;
     private boolean showProjectedCuboids2D;
     private Optional<SaveStateToCacheDecoder> saveStateOpt;
+    private Optional<Dope4jResultsWriter> resultsWriter;
     private PrintStream out;
     private int lineThickness;
 
@@ -58,6 +60,7 @@ class Dope4jInspector implements Inspector {
             Mat mat,
             InputImage inputImage,
             Optional<CacheFileMapper> cacheFileMapper,
+            Optional<Dope4jResultsWriter> resultsWriter,
             boolean showVerticesBeliefs,
             boolean showCenterPointBeliefs,
             boolean showAffinityFields,
@@ -75,6 +78,7 @@ class Dope4jInspector implements Inspector {
         this.showCuboid2D = showCuboid2D;
         this.showProjectedCuboids2D = showProjectedCuboids2D;
         this.lineThickness = lineThickness;
+        this.resultsWriter = resultsWriter;
         saveStateOpt = cacheFileMapper.map(SaveStateToCacheDecoder::new);
     }
 
@@ -150,7 +154,11 @@ class Dope4jInspector implements Inspector {
 
     @Override
     public void inspectPoses(OutputPoses poses) {
-        out.println(new Dope4jResult(inputImage.path(), poses).toString());
+        var allocatedAt = MemoryMetrics.allocatedBytes();
+        var result = new Dope4jResult(inputImage.path(), poses);
+        out.println(result.toString());
+        resultsWriter.ifPresent(writer -> writer.write(result));
+        MemoryMetrics.record("serialize", allocatedAt);
         if (showProjectedCuboids2D) {
             poses.objects2d()
                     .forEach(
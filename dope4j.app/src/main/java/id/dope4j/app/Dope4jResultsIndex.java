@@ -0,0 +1,113 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.app;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the results file which maps image path to the location (byte offset and length) of its
+ * {@link Dope4jResult} inside the results file.
+ *
+ * <p>Index is stored alongside the results file in text format where each line describes one
+ * result with tab-separated fields (image paths may contain spaces):
+ *
+ * <pre>{@code
+ * <offset>\t<length>\t<imagePath>
+ * }</pre>
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class Dope4jResultsIndex {
+
+    private static final String INDEX_FILE_EXTENSION = ".index";
+    private static final Pattern SEPARATOR = Pattern.compile("\t");
+
+    /** Location of the result inside the results file */
+    public record Entry(Path imagePath, long offset, int length) {
+
+        public static Entry parse(String line) {
+            var tokens = SEPARATOR.split(line, 3);
+            if (tokens.length != 3)
+                throw new IllegalArgumentException("Malformed results index entry: " + line);
+            return new Entry(
+                    Paths.get(tokens[2]), Long.parseLong(tokens[0]), Integer.parseInt(tokens[1]));
+        }
+
+        public String format() {
+            return offset + "\t" + length + "\t" + imagePath;
+        }
+    }
+
+    private final Map<Path, Entry> entries = new LinkedHashMap<>();
+
+    /** Return index file which belongs to the given results file */
+    public static Path getIndexFile(Path resultsFile) {
+        return resultsFile.resolveSibling(resultsFile.getFileName() + INDEX_FILE_EXTENSION);
+    }
+
+    public static Dope4jResultsIndex read(Path indexFile) throws IOException {
+        var index = new Dope4jResultsIndex();
+        try (var lines = Files.lines(indexFile)) {
+            lines.filter(l -> !l.isBlank()).map(Entry::parse).forEach(index::add);
+        }
+        return index;
+    }
+
+    /**
+     * Creates matcher for image paths.
+     *
+     * @param glob see {@link FileSystems#getPathMatcher(String)}
+     */
+    public static PathMatcher newMatcher(String glob) {
+        return FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    }
+
+    public void add(Entry entry) {
+        entries.put(entry.imagePath(), entry);
+    }
+
+    public Optional<Entry> find(Path imagePath) {
+        return Optional.ofNullable(entries.get(imagePath));
+    }
+
+    /**
+     * Find entries of all images which match the given image path or glob.
+     *
+     * <p>Exact image paths are resolved without scanning the index.
+     */
+    public List<Entry> findAll(String imagePathOrGlob) {
+        var entry = find(Paths.get(imagePathOrGlob));
+        if (entry.isPresent()) return List.of(entry.get());
+        var matcher = newMatcher(imagePathOrGlob);
+        return entries.values().stream().filter(e -> matcher.matches(e.imagePath())).toList();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.app;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import id.dope4j.jackson.JsonUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Random access to the results file using its {@link Dope4jResultsIndex}.
+ *
+ * <p>Only results of requested images are read from the results file, everything else is skipped.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class Dope4jResultsReader implements AutoCloseable {
+
+    private static final JsonUtils jsonUtils = new JsonUtils();
+    private final Dope4jResultsIndex index;
+    private final FileChannel channel;
+
+    public Dope4jResultsReader(Path resultsFile) throws IOException {
+        index = Dope4jResultsIndex.read(Dope4jResultsIndex.getIndexFile(resultsFile));
+        channel = FileChannel.open(resultsFile, READ);
+    }
+
+    public Optional<Dope4jResult> find(Path imagePath) throws IOException {
+        var entry = index.find(imagePath);
+        if (entry.isEmpty()) return Optional.empty();
+        return Optional.of(read(entry.get()));
+    }
+
+    /**
+     * @see Dope4jResultsIndex#findAll(String)
+     */
+    public List<Dope4jResult> findAll(String imagePathOrGlob) throws IOException {
+        var entries = index.findAll(imagePathOrGlob);
+        var results = new ArrayList<Dope4jResult>(entries.size());
+        for (var entry : entries) {
+            results.add(read(entry));
+        }
+        return results;
+    }
+
+    private Dope4jResult read(Dope4jResultsIndex.Entry entry) throws IOException {
+        var buf = ByteBuffer.allocate(entry.length());
+        var position = entry.offset();
+        while (buf.hasRemaining()) {
+            var count = channel.read(buf, position);
+            if (count < 0)
+                throw new IOException("Results file is shorter than its index: " + entry);
+            position += count;
+        }
+        return jsonUtils.readDope4jResult(buf.array());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
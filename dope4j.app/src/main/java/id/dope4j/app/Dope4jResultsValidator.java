@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.app;
+
+import id.dope4j.io.OutputPoses;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Compares detected poses with the expected results.
+ *
+ * <p>Poses are considered same when each coordinate of their positions differs no more than by
+ * {@link #POSITION_DELTA}. It is used to check that models with reduced precision (INT8, fp16)
+ * detect same poses as the original model.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class Dope4jResultsValidator {
+
+    /** Maximum allowed difference between coordinates of expected and actual pose positions */
+    public static final double POSITION_DELTA = 0.0999;
+
+    private final List<Dope4jResult> expectedResults;
+
+    public Dope4jResultsValidator(List<Dope4jResult> expectedResults) {
+        this.expectedResults = expectedResults;
+    }
+
+    /**
+     * Find expected result for the given image by matching its file name. Result image paths are
+     * allowed to have additional suffixes (like "image.jpg.png").
+     */
+    public Optional<Dope4jResult> findExpected(Path image) {
+        var imageFileName = image.getFileName().toString();
+        return expectedResults.stream()
+                .filter(
+                        res ->
+                                res.imagePath()
+                                        .map(p -> p.getFileName().toString())
+                                        .filter(name -> name.startsWith(imageFileName))
+                                        .isPresent())
+                .findFirst();
+    }
+
+    /**
+     * @return description of the difference or empty if poses are same
+     */
+    public Optional<String> compare(OutputPoses expected, OutputPoses actual) {
+        var expectedPoses = expected.poses();
+        var actualPoses = actual.poses();
+        if (expectedPoses.size() != actualPoses.size())
+            return Optional.of(
+                    String.format(
+                            "expected %d poses but found %d",
+                            expectedPoses.size(), actualPoses.size()));
+        for (int i = 0; i < expectedPoses.size(); i++) {
+            var expectedPosition = expectedPoses.get(i).position();
+            var actualPosition = actualPoses.get(i).position();
+            if (Math.abs(expectedPosition.getX() - actualPosition.getX()) > POSITION_DELTA
+                    || Math.abs(expectedPosition.getY() - actualPosition.getY()) > POSITION_DELTA
+                    || Math.abs(expectedPosition.getZ() - actualPosition.getZ()) > POSITION_DELTA)
+                return Optional.of(
+                        String.format(
+                                "pose %d expected position %s but found %s",
+                                i, expectedPosition, actualPosition));
+        }
+        return Optional.empty();
+    }
+}
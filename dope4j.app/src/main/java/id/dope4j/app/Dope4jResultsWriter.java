@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.app;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes {@link Dope4jResult} into the results file and maintains {@link Dope4jResultsIndex} for
+ * it.
+ *
+ * <p>Thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class Dope4jResultsWriter implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Dope4jResultsWriter.class);
+    private final Path resultsFile;
+    private final FileChannel channel;
+    private final BufferedWriter indexWriter;
+    private long offset;
+
+    /** Existing results file and its index will be overwritten */
+    public Dope4jResultsWriter(Path resultsFile) throws IOException {
+        this.resultsFile = resultsFile;
+        channel = FileChannel.open(resultsFile, CREATE, WRITE, TRUNCATE_EXISTING);
+        indexWriter = Files.newBufferedWriter(Dope4jResultsIndex.getIndexFile(resultsFile));
+        LOGGER.info("Writing results to {}", resultsFile);
+    }
+
+    public synchronized void write(Dope4jResult result) {
+        var data = (result.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            var buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) channel.write(buf);
+            if (result.imagePath().isPresent()) {
+                indexWriter.write(
+                        new Dope4jResultsIndex.Entry(
+                                        result.imagePath().get(), offset, data.length)
+                                .format());
+                indexWriter.newLine();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write results to " + resultsFile, e);
+        }
+        offset += data.length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try (channel;
+                indexWriter) {
+            LOGGER.info("Closing results file {}", resultsFile);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.app;
+
+import id.dope4j.InputResolution;
+import id.dope4j.io.InputImage;
+import id.dope4j.io.Interpolation;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads (decodes and resizes) input images in background threads ahead of the moment they are
+ * requested.
+ *
+ * <p>Images are returned in the same order as their files. At most {@link #lookahead} images are
+ * kept loaded in memory.
+ *
+ * <p>Not thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+class ImagePrefetcher implements Iterator<ImagePrefetcher.Prefetched>, AutoCloseable {
+
+    /**
+     * @param image completes when image is loaded, or completes exceptionally when image could
+     *     not be loaded
+     */
+    record Prefetched(Path file, Future<InputImage> image) {}
+
+    private final Iterator<Path> files;
+    private final int lookahead;
+    private final ExecutorService executor;
+    private final InputResolution resolution;
+    private final Interpolation interpolation;
+    private final Deque<Prefetched> queue = new ArrayDeque<>();
+
+    /**
+     * @param resolution resolution to which images are resized
+     * @param interpolation interpolation used to resize images
+     */
+    ImagePrefetcher(
+            List<Path> files,
+            int threads,
+            InputResolution resolution,
+            Interpolation interpolation) {
+        this.files = files.iterator();
+        this.resolution = resolution;
+        this.interpolation = interpolation;
+        lookahead = threads * 2;
+        executor = Executors.newFixedThreadPool(threads);
+        fill();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public Prefetched next() {
+        if (queue.isEmpty()) throw new NoSuchElementException();
+        var next = queue.poll();
+        fill();
+        return next;
+    }
+
+    private void fill() {
+        while (queue.size() < lookahead && files.hasNext()) {
+            var file = files.next();
+            var image = executor.submit(() -> new InputImage(file, resolution, interpolation));
+            queue.add(new Prefetched(file, image));
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.app;
+
+import id.dope4j.impl.LatencyMetrics;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.MetricDataType;
+import io.opentelemetry.sdk.metrics.export.CollectionRegistration;
+import io.opentelemetry.sdk.metrics.export.MetricReader;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Reads latency histograms of all the processing stages (see {@link LatencyMetrics}) in-process,
+ * so that their percentiles can be reported without any external metrics backend.
+ *
+ * <p>Histograms only keep counts of the buckets, so percentiles are estimated with linear
+ * interpolation inside the bucket (same as Prometheus "histogram_quantile" does). Their accuracy
+ * depends on the bucket boundaries.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class StageLatencyReader implements MetricReader {
+
+    private record Histogram(List<Double> boundaries, long[] counts) {}
+
+    private volatile CollectionRegistration registration;
+    private Map<String, Histogram> baseline = Map.of();
+
+    @Override
+    public void register(CollectionRegistration registration) {
+        this.registration = registration;
+    }
+
+    @Override
+    public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+        return AggregationTemporality.CUMULATIVE;
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    /** Ignore all measurements recorded so far (for example by the previous runs) */
+    public synchronized void reset() {
+        baseline = collect();
+    }
+
+    /**
+     * Estimates percentiles of each stage latency which are recorded since the last {@link
+     * #reset()}
+     *
+     * @param quantiles quantiles in range [0, 1]
+     * @return percentiles in the same order as quantiles, by stage name. Stages without any
+     *     measurements are not included.
+     */
+    public synchronized SortedMap<String, List<Duration>> findPercentiles(double... quantiles) {
+        var percentiles = new TreeMap<String, List<Duration>>();
+        collect()
+                .forEach(
+                        (stage, histogram) -> {
+                            var counts = histogram.counts().clone();
+                            var base = baseline.get(stage);
+                            if (base != null && base.boundaries().equals(histogram.boundaries()))
+                                for (int i = 0; i < counts.length; i++) counts[i] -= base.counts[i];
+                            var total = 0L;
+                            for (var count : counts) total += count;
+                            if (total == 0) return;
+                            var values = new Duration[quantiles.length];
+                            for (int i = 0; i < quantiles.length; i++)
+                                values[i] =
+                                        Duration.ofNanos(
+                                                (long)
+                                                        estimate(
+                                                                histogram.boundaries(),
+                                                                counts,
+                                                                total,
+                                                                quantiles[i]));
+                            percentiles.put(stage, List.of(values));
+                        });
+        return percentiles;
+    }
+
+    private double estimate(List<Double> boundaries, long[] counts, long total, double quantile) {
+        var rank = quantile * total;
+        var cumulative = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0 || cumulative + counts[i] < rank) {
+                cumulative += counts[i];
+                continue;
+            }
+            // values beyond the last boundary are reported as the last boundary
+            if (i == boundaries.size()) return boundaries.get(i - 1);
+            var lower = i == 0 ? 0 : boundaries.get(i - 1);
+            var upper = boundaries.get(i);
+            return lower + (upper - lower) * (rank - cumulative) / counts[i];
+        }
+        return boundaries.isEmpty() ? 0 : boundaries.get(boundaries.size() - 1);
+    }
+
+    /** Merges histograms of the same stage reported by different meters and batch sizes */
+    private Map<String, Histogram> collect() {
+        var histograms = new HashMap<String, Histogram>();
+        var registration = this.registration;
+        if (registration == null) return histograms;
+        for (MetricData metric : registration.collectAllMetrics()) {
+            if (metric.getType() != MetricDataType.HISTOGRAM) continue;
+            if (!metric.getName().endsWith(LatencyMetrics.NAME_SUFFIX)) continue;
+            var stage =
+                    metric.getName()
+                            .substring(
+                                    0,
+                                    metric.getName().length()
+                                            - LatencyMetrics.NAME_SUFFIX.length());
+            for (var point : metric.getData().getPoints()) {
+                if (!(point instanceof HistogramPointData histogramPoint)) continue;
+                var histogram =
+                        histograms.computeIfAbsent(
+                                stage,
+                                k ->
+                                        new Histogram(
+                                                histogramPoint.getBoundaries(),
+                                                new long[histogramPoint.getCounts().size()]));
+                // all latency histograms are expected to have same boundaries
+                if (!histogram.boundaries().equals(histogramPoint.getBoundaries())) continue;
+                var counts = histogramPoint.getCounts();
+                for (int i = 0; i < counts.size(); i++) histogram.counts()[i] += counts.get(i);
+            }
+        }
+        return histograms;
+    }
+}
@@ -79,6 +79,14 @@ public class JsonUtils {
         }
     }
 
+    public Dope4jResult readDope4jResult(byte[] data) {
+        try {
+            return reader.readValue(data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public CameraInfo readCameraInfo(Path path) {
         try {
             return cameraReader.readValue(path.toFile(), CameraInfo.class);
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.export.CollectionRegistration;
+import io.opentelemetry.sdk.metrics.export.MetricReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves metrics over HTTP in Prometheus text format, so that they can be scraped by Prometheus
+ * (or simply read with curl) while the application is running, without any external collector.
+ *
+ * <p>Server is {@link MetricReader} and it serves metrics of the {@link SdkMeterProvider} which it
+ * is registered with. To serve all dope4j metrics, meter provider needs to be registered globally
+ * before any of dope4j objects are created:
+ *
+ * <pre>{@code
+ * var server = new PrometheusMetricsServer(new InetSocketAddress(9464));
+ * var provider = SdkMeterProvider.builder().registerMetricReader(server).build();
+ * OpenTelemetrySdk.builder().setMeterProvider(provider).buildAndRegisterGlobal();
+ * server.start();
+ * }</pre>
+ *
+ * <p>Metrics are collected on each request to GET /metrics. Server is stopped when meter provider
+ * is closed.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class PrometheusMetricsServer implements MetricReader {
+
+    /** Port which is reserved for OpenTelemetry Prometheus exporters */
+    public static final int DEFAULT_PORT = 9464;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrometheusMetricsServer.class);
+    private final HttpServer server;
+    private final PrometheusTextFormat format = new PrometheusTextFormat();
+    private volatile CollectionRegistration registration;
+
+    /**
+     * @param address address to listen on. Use port 0 to let system pick up any free port.
+     */
+    public PrometheusMetricsServer(InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    public void start() {
+        server.start();
+        LOGGER.info("Serving metrics on {}", getAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void register(CollectionRegistration registration) {
+        this.registration = registration;
+    }
+
+    /** Prometheus expects all counters and histograms to be cumulative */
+    @Override
+    public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+        return AggregationTemporality.CUMULATIVE;
+    }
+
+    /** Metrics are pulled so there is nothing to flush */
+    @Override
+    public CompletableResultCode forceFlush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        LOGGER.info("Stopping metrics server");
+        server.stop(0);
+        return CompletableResultCode.ofSuccess();
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "text/plain", "Only GET requests are supported");
+                return;
+            }
+            var registration = this.registration;
+            // until server is registered with the meter provider there are no metrics to serve
+            var body = registration == null ? "" : format.format(registration.collectAllMetrics());
+            sendResponse(exchange, 200, PrometheusTextFormat.CONTENT_TYPE, body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendResponse(HttpExchange exchange, int code, String contentType, String body)
+            throws IOException {
+        var data = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, data.length);
+        try (var os = exchange.getResponseBody()) {
+            os.write(data);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.metrics;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Formats OpenTelemetry metrics in <a
+ * href="https://prometheus.io/docs/instrumenting/exposition_formats/#text-based-format">Prometheus
+ * text format</a> version 0.0.4.
+ *
+ * <p>Only cumulative metrics are supported. Monotonic sums are written as counters with "_total"
+ * suffix, non monotonic sums and gauges as gauges and explicit bucket histograms as histograms.
+ * Metrics with the same name which come from different meters are written as one metric family
+ * and distinguished by {@link #SCOPE_LABEL}.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+class PrometheusTextFormat {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Label with the name of the meter which metric belongs to */
+    static final String SCOPE_LABEL = "otel_scope_name";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrometheusTextFormat.class);
+    private static final Pattern INVALID_NAME_CHARS = Pattern.compile("[^a-zA-Z0-9_:]");
+    private static final Pattern INVALID_LABEL_CHARS = Pattern.compile("[^a-zA-Z0-9_]");
+
+    private record Family(String type, List<MetricData> metrics) {}
+
+    public String format(Collection<MetricData> metrics) {
+        var families = new TreeMap<String, Family>();
+        for (var metric : metrics) {
+            var type = findType(metric);
+            if (type.isEmpty()) {
+                LOGGER.debug(
+                        "Metric {} of type {} is not supported",
+                        metric.getName(),
+                        metric.getType());
+                continue;
+            }
+            var name = sanitize(INVALID_NAME_CHARS, metric.getName());
+            if (type.get().equals("counter") && !name.endsWith("_total")) name += "_total";
+            var family =
+                    families.computeIfAbsent(name, k -> new Family(type.get(), new ArrayList<>()));
+            if (!family.type().equals(type.get())) {
+                LOGGER.debug(
+                        "Metric {} of scope {} conflicts with the metric of type {}",
+                        name,
+                        metric.getInstrumentationScopeInfo().getName(),
+                        family.type());
+                continue;
+            }
+            family.metrics().add(metric);
+        }
+        var buf = new StringBuilder();
+        families.forEach((name, family) -> writeFamily(buf, name, family));
+        return buf.toString();
+    }
+
+    private Optional<String> findType(MetricData metric) {
+        return switch (metric.getType()) {
+            case LONG_GAUGE, DOUBLE_GAUGE -> Optional.of("gauge");
+            case LONG_SUM -> Optional.of(
+                    metric.getLongSumData().isMonotonic() ? "counter" : "gauge");
+            case DOUBLE_SUM -> Optional.of(
+                    metric.getDoubleSumData().isMonotonic() ? "counter" : "gauge");
+            case HISTOGRAM -> Optional.of("histogram");
+            default -> Optional.empty();
+        };
+    }
+
+    private void writeFamily(StringBuilder buf, String name, Family family) {
+        var description = family.metrics().get(0).getDescription();
+        if (!description.isEmpty())
+            buf.append("# HELP ")
+                    .append(name)
+                    .append(' ')
+                    .append(description.replace("\\", "\\\\").replace("\n", "\\n"))
+                    .append('\n');
+        buf.append("# TYPE ").append(name).append(' ').append(family.type()).append('\n');
+        for (var metric : family.metrics()) {
+            var scope = metric.getInstrumentationScopeInfo().getName();
+            for (PointData point : metric.getData().getPoints()) {
+                var labels = formatLabels(scope, point.getAttributes());
+                if (point instanceof LongPointData longPoint) {
+                    writeSample(buf, name, labels, Long.toString(longPoint.getValue()));
+                } else if (point instanceof DoublePointData doublePoint) {
+                    writeSample(buf, name, labels, formatDouble(doublePoint.getValue()));
+                } else if (point instanceof HistogramPointData histogramPoint) {
+                    writeHistogram(buf, name, labels, histogramPoint);
+                }
+            }
+        }
+    }
+
+    private void writeHistogram(
+            StringBuilder buf, String name, String labels, HistogramPointData point) {
+        var boundaries = point.getBoundaries();
+        var counts = point.getCounts();
+        // Prometheus buckets are cumulative, each of them includes all the buckets before it
+        var count = 0L;
+        for (int i = 0; i < boundaries.size(); i++) {
+            count += counts.get(i);
+            writeSample(
+                    buf,
+                    name + "_bucket",
+                    labels + ",le=\"" + formatDouble(boundaries.get(i)) + "\"",
+                    Long.toString(count));
+        }
+        writeSample(
+                buf, name + "_bucket", labels + ",le=\"+Inf\"", Long.toString(point.getCount()));
+        writeSample(buf, name + "_sum", labels, formatDouble(point.getSum()));
+        writeSample(buf, name + "_count", labels, Long.toString(point.getCount()));
+    }
+
+    private void writeSample(StringBuilder buf, String name, String labels, String value) {
+        buf.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private String formatLabels(String scope, Attributes attributes) {
+        var labels = new StringJoiner(",");
+        labels.add(formatLabel(SCOPE_LABEL, scope));
+        attributes.forEach(
+                (key, value) ->
+                        labels.add(
+                                formatLabel(
+                                        sanitize(INVALID_LABEL_CHARS, key.getKey()),
+                                        value.toString())));
+        return labels.toString();
+    }
+
+    private String formatLabel(String name, String value) {
+        return name
+                + "=\""
+                + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")
+                + "\"";
+    }
+
+    private String formatDouble(double value) {
+        if (value == Double.POSITIVE_INFINITY) return "+Inf";
+        if (value == Double.NEGATIVE_INFINITY) return "-Inf";
+        return Double.toString(value);
+    }
+
+    private String sanitize(Pattern invalidChars, String name) {
+        name = invalidChars.matcher(name).replaceAll("_");
+        if (!name.isEmpty() && Character.isDigit(name.charAt(0))) name = "_" + name;
+        return name;
+    }
+}
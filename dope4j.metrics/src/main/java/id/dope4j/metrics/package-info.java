@@ -0,0 +1,2 @@
+/** Exposing dope4j metrics to monitoring systems */
+package id.dope4j.metrics;
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.server;
+
+import id.xfunction.Preconditions;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.time.Duration;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controls size of the batches to maximize throughput while keeping p99 latency of batch processing
+ * (inference and decoding) under the target.
+ *
+ * <p>Latencies are collected over the window of {@link #WINDOW_SIZE} batches. Only full batches
+ * (which have exactly current batch size) are counted, because incomplete batches mean that the
+ * load is lower than what current batch size can serve. Once the window is full:
+ *
+ * <ul>
+ *   <li>if p99 latency is above the target, batch size is decreased by quarter (at least by one)
+ *       and the sizes starting from it are not tried again for {@link #PROBE_WINDOWS} windows
+ *   <li>otherwise batch size is increased by one if bigger batch size has better throughput or was
+ *       not tried yet
+ *   <li>otherwise batch size is decreased by one if smaller batch size has better throughput
+ * </ul>
+ *
+ * <p>Throughput of each batch size is smoothed across the windows.
+ *
+ * <p>Thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class AdaptiveBatchSizer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveBatchSizer.class);
+    private static final AttributeKey<String> REASON_KEY = AttributeKey.stringKey("reason");
+    private static final Attributes LATENCY_REASON = Attributes.of(REASON_KEY, "latency");
+    private static final Attributes THROUGHPUT_REASON = Attributes.of(REASON_KEY, "throughput");
+    static final int WINDOW_SIZE = 20;
+    static final int PROBE_WINDOWS = 10;
+    private static final double SMOOTHING = 0.5;
+    private final Meter METER =
+            GlobalOpenTelemetry.getMeter(AdaptiveBatchSizer.class.getSimpleName());
+    private final LongHistogram BATCH_SIZE_LIMIT =
+            METER.histogramBuilder("adaptive_batch_size")
+                    .setDescription("Batch size selected after each window of batches")
+                    .ofLongs()
+                    .build();
+    private final LongHistogram P99_LATENCY_METER =
+            METER.histogramBuilder("adaptive_batch_p99_latency_ms")
+                    .setDescription("p99 batch processing time in millis over the window")
+                    .ofLongs()
+                    .build();
+    private final LongCounter BATCH_SIZE_CHANGES_TOTAL =
+            METER.counterBuilder("adaptive_batch_size_changes_total")
+                    .setDescription("Total number of batch size changes")
+                    .build();
+
+    private final int maxBatchSize;
+    private final long latencyTargetNanos;
+    private final long[] window = new long[WINDOW_SIZE];
+    private int windowLength;
+    /** Smoothed throughput (images per second) for each batch size, 0 if unknown */
+    private final double[] throughput;
+    private int batchSize = 1;
+    private int ceiling;
+    private int steadyWindows;
+
+    /**
+     * @param maxBatchSize batch size is never increased beyond it
+     * @param latencyTarget p99 latency of batch processing which should not be exceeded
+     */
+    public AdaptiveBatchSizer(int maxBatchSize, Duration latencyTarget) {
+        Preconditions.isTrue(maxBatchSize > 0, "maxBatchSize should be positive");
+        Preconditions.isTrue(!latencyTarget.isNegative(), "latencyTarget should not be negative");
+        this.maxBatchSize = maxBatchSize;
+        this.latencyTargetNanos = latencyTarget.toNanos();
+        throughput = new double[maxBatchSize + 1];
+        ceiling = maxBatchSize;
+    }
+
+    /** Current batch size */
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param size size of the completed batch
+     * @param latency time it took to process the batch
+     */
+    public synchronized void onBatchCompleted(int size, Duration latency) {
+        if (size != batchSize) return;
+        window[windowLength++] = latency.toNanos();
+        if (windowLength < WINDOW_SIZE) return;
+        windowLength = 0;
+        var total = Arrays.stream(window).sum();
+        var windowThroughput = batchSize * WINDOW_SIZE * 1e9 / Math.max(1, total);
+        throughput[batchSize] =
+                throughput[batchSize] == 0
+                        ? windowThroughput
+                        : SMOOTHING * windowThroughput + (1 - SMOOTHING) * throughput[batchSize];
+        Arrays.sort(window);
+        var p99 = window[(int) Math.ceil(0.99 * WINDOW_SIZE) - 1];
+        P99_LATENCY_METER.record(Duration.ofNanos(p99).toMillis());
+        var newBatchSize = batchSize;
+        if (p99 > latencyTargetNanos) {
+            newBatchSize = Math.max(1, batchSize - Math.max(1, batchSize / 4));
+            ceiling = newBatchSize;
+            steadyWindows = 0;
+        } else if (batchSize < ceiling
+                && (throughput[batchSize + 1] == 0
+                        || throughput[batchSize + 1] > throughput[batchSize])) {
+            newBatchSize = batchSize + 1;
+        } else if (batchSize > 1 && throughput[batchSize - 1] > throughput[batchSize]) {
+            newBatchSize = batchSize - 1;
+        } else if (ceiling < maxBatchSize && ++steadyWindows >= PROBE_WINDOWS) {
+            // load may have changed, try bigger batch sizes again
+            ceiling++;
+            throughput[ceiling] = 0;
+            steadyWindows = 0;
+        }
+        if (newBatchSize != batchSize) {
+            LOGGER.debug(
+                    "Changing batch size from {} to {}, p99 latency {}, throughput {} images/sec",
+                    batchSize,
+                    newBatchSize,
+                    Duration.ofNanos(p99),
+                    throughput[batchSize]);
+            BATCH_SIZE_CHANGES_TOTAL.add(
+                    1, p99 > latencyTargetNanos ? LATENCY_REASON : THROUGHPUT_REASON);
+            batchSize = newBatchSize;
+        }
+        BATCH_SIZE_LIMIT.record(batchSize);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import id.dope4j.DeepObjectPoseEstimationService;
+import id.dope4j.app.Dope4jResult;
+import id.dope4j.impl.MemoryMetrics;
+import id.dope4j.io.InputImage;
+import id.dope4j.io.OutputPoses;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes {@link DeepObjectPoseEstimationService} over HTTP.
+ *
+ * <p>Endpoints:
+ *
+ * <ul>
+ *   <li>POST /analyze[?imagePath=path] - body of the request is encoded image (JPEG, PNG etc).
+ *       Optional "imagePath" is returned back as part of the result. Response is {@link
+ *       Dope4jResult} in JSON format.
+ *   <li>GET /ready - responds with 200 when service is started and warmed up (see {@link
+ *       DeepObjectPoseEstimationService#isReady()}) and with 503 otherwise.
+ * </ul>
+ *
+ * <p>Concurrent requests are coalesced into batches (see {@link Dope4jServerConfig}). Worker
+ * threads only read and decode input images, they do not wait for the inference: responses are
+ * sent once the batch with the request is processed. It means that number of requests in flight
+ * is limited only by the maximum queue size, requests which exceed it are rejected with 503.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class Dope4jHttpServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Dope4jHttpServer.class);
+    private static final Pattern QUERY_SEPARATOR = Pattern.compile("&");
+    private final Meter METER =
+            GlobalOpenTelemetry.getMeter(Dope4jHttpServer.class.getSimpleName());
+    private final LongCounter REQUESTS_TOTAL =
+            METER.counterBuilder("requests_total")
+                    .setDescription("Total number of received requests")
+                    .build();
+    private final LongCounter FAILED_REQUESTS_TOTAL =
+            METER.counterBuilder("failed_requests_total")
+                    .setDescription("Total number of requests which failed")
+                    .build();
+    private final LongHistogram REQUEST_LATENCY_METER =
+            METER.histogramBuilder("request_latency_ms")
+                    .setDescription("Request processing time in millis")
+                    .ofLongs()
+                    .build();
+
+    private final HttpServer server;
+    private final DeepObjectPoseEstimationService<OutputPoses> service;
+    private final ExecutorService workers;
+    private final RequestBatcher<OutputPoses> batcher;
+
+    /**
+     * @param address address to listen on. Use port 0 to let system pick up any free port.
+     */
+    public Dope4jHttpServer(
+            InetSocketAddress address,
+            DeepObjectPoseEstimationService<OutputPoses> service,
+            Dope4jServerConfig config)
+            throws IOException {
+        LOGGER.info("Server configuration: {}", config);
+        this.service = service;
+        server = HttpServer.create(address, 0);
+        workers = Executors.newFixedThreadPool(config.workerThreads());
+        server.setExecutor(workers);
+        batcher = new RequestBatcher<>(service, config);
+        server.createContext("/analyze", this::handleAnalyze);
+        server.createContext("/ready", this::handleReady);
+    }
+
+    public void start() {
+        batcher.start();
+        server.start();
+        LOGGER.info("Listening on {}", getAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handleAnalyze(HttpExchange exchange) {
+        var startAt = Instant.now();
+        REQUESTS_TOTAL.add(1);
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendError(exchange, startAt, 405, "Only POST requests are supported");
+            return;
+        }
+        var imagePath = findImagePath(exchange.getRequestURI());
+        InputImage image;
+        try {
+            image =
+                    new InputImage(
+                            exchange.getRequestBody().readAllBytes(),
+                            imagePath,
+                            service.getInputResolution());
+        } catch (Exception e) {
+            LOGGER.warn("Could not read input image {}: {}", imagePath, e.getMessage());
+            sendError(exchange, startAt, 400, "Could not read input image");
+            return;
+        }
+        try {
+            // response is serialized by the workers so that inference threads are not delayed
+            batcher.submit(image)
+                    .whenCompleteAsync(
+                            (poses, e) -> sendResult(exchange, startAt, imagePath, poses, e),
+                            workers);
+        } catch (RejectedExecutionException e) {
+            sendError(exchange, startAt, 503, e.getMessage());
+        }
+    }
+
+    private void sendResult(
+            HttpExchange exchange,
+            Instant startAt,
+            Optional<Path> imagePath,
+            Optional<OutputPoses> poses,
+            Throwable error) {
+        if (error != null) {
+            var cause = error instanceof CompletionException ? error.getCause() : error;
+            sendError(exchange, startAt, 500, "Inference failed: " + cause);
+            return;
+        }
+        if (poses.isEmpty()) {
+            sendError(exchange, startAt, 500, "Could not decode network output");
+            return;
+        }
+        var allocatedAt = MemoryMetrics.allocatedBytes();
+        var json = new Dope4jResult(imagePath, poses.get()).toString();
+        MemoryMetrics.record("serialize", allocatedAt);
+        complete(exchange, startAt, 200, "application/json", json);
+    }
+
+    private void handleReady(HttpExchange exchange) throws IOException {
+        try {
+            if (service.isReady()) sendResponse(exchange, 200, "text/plain", "ready");
+            else sendResponse(exchange, 503, "text/plain", "not ready");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Optional<Path> findImagePath(URI uri) {
+        var query = uri.getQuery();
+        if (query == null) return Optional.empty();
+        return QUERY_SEPARATOR
+                .splitAsStream(query)
+                .filter(param -> param.startsWith("imagePath="))
+                .map(param -> param.substring("imagePath=".length()))
+                .map(Paths::get)
+                .findFirst();
+    }
+
+    private void sendError(HttpExchange exchange, Instant startAt, int code, String message) {
+        FAILED_REQUESTS_TOTAL.add(1);
+        complete(exchange, startAt, code, "text/plain", message);
+    }
+
+    /** Sends the response and closes the exchange of the /analyze request */
+    private void complete(
+            HttpExchange exchange, Instant startAt, int code, String contentType, String body) {
+        try {
+            sendResponse(exchange, code, contentType, body);
+        } catch (IOException e) {
+            LOGGER.warn("Could not send response: {}", e.getMessage());
+        } finally {
+            exchange.close();
+            REQUEST_LATENCY_METER.record(Duration.between(startAt, Instant.now()).toMillis());
+        }
+    }
+
+    private void sendResponse(HttpExchange exchange, int code, String contentType, String body)
+            throws IOException {
+        var data = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, data.length);
+        try (var os = exchange.getResponseBody()) {
+            os.write(data);
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info("Closing server");
+        server.stop(0);
+        batcher.close();
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.server;
+
+import id.dope4j.Dope4jFactory;
+import id.dope4j.DopeConstants;
+import id.dope4j.ModelLoadingConfig;
+import id.dope4j.WarmupConfig;
+import id.dope4j.app.DeepObjectPoseEstimationApp;
+import id.dope4j.backends.DjlInferenceBackend;
+import id.dope4j.backends.InferenceBackend;
+import id.dope4j.backends.OrtInferenceBackend;
+import id.dope4j.backends.ReplayInferenceBackend;
+import id.dope4j.backends.ReplicatedInferenceBackend;
+import id.dope4j.impl.CacheFileMapper;
+import id.dope4j.impl.MemoryMetrics;
+import id.dope4j.jackson.JsonUtils;
+import id.xfunction.cli.ArgumentParsingException;
+import id.xfunction.cli.CommandOptions;
+import id.xfunction.logging.XLogger;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import nu.pattern.OpenCV;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs {@link Dope4jHttpServer} or {@link Dope4jSocketServer} from command-line.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class Dope4jServerApp {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Dope4jServerApp.class);
+    private static final JsonUtils jsonUtils = new JsonUtils();
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_WARMUP_ITERATIONS = 3;
+
+    static {
+        OpenCV.loadLocally();
+    }
+
+    private static void usage() {
+        System.out.println(
+                """
+                Usage: dope4j-server <options>
+
+                Options:
+                -modelUrl=<path>
+                -objectSize=<width>,<height>,<length>
+                -cameraInfo=<path>
+                -threshold=<double>
+                -inputResolution=<width>x<height>
+                -port=<int>
+                -socketFile=<path>
+                -workerThreads=<int>
+                -inferenceThreads=<int>
+                -maxBatchSize=<int>
+                -maxBatchDelayMillis=<int>
+                -maxQueueSize=<int>
+                -latencyTargetMillis=<int>
+                -warmupIterations=<int>
+                -warmupBatchSizes=<int>,<int>,...
+                -intraOpThreads=<int>
+                -interOpThreads=<int>
+                -optimizationLevel=<NO_OPT|BASIC_OPT|EXTENDED_OPT|ALL_OPT>
+                -executionMode=<SEQUENTIAL|PARALLEL>
+                -memoryArena=<true|false>
+                -ortDevice=<TensorRT|ROCM|CoreML|CPU>
+                -optimizedModelFile=<path>
+                -backend=<djl|ort>
+                -replicas=<int>
+                -replayCacheFolder=<path>
+                -replayBatchLatencyMillis=<int>
+                -replayImageLatencyMillis=<int>
+                -pnpMethod=<ITERATIVE|EPNP|SQPNP|P3P|AP3P|JAVA_EPNP>
+                -pnpRefine=<true|false>
+                -exportMetricsToCsv=<path>
+                -exportMetricsToElastic=<elasticsearch_url>
+                -exportMetricsToPrometheus=<port>
+                -memoryMetrics=<true|false>
+                -debug=<true|false>
+                """);
+    }
+
+    private static Dope4jServerConfig readConfig(CommandOptions options) {
+        var defaults = Dope4jServerConfig.DEFAULT;
+        return new Dope4jServerConfig(
+                options.getOption("workerThreads")
+                        .map(Integer::parseInt)
+                        .orElse(defaults.workerThreads()),
+                options.getOption("inferenceThreads")
+                        .map(Integer::parseInt)
+                        .orElse(defaults.inferenceThreads()),
+                options.getOption("maxBatchSize")
+                        .map(Integer::parseInt)
+                        .orElse(defaults.maxBatchSize()),
+                options.getOption("maxBatchDelayMillis")
+                        .map(Long::parseLong)
+                        .map(Duration::ofMillis)
+                        .orElse(defaults.maxBatchDelay()),
+                options.getOption("maxQueueSize")
+                        .map(Integer::parseInt)
+                        .orElse(defaults.maxQueueSize()),
+                options.getOption("latencyTargetMillis")
+                        .map(Long::parseLong)
+                        .map(Duration::ofMillis)
+                        .or(defaults::latencyTarget));
+    }
+
+    private static WarmupConfig readWarmupConfig(CommandOptions options, int maxBatchSize) {
+        var iterations =
+                options.getOption("warmupIterations")
+                        .map(Integer::parseInt)
+                        .orElse(DEFAULT_WARMUP_ITERATIONS);
+        var batchSizes =
+                options.getOption("warmupBatchSizes")
+                        .map(
+                                sizes ->
+                                        Arrays.stream(sizes.split(","))
+                                                .map(Integer::parseInt)
+                                                .toList())
+                        .orElse(List.of(1, maxBatchSize).stream().distinct().toList());
+        return new WarmupConfig(iterations, batchSizes);
+    }
+
+    private static InferenceBackend readBackend(CommandOptions options, int maxBatchSize) {
+        var replicas = options.getOption("replicas").map(Integer::parseInt).orElse(1);
+        var modelLoadingConfig = DeepObjectPoseEstimationApp.readModelLoadingConfig(options);
+        if (replicas == 1) return readReplica(options, modelLoadingConfig, maxBatchSize);
+        if (modelLoadingConfig.intraOpThreads().isEmpty()) {
+            // split all cores between the replicas
+            var intraOpThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / replicas);
+            modelLoadingConfig =
+                    new ModelLoadingConfig(
+                            Optional.of(intraOpThreads),
+                            modelLoadingConfig.interOpThreads(),
+                            modelLoadingConfig.optimizationLevel(),
+                            modelLoadingConfig.executionMode(),
+                            modelLoadingConfig.memoryArena(),
+                            modelLoadingConfig.ortDevice(),
+                            modelLoadingConfig.optimizedModelFile());
+        }
+        LOGGER.info(
+                "Running {} replicas with {} intra-op threads each",
+                replicas,
+                modelLoadingConfig.intraOpThreads().map(Object::toString).orElse("default"));
+        var replicaConfig = modelLoadingConfig;
+        return new ReplicatedInferenceBackend(
+                replicas, i -> readReplica(options, replicaConfig, maxBatchSize));
+    }
+
+    private static InferenceBackend readReplica(
+            CommandOptions options, ModelLoadingConfig modelLoadingConfig, int maxBatchSize) {
+        var replayCacheFolder = options.getOption("replayCacheFolder").map(Paths::get);
+        if (replayCacheFolder.isPresent()) {
+            LOGGER.info("Replaying network output from {}", replayCacheFolder.get());
+            return new ReplayInferenceBackend(
+                    new CacheFileMapper(Paths.get(""), replayCacheFolder.get()),
+                    options.getOption("replayBatchLatencyMillis")
+                            .map(Long::parseLong)
+                            .map(Duration::ofMillis)
+                            .orElse(Duration.ZERO),
+                    options.getOption("replayImageLatencyMillis")
+                            .map(Long::parseLong)
+                            .map(Duration::ofMillis)
+                            .orElse(Duration.ZERO));
+        }
+        var modelUrl = options.getRequiredOption("modelUrl");
+        LOGGER.info("Model URL: {}", modelUrl);
+        var backend = options.getOption("backend").orElse("djl");
+        return switch (backend) {
+            case "djl" -> new DjlInferenceBackend(modelUrl, modelLoadingConfig);
+            case "ort" -> new OrtInferenceBackend(
+                    modelUrl,
+                    modelLoadingConfig,
+                    maxBatchSize,
+                    DeepObjectPoseEstimationApp.readInputResolution(options));
+            default -> throw new ArgumentParsingException("Unknown backend " + backend);
+        };
+    }
+
+    private static void run(CommandOptions options) throws Exception {
+        if (options.isOptionTrue("debug")) XLogger.load("logging-dope4j-debug.properties");
+        MemoryMetrics.setEnabled(options.isOptionTrue("memoryMetrics"));
+        // meters are created together with the service so metrics are configured first
+        var metricReaders = DeepObjectPoseEstimationApp.readMetricReaders(options);
+        Optional<SdkMeterProvider> meterProvider =
+                metricReaders.isEmpty()
+                        ? Optional.empty()
+                        : Optional.of(DeepObjectPoseEstimationApp.configureMetrics(metricReaders));
+        var cameraInfo =
+                jsonUtils.readCameraInfo(Paths.get(options.getRequiredOption("cameraInfo")));
+        var objectModel =
+                DeepObjectPoseEstimationApp.newCuboid(options.getRequiredOption("objectSize"));
+        var threshold =
+                options.getOption("threshold")
+                        .map(Double::parseDouble)
+                        .orElse(DopeConstants.DEFAULT_PEAK_THRESHOLD);
+        var config = readConfig(options);
+        var service =
+                new Dope4jFactory()
+                        .createPoseEstimationService(
+                                readBackend(options, config.maxBatchSize()),
+                                objectModel,
+                                threshold,
+                                cameraInfo,
+                                DeepObjectPoseEstimationApp.readInputResolution(options),
+                                DeepObjectPoseEstimationApp.readPnpConfig(options));
+        // accept requests only when the service is ready
+        service.start(readWarmupConfig(options, config.maxBatchSize()));
+        var socketFile = options.getOption("socketFile");
+        if (socketFile.isPresent()) {
+            var server = new Dope4jSocketServer(Paths.get(socketFile.get()), service, config);
+            addShutdownHook(server, service, meterProvider);
+            server.start();
+        } else {
+            var port = options.getOption("port").map(Integer::parseInt).orElse(DEFAULT_PORT);
+            var server = new Dope4jHttpServer(new InetSocketAddress(port), service, config);
+            addShutdownHook(server, service, meterProvider);
+            server.start();
+        }
+    }
+
+    private static void addShutdownHook(
+            AutoCloseable server,
+            AutoCloseable service,
+            Optional<SdkMeterProvider> meterProvider) {
+        Runtime.getRuntime()
+                .addShutdownHook(
+                        new Thread(
+                                () -> {
+                                    try {
+                                        server.close();
+                                        service.close();
+                                        meterProvider.ifPresent(SdkMeterProvider::close);
+                                    } catch (Exception e) {
+                                        LOGGER.error("Shutdown failed", e);
+                                    }
+                                }));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            usage();
+            System.exit(1);
+        }
+        try {
+            run(CommandOptions.collectOptions(args));
+        } catch (ArgumentParsingException e) {
+            System.err.println(e.getMessage());
+            System.err.println(
+                    "Run command without arguments to see 'Usage' for more information.");
+            System.exit(1);
+        }
+    }
+}
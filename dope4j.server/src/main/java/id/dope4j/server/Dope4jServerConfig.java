@@ -0,0 +1,67 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.server;
+
+import id.xfunction.Preconditions;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Configuration of <b>dope4j</b> server.
+ *
+ * @param workerThreads number of threads which accept requests and decode input images
+ * @param inferenceThreads number of batches which can be sent for inference concurrently
+ * @param maxBatchSize maximum number of requests which are coalesced into one batch
+ * @param maxBatchDelay how long to wait for more requests before sending incomplete batch for
+ *     inference
+ * @param maxQueueSize maximum number of requests waiting for inference. Requests which exceed this
+ *     limit are rejected.
+ * @param latencyTarget p99 batch processing time (inference and decoding) which should not be
+ *     exceeded. When set, batch size is adjusted automatically between 1 and {@link
+ *     #maxBatchSize()} to maximize throughput within this target (see {@link AdaptiveBatchSizer}).
+ *     When empty batches are always filled up to {@link #maxBatchSize()}.
+ * @author lambdaprime intid@protonmail.com
+ */
+public record Dope4jServerConfig(
+        int workerThreads,
+        int inferenceThreads,
+        int maxBatchSize,
+        Duration maxBatchDelay,
+        int maxQueueSize,
+        Optional<Duration> latencyTarget) {
+
+    public static final Dope4jServerConfig DEFAULT =
+            new Dope4jServerConfig(
+                    Runtime.getRuntime().availableProcessors(),
+                    1,
+                    8,
+                    Duration.ofMillis(5),
+                    64,
+                    Optional.empty());
+
+    public Dope4jServerConfig {
+        Preconditions.isTrue(workerThreads > 0, "workerThreads should be positive");
+        Preconditions.isTrue(inferenceThreads > 0, "inferenceThreads should be positive");
+        Preconditions.isTrue(maxBatchSize > 0, "maxBatchSize should be positive");
+        Preconditions.isTrue(!maxBatchDelay.isNegative(), "maxBatchDelay should not be negative");
+        Preconditions.isTrue(maxQueueSize > 0, "maxQueueSize should be positive");
+        Preconditions.isTrue(
+                latencyTarget.filter(Duration::isNegative).isEmpty(),
+                "latencyTarget should not be negative");
+    }
+}
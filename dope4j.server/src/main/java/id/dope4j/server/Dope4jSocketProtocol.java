@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.server;
+
+import java.nio.ByteOrder;
+
+/**
+ * Binary protocol used by {@link Dope4jSocketServer}.
+ *
+ * <p>All values are in {@link #BYTE_ORDER}. Each frame starts with int32 length of the rest of the
+ * frame (not including length field itself).
+ *
+ * <p>Request frame:
+ *
+ * <pre>
+ * int32 length
+ * int64 requestId
+ * int32 width
+ * int32 height
+ * byte[width * height * 3] pixels - 8-bit BGR, row by row without padding
+ * </pre>
+ *
+ * <p>Response frame:
+ *
+ * <pre>
+ * int32 length
+ * int64 requestId - id of the request this response belongs to
+ * int32 status - one of STATUS_* values
+ * int32 posesCount
+ * double[posesCount * 6] poses - for each pose: position x, y, z and orientation x, y, z
+ *     (rotation vector)
+ * </pre>
+ *
+ * <p>Clients may send next requests without waiting for responses to previous ones (pipelining).
+ * Responses are sent as soon as they are ready so their order may differ from the order of the
+ * requests. Clients should use requestId to match them.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public final class Dope4jSocketProtocol {
+
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /** Size of request fields which precede the pixels (not including length field) */
+    public static final int REQUEST_HEADER_LENGTH = Long.BYTES + 2 * Integer.BYTES;
+
+    /** Size of response fields which precede the poses (not including length field) */
+    public static final int RESPONSE_HEADER_LENGTH = Long.BYTES + 2 * Integer.BYTES;
+
+    /** Number of doubles which describe single pose */
+    public static final int POSE_LENGTH = 6;
+
+    /** Maximum length of request frame, frames which exceed it cause connection to be closed */
+    public static final int MAX_REQUEST_LENGTH = REQUEST_HEADER_LENGTH + 4096 * 4096 * 3;
+
+    public static final int STATUS_OK = 0;
+
+    /** Server request queue is full and request was not processed */
+    public static final int STATUS_REJECTED = 1;
+
+    /** Request frame is malformed (size of pixels does not match width and height) */
+    public static final int STATUS_INVALID_REQUEST = 2;
+
+    /** Inference failed or objects could not be decoded from the network output */
+    public static final int STATUS_FAILED = 3;
+
+    private Dope4jSocketProtocol() {}
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.server;
+
+import static id.dope4j.server.Dope4jSocketProtocol.BYTE_ORDER;
+import static id.dope4j.server.Dope4jSocketProtocol.MAX_REQUEST_LENGTH;
+import static id.dope4j.server.Dope4jSocketProtocol.POSE_LENGTH;
+import static id.dope4j.server.Dope4jSocketProtocol.REQUEST_HEADER_LENGTH;
+import static id.dope4j.server.Dope4jSocketProtocol.RESPONSE_HEADER_LENGTH;
+import static id.dope4j.server.Dope4jSocketProtocol.STATUS_FAILED;
+import static id.dope4j.server.Dope4jSocketProtocol.STATUS_INVALID_REQUEST;
+import static id.dope4j.server.Dope4jSocketProtocol.STATUS_OK;
+import static id.dope4j.server.Dope4jSocketProtocol.STATUS_REJECTED;
+
+import ai.djl.opencv.OpenCVImageFactory;
+import id.deeplearningutils.modality.cv.output.Pose;
+import id.dope4j.DeepObjectPoseEstimationService;
+import id.dope4j.impl.MatTracker;
+import id.dope4j.impl.MemoryMetrics;
+import id.dope4j.io.InputImage;
+import id.dope4j.io.OutputPoses;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes {@link DeepObjectPoseEstimationService} over Unix domain socket using binary protocol
+ * described in {@link Dope4jSocketProtocol}.
+ *
+ * <p>It is intended for clients which run on the same host and for which cost of HTTP and JSON
+ * is noticeable. Input frames are sent as raw pixels so there is no need to decode them and
+ * responses contain only packed pose values.
+ *
+ * <p>Each connection is served by one of {@link Dope4jServerConfig#workerThreads()} threads which
+ * reads requests and submits them for inference without waiting for the results of previous
+ * ones. Since thread is held for the whole lifetime of the connection, number of concurrent
+ * connections is limited by number of worker threads and connections above the limit are closed
+ * right after they are accepted. Read and write buffers are allocated once per connection and
+ * reused between requests.
+ * Requests from all connections are coalesced into batches same as in {@link Dope4jHttpServer}.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class Dope4jSocketServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Dope4jSocketServer.class);
+    private static final int INITIAL_WRITE_BUFFER_POSES = 16;
+    private static final MatTracker tracker = MatTracker.getInstance();
+
+    private final Meter METER =
+            GlobalOpenTelemetry.getMeter(Dope4jSocketServer.class.getSimpleName());
+    private final LongCounter CONNECTIONS_TOTAL =
+            METER.counterBuilder("connections_total")
+                    .setDescription("Total number of accepted connections")
+                    .build();
+    private final LongCounter REJECTED_CONNECTIONS_TOTAL =
+            METER.counterBuilder("rejected_connections_total")
+                    .setDescription("Total number of connections closed due to connections limit")
+                    .build();
+    private final LongCounter REQUESTS_TOTAL =
+            METER.counterBuilder("requests_total")
+                    .setDescription("Total number of received requests")
+                    .build();
+    private final LongCounter FAILED_REQUESTS_TOTAL =
+            METER.counterBuilder("failed_requests_total")
+                    .setDescription("Total number of requests which failed")
+                    .build();
+    private final LongHistogram REQUEST_LATENCY_METER =
+            METER.histogramBuilder("request_latency_ms")
+                    .setDescription("Request processing time in millis")
+                    .ofLongs()
+                    .build();
+
+    private final Path socketFile;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final RequestBatcher<OutputPoses> batcher;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private final int maxConnections;
+
+    /** Network input size, all frames are resized to it */
+    private final Size imageSize;
+
+    /** Enough to read request with an image of network input size without growing the buffer */
+    private final int initialReadBufferSize;
+
+    /**
+     * @param socketFile path where socket file will be created. It should not exist.
+     */
+    public Dope4jSocketServer(
+            Path socketFile,
+            DeepObjectPoseEstimationService<OutputPoses> service,
+            Dope4jServerConfig config)
+            throws IOException {
+        LOGGER.info("Server configuration: {}", config);
+        this.socketFile = socketFile;
+        serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        serverChannel.bind(UnixDomainSocketAddress.of(socketFile));
+        maxConnections = config.workerThreads();
+        workers = Executors.newFixedThreadPool(maxConnections);
+        batcher = new RequestBatcher<>(service, config);
+        var resolution = service.getInputResolution();
+        imageSize = new Size(resolution.width(), resolution.height());
+        initialReadBufferSize = Integer.BYTES + REQUEST_HEADER_LENGTH + resolution.inputSize();
+        acceptor = new Thread(this::acceptConnections, "dope4j-socket-acceptor");
+    }
+
+    public void start() {
+        batcher.start();
+        acceptor.start();
+        LOGGER.info("Listening on {}", socketFile);
+    }
+
+    public Path getSocketFile() {
+        return socketFile;
+    }
+
+    private void acceptConnections() {
+        try {
+            while (true) {
+                var channel = serverChannel.accept();
+                // otherwise connection would wait in the executor queue without being served
+                if (connections.size() >= maxConnections) {
+                    LOGGER.warn(
+                            "Limit of {} connections is reached, closing new connection",
+                            maxConnections);
+                    REJECTED_CONNECTIONS_TOTAL.add(1);
+                    channel.close();
+                    continue;
+                }
+                var connection = new Connection(channel);
+                CONNECTIONS_TOTAL.add(1);
+                connections.add(connection);
+                workers.submit(connection);
+            }
+        } catch (ClosedChannelException e) {
+            LOGGER.debug("Server socket is closed");
+        } catch (IOException e) {
+            LOGGER.error("Could not accept new connection", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info("Closing server");
+        try {
+            serverChannel.close();
+            for (var connection : connections) connection.channel.close();
+            Files.deleteIfExists(socketFile);
+        } catch (IOException e) {
+            LOGGER.warn("Error closing server: {}", e.getMessage());
+        }
+        batcher.close();
+        workers.shutdownNow();
+    }
+
+    /** Serves single client connection */
+    private class Connection implements Runnable {
+        private final SocketChannel channel;
+
+        /** Always in read mode: from position to limit are received but not yet parsed bytes */
+        private ByteBuffer readBuffer =
+                ByteBuffer.allocate(initialReadBufferSize).order(BYTE_ORDER).flip();
+
+        /** Guarded by this */
+        private ByteBuffer writeBuffer = allocateWriteBuffer(INITIAL_WRITE_BUFFER_POSES);
+
+        /** Reused between the requests to store input pixels before they are resized */
+        private final Mat frame = tracker.track(new Mat());
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            LOGGER.debug("New connection");
+            try (channel) {
+                while (fill(Integer.BYTES)) {
+                    var length = readBuffer.getInt(readBuffer.position());
+                    if (length < REQUEST_HEADER_LENGTH || length > MAX_REQUEST_LENGTH) {
+                        LOGGER.warn("Invalid request length {}, closing connection", length);
+                        break;
+                    }
+                    if (!fill(Integer.BYTES + length)) break;
+                    readBuffer.getInt();
+                    var requestEnd = readBuffer.position() + length;
+                    processRequest(length - REQUEST_HEADER_LENGTH);
+                    readBuffer.position(requestEnd);
+                }
+            } catch (ClosedChannelException e) {
+                LOGGER.debug("Connection is closed");
+            } catch (IOException e) {
+                LOGGER.warn("Connection error: {}", e.getMessage());
+            } finally {
+                tracker.release(frame);
+                connections.remove(this);
+            }
+            LOGGER.debug("Connection closed");
+        }
+
+        /**
+         * Reads from the channel until buffer has at least given number of bytes available.
+         *
+         * @return false if end of stream is reached
+         */
+        private boolean fill(int size) throws IOException {
+            if (readBuffer.remaining() >= size) return true;
+            if (readBuffer.capacity() < size) {
+                readBuffer = ByteBuffer.allocate(size).order(BYTE_ORDER).put(readBuffer);
+            } else {
+                readBuffer.compact();
+            }
+            while (readBuffer.position() < size) {
+                if (channel.read(readBuffer) < 0) return false;
+            }
+            readBuffer.flip();
+            return true;
+        }
+
+        private void processRequest(int pixelsLength) {
+            var startAt = Instant.now();
+            REQUESTS_TOTAL.add(1);
+            var requestId = readBuffer.getLong();
+            var width = readBuffer.getInt();
+            var height = readBuffer.getInt();
+            if (width <= 0 || height <= 0 || 3L * width * height != pixelsLength) {
+                LOGGER.warn(
+                        "Request {} has {} bytes of pixels which does not match size {}x{}",
+                        requestId,
+                        pixelsLength,
+                        width,
+                        height);
+                sendResponse(requestId, STATUS_INVALID_REQUEST, List.of(), startAt);
+                return;
+            }
+            frame.create(height, width, CvType.CV_8UC3);
+            frame.put(
+                    0,
+                    0,
+                    readBuffer.array(),
+                    readBuffer.arrayOffset() + readBuffer.position(),
+                    pixelsLength);
+            // each request needs its own image since it is processed asynchronously, it is
+            // released as soon as the request is processed
+            var resized = tracker.track(new Mat());
+            Imgproc.resize(frame, resized, imageSize);
+            var image = new InputImage(OpenCVImageFactory.getInstance().fromImage(resized));
+            try {
+                batcher.submit(image)
+                        .whenComplete(
+                                (poses, e) -> {
+                                    tracker.release(resized);
+                                    if (e != null || poses.isEmpty())
+                                        sendResponse(requestId, STATUS_FAILED, List.of(), startAt);
+                                    else
+                                        sendResponse(
+                                                requestId,
+                                                STATUS_OK,
+                                                poses.get().poses(),
+                                                startAt);
+                                });
+            } catch (RejectedExecutionException e) {
+                tracker.release(resized);
+                sendResponse(requestId, STATUS_REJECTED, List.of(), startAt);
+            }
+        }
+
+        /**
+         * Called from the reader thread or from the inference threads once results are ready.
+         * Responses are small so they are written with single write call unless socket buffer
+         * is full.
+         */
+        private void sendResponse(long requestId, int status, List<Pose> poses, Instant startAt) {
+            if (status != STATUS_OK) FAILED_REQUESTS_TOTAL.add(1);
+            synchronized (this) {
+                var allocatedAt = MemoryMetrics.allocatedBytes();
+                if (writeBuffer.capacity() < Integer.BYTES + responseLength(poses.size()))
+                    writeBuffer = allocateWriteBuffer(poses.size());
+                writeBuffer.clear();
+                writeBuffer.putInt(responseLength(poses.size()));
+                writeBuffer.putLong(requestId);
+                writeBuffer.putInt(status);
+                writeBuffer.putInt(poses.size());
+                for (var pose : poses) {
+                    writeBuffer.putDouble(pose.position().getX());
+                    writeBuffer.putDouble(pose.position().getY());
+                    writeBuffer.putDouble(pose.position().getZ());
+                    writeBuffer.putDouble(pose.orientation().getX());
+                    writeBuffer.putDouble(pose.orientation().getY());
+                    writeBuffer.putDouble(pose.orientation().getZ());
+                }
+                writeBuffer.flip();
+                MemoryMetrics.record("serialize", allocatedAt);
+                try {
+                    while (writeBuffer.hasRemaining()) channel.write(writeBuffer);
+                } catch (IOException e) {
+                    LOGGER.warn(
+                            "Could not send response for request {}: {}",
+                            requestId,
+                            e.getMessage());
+                }
+            }
+            REQUEST_LATENCY_METER.record(Duration.between(startAt, Instant.now()).toMillis());
+        }
+    }
+
+    private static int responseLength(int posesCount) {
+        return RESPONSE_HEADER_LENGTH + posesCount * POSE_LENGTH * Double.BYTES;
+    }
+
+    private static ByteBuffer allocateWriteBuffer(int posesCount) {
+        return ByteBuffer.allocateDirect(Integer.BYTES + responseLength(posesCount))
+                .order(BYTE_ORDER);
+    }
+}
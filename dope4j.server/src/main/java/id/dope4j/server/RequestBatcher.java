@@ -0,0 +1,190 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.server;
+
+import id.dope4j.DeepObjectPoseEstimationService;
+import id.dope4j.io.InputImage;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent requests into batches and sends them for inference to {@link
+ * DeepObjectPoseEstimationService}.
+ *
+ * <p>Batch is sent for inference once it reaches {@link Dope4jServerConfig#maxBatchSize()} (or
+ * size selected by {@link AdaptiveBatchSizer} when {@link Dope4jServerConfig#latencyTarget()} is
+ * set) or when {@link Dope4jServerConfig#maxBatchDelay()} passes since its first request was taken
+ * from the queue.
+ *
+ * <p>Thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+class RequestBatcher<R> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestBatcher.class);
+    private final Meter METER = GlobalOpenTelemetry.getMeter(RequestBatcher.class.getSimpleName());
+    private final LongCounter REJECTED_REQUESTS_TOTAL =
+            METER.counterBuilder("rejected_requests_total")
+                    .setDescription("Total number of requests rejected due to full queue")
+                    .build();
+    private final LongHistogram QUEUE_SIZE =
+            METER.histogramBuilder("queue_size")
+                    .setDescription("Number of requests waiting in the queue")
+                    .ofLongs()
+                    .build();
+    private final LongHistogram QUEUE_WAIT_TIME_METER =
+            METER.histogramBuilder("queue_wait_time_ms")
+                    .setDescription("Time requests spent in the queue in millis")
+                    .ofLongs()
+                    .build();
+    private final LongHistogram BATCH_SIZE =
+            METER.histogramBuilder("batch_size")
+                    .setDescription("Number of requests coalesced into one batch")
+                    .ofLongs()
+                    .build();
+    private final LongHistogram BATCH_TIME_METER =
+            METER.histogramBuilder("batch_time_ms")
+                    .setDescription("Batch inference time in millis")
+                    .ofLongs()
+                    .build();
+
+    private record Request<R>(
+            InputImage image, CompletableFuture<Optional<R>> result, Instant enqueuedAt) {}
+
+    private final DeepObjectPoseEstimationService<R> service;
+    private final Dope4jServerConfig config;
+    private final BlockingQueue<Request<R>> queue;
+    private final ExecutorService dispatchers;
+    private final Optional<AdaptiveBatchSizer> batchSizer;
+    private volatile boolean isClosed;
+
+    RequestBatcher(DeepObjectPoseEstimationService<R> service, Dope4jServerConfig config) {
+        this.service = service;
+        this.config = config;
+        queue = new ArrayBlockingQueue<>(config.maxQueueSize());
+        dispatchers = Executors.newFixedThreadPool(config.inferenceThreads());
+        batchSizer =
+                config.latencyTarget()
+                        .map(target -> new AdaptiveBatchSizer(config.maxBatchSize(), target));
+    }
+
+    void start() {
+        for (int i = 0; i < config.inferenceThreads(); i++) {
+            dispatchers.submit(this::dispatch);
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException when queue is full
+     */
+    CompletableFuture<Optional<R>> submit(InputImage image) {
+        if (isClosed) throw new RejectedExecutionException("Batcher is closed");
+        var request = new Request<R>(image, new CompletableFuture<>(), Instant.now());
+        if (!queue.offer(request)) {
+            REJECTED_REQUESTS_TOTAL.add(1);
+            throw new RejectedExecutionException(
+                    "Request queue is full, max queue size " + config.maxQueueSize());
+        }
+        QUEUE_SIZE.record(queue.size());
+        return request.result();
+    }
+
+    private void dispatch() {
+        var batch = new ArrayList<Request<R>>(config.maxBatchSize());
+        try {
+            while (!isClosed) {
+                batch.add(queue.take());
+                var deadline = System.nanoTime() + config.maxBatchDelay().toNanos();
+                var batchSize =
+                        batchSizer
+                                .map(AdaptiveBatchSizer::getBatchSize)
+                                .orElse(config.maxBatchSize());
+                while (batch.size() < batchSize) {
+                    var next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                process(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            LOGGER.debug("Dispatcher is interrupted");
+        } finally {
+            cancel(batch);
+        }
+    }
+
+    private void process(List<Request<R>> batch) {
+        var startAt = Instant.now();
+        batch.forEach(
+                r ->
+                        QUEUE_WAIT_TIME_METER.record(
+                                Duration.between(r.enqueuedAt(), startAt).toMillis()));
+        BATCH_SIZE.record(batch.size());
+        try {
+            var results = service.analyzeBatch(batch.stream().map(Request::image).toList());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(results.get(i));
+            }
+        } catch (Exception e) {
+            LOGGER.error("Inference failed for batch of size " + batch.size(), e);
+            batch.forEach(r -> r.result().completeExceptionally(e));
+        } finally {
+            var batchTime = Duration.between(startAt, Instant.now());
+            BATCH_TIME_METER.record(batchTime.toMillis());
+            batchSizer.ifPresent(sizer -> sizer.onBatchCompleted(batch.size(), batchTime));
+        }
+    }
+
+    private void cancel(List<Request<R>> requests) {
+        requests.forEach(
+                r -> r.result().completeExceptionally(new CancellationException("Server closed")));
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        dispatchers.shutdownNow();
+        try {
+            dispatchers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        var pending = new ArrayList<Request<R>>();
+        queue.drainTo(pending);
+        cancel(pending);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.server.AdaptiveBatchSizer;
+import java.time.Duration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveBatchSizerTest {
+
+    @Test
+    public void test() {
+        var sizer = new AdaptiveBatchSizer(16, Duration.ofMillis(40));
+        Assertions.assertEquals(1, sizer.getBatchSize());
+        // throughput grows with the batch size, target is met by batches up to size 6
+        var counts = new int[17];
+        for (int i = 0; i < 4000; i++) {
+            var batchSize = sizer.getBatchSize();
+            sizer.onBatchCompleted(batchSize, Duration.ofMillis(10 + 5 * batchSize));
+            if (i >= 2000) counts[batchSize]++;
+        }
+        // most of the time is spent on the best batch size, bigger size is only probed
+        Assertions.assertTrue(counts[6] > 1600, "" + counts[6]);
+        Assertions.assertEquals(2000, counts[6] + counts[7]);
+    }
+}
@@ -20,13 +20,24 @@ package id.dope4j;
 import id.deeplearningutils.modality.cv.output.Point2D;
 import id.dope4j.decoders.CuboidVertexMatcher;
 import id.dope4j.decoders.CuboidVertexMatcher.VectorField;
+import id.dope4j.io.OutputKeypoints;
 import id.mathcalc.Vector2f;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 public class CuboidVertexMatcherTest {
 
+    private static final VectorField VECTOR_FIELD =
+            new VectorField() {
+                @Override
+                public Vector2f get(int cuboidVertexId, Point2D vertex) {
+                    return new Vector2f(1, 1);
+                }
+            };
+
     @Test
     public void test_match() {
         var centerPoints = List.of(new Point2D(25, 25), new Point2D(65, 65));
@@ -40,19 +51,73 @@ public class CuboidVertexMatcherTest {
                         List.of(),
                         List.of(),
                         List.of(new Point2D(30, 30), new Point2D(60, 60)));
-        var vectorField =
-                new VectorField() {
-                    @Override
-                    public Vector2f get(int cuboidVertexId, Point2D vertex) {
-                        return new Vector2f(1, 1);
+        var matcher = new CuboidVertexMatcher();
+        matcher.match(new OutputKeypoints(verticesLists, centerPoints), VECTOR_FIELD);
+        Assertions.assertEquals(2, matcher.getCenterPointsCount());
+        Assertions.assertEquals("[-1, 1, -1, -1, -1, -1, -1, 3]", toString(matcher, 0));
+        Assertions.assertEquals("[-1, 2, -1, -1, -1, -1, -1, 4]", toString(matcher, 1));
+    }
+
+    /** Compares matcher results with the search over all center points */
+    @Test
+    public void test_match_cluttered() {
+        var random = new Random(1);
+        var centerPoints = new ArrayList<Point2D>();
+        for (int i = 0; i < 60; i++) centerPoints.add(randomPoint(random));
+        var verticesLists = new ArrayList<List<Point2D>>();
+        for (int v = 0; v < 8; v++) {
+            var vertices = new ArrayList<Point2D>();
+            for (int i = 0; i < 70; i++) vertices.add(randomPoint(random));
+            verticesLists.add(vertices);
+        }
+        var keypoints = new OutputKeypoints(verticesLists, centerPoints);
+        var matcher = new CuboidVertexMatcher();
+        matcher.match(keypoints, VECTOR_FIELD);
+        var centerOffset = keypoints.offset(8);
+        for (int c = 0; c < centerPoints.size(); c++) {
+            for (int v = 0; v < 8; v++) {
+                var expected = -1;
+                var expectedDistance = Double.MAX_VALUE;
+                for (int i = keypoints.offset(v); i < keypoints.offset(v + 1); i++) {
+                    if (findNearest(keypoints, i) != c) continue;
+                    var distance = distance(keypoints, i, centerOffset + c);
+                    if (distance < expectedDistance) {
+                        expected = i;
+                        expectedDistance = distance;
                     }
-                };
-        var actual = new CuboidVertexMatcher(centerPoints, verticesLists, vectorField).match();
-        Assertions.assertEquals(
-                """
-                {{ "x": 25, "y": 25 }=[null, { "x": 22, "y": 22 }, null, null, null, null, null, { "x": 30, "y": 30 }], { "x": 65, "y": 65 }=[null, { "x": 65, "y": 61 }, null, null, null, null, null, { "x": 60, "y": 60 }]}
-                """
-                        .stripTrailing(),
-                actual.toString());
+                }
+                Assertions.assertEquals(expected, matcher.getVertex(c, v));
+            }
+        }
+    }
+
+    private static int findNearest(OutputKeypoints keypoints, int vertex) {
+        var centerOffset = keypoints.offset(8);
+        var nearest = -1;
+        var minDistance = Double.MAX_VALUE;
+        for (int c = 0; c < keypoints.count(8); c++) {
+            var distance = distance(keypoints, vertex, centerOffset + c);
+            if (distance < minDistance) {
+                nearest = c;
+                minDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    private static double distance(OutputKeypoints keypoints, int a, int b) {
+        double dx = keypoints.x(a) - keypoints.x(b);
+        double dy = keypoints.y(a) - keypoints.y(b);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static Point2D randomPoint(Random random) {
+        return new Point2D(random.nextInt(80) + 0.5, random.nextInt(60) + 0.5);
+    }
+
+    private static String toString(CuboidVertexMatcher matcher, int centerPointId) {
+        var vertices = new ArrayList<Integer>();
+        for (int v = 0; v < 8; v++) vertices.add(matcher.getVertex(centerPointId, v));
+        return vertices.toString();
     }
 }
@@ -19,15 +19,66 @@ package id.dope4j;
 
 import id.deeplearningutils.modality.cv.output.Cuboid3D;
 import id.deeplearningutils.modality.cv.output.Point3D;
+import id.dope4j.backends.ReplicatedInferenceBackend;
 import id.dope4j.jackson.JsonUtils;
+import id.xfunction.nio.file.FilePredicates;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.Optional;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 public class DeepObjectPoseEstimationServiceIT {
 
     @Test
     public void test() throws Exception {
+        test(Optional.empty());
+    }
+
+    @Test
+    public void test_warmup() throws Exception {
+        test(Optional.of(new WarmupConfig(2, List.of(1, 2))));
+    }
+
+    @Test
+    public void test_replay() throws Exception {
+        var jsonUtils = new JsonUtils();
+        var imageFileName = "scene_0001_0003_rgb_resized.jpg";
+        try (var dopeService = TestUtils.newReplayService(Paths.get("testset/_cache"))) {
+            var actual = dopeService.analyze(Paths.get("testset/" + imageFileName)).get(0);
+            var expected =
+                    TestUtils.findResult(
+                                    jsonUtils.readDope4jResults(Paths.get("testset/results.json")),
+                                    Paths.get(imageFileName))
+                            .detectedPoses();
+            TestUtils.assertPoses(expected, actual);
+        }
+    }
+
+    @Test
+    public void test_replicas() throws Exception {
+        var jsonUtils = new JsonUtils();
+        var expectedResults = jsonUtils.readDope4jResults(Paths.get("testset/results.json"));
+        var cacheHome = Paths.get("testset/_cache");
+        var backend =
+                new ReplicatedInferenceBackend(3, i -> TestUtils.newReplayBackend(cacheHome));
+        try (var dopeService = TestUtils.newService(backend)) {
+            dopeService.start(new WarmupConfig(1, List.of(1)));
+            var images =
+                    Files.list(Paths.get("testset"))
+                            .filter(FilePredicates.anyExtensionOf("jpg"))
+                            .toList();
+            // analyze concurrently so that batches are dispatched to different replicas
+            var results = images.parallelStream().map(dopeService::analyze).toList();
+            for (int i = 0; i < images.size(); i++) {
+                var expected = TestUtils.findResult(expectedResults, images.get(i));
+                TestUtils.assertPoses(expected.detectedPoses(), results.get(i).get(0));
+            }
+        }
+    }
+
+    private void test(Optional<WarmupConfig> warmup) throws Exception {
         var jsonUtils = new JsonUtils();
         var path =
                 Optional.ofNullable(System.getenv("CHOCOLATE_PUDDING_ONNX_MODEL_PATH"))
@@ -43,6 +94,11 @@ public class DeepObjectPoseEstimationServiceIT {
         var dopeService =
                 new Dope4jFactory()
                         .createPoseEstimationService(path, objectCuboidModel, cameraInfo);
+        Assertions.assertFalse(dopeService.isReady());
+        if (warmup.isPresent()) {
+            dopeService.start(warmup.get());
+            Assertions.assertTrue(dopeService.isReady());
+        }
         var imageFileName = "scene_0001_0003_rgb_resized.jpg";
         var actual = dopeService.analyze(Paths.get("testset/" + imageFileName)).get(0);
 
@@ -60,5 +116,6 @@ public class DeepObjectPoseEstimationServiceIT {
                         .orElseThrow()
                         .detectedPoses();
         TestUtils.assertPoses(expected, actual);
+        dopeService.close();
     }
 }
@@ -34,6 +34,7 @@ import java.util.List;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
@@ -79,7 +80,7 @@ public class Dope4jAppIT {
 
         var histogram = metricsFolder.resolve("histogram.csv");
         Assertions.assertEquals(true, histogram.toFile().exists());
-        Assertions.assertEquals(true, Files.readString(histogram).contains("pose_calc_time_ms"));
+        Assertions.assertEquals(true, Files.readString(histogram).contains("pose_calc_time_ns"));
     }
 
     static Stream<Path> testDataProvider() throws IOException {
@@ -89,24 +90,36 @@ public class Dope4jAppIT {
     @ParameterizedTest
     @MethodSource("testDataProvider")
     public void test(Path image) throws Exception {
-        var expected = findResult(dopeResults, image).detectedPoses();
-        var actual = findResult(dope4jResults, image).detectedPoses();
+        var expected = TestUtils.findResult(dopeResults, image).detectedPoses();
+        var actual = TestUtils.findResult(dope4jResults, image).detectedPoses();
         Assertions.assertEquals(expected.size(), actual.size());
         TestUtils.assertPoses(expected, actual);
     }
 
-    /** Finds results for current test image */
-    private Dope4jResult findResult(List<Dope4jResult> results, Path image) {
-        var imageFileName = image.getFileName().toString();
-        return results.stream()
-                .filter(
-                        res ->
-                                res.imagePath()
-                                        .get()
-                                        .getFileName()
-                                        .toString()
-                                        .startsWith(imageFileName))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("Could not find results for " + image));
+    /** Replays tensors from the cache since no model is given */
+    @Test
+    public void test_benchmark() throws Exception {
+        var out = new ByteArrayOutputStream();
+        GlobalOpenTelemetry.resetForTest();
+        new DeepObjectPoseEstimationApp(
+                        CommandOptions.collectOptions(
+                                new String[] {
+                                    "-action=benchmark",
+                                    "-imagePath=" + imagePath,
+                                    "-objectSize=4.947199821472168,2.9923000335693359,8.3498001098632812",
+                                    "-cacheFolder=" + imagePath.resolve("_cache"),
+                                    "-cameraInfo=../config/camera_info.yaml",
+                                    "-concurrency=2",
+                                    "-batchSize=2",
+                                    "-imagesCount=20",
+                                    "-rate=100"
+                                }),
+                        new PrintStream(out))
+                .run();
+        var report = out.toString();
+        Assertions.assertTrue(report.startsWith("Images: 20, failed: 0"), report);
+        Assertions.assertTrue(report.contains("Throughput: "), report);
+        Assertions.assertTrue(report.contains("end_to_end"), report);
+        Assertions.assertTrue(report.contains("pose_calc"), report);
     }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.deeplearningutils.modality.cv.output.Cuboid3D;
+import id.deeplearningutils.modality.cv.output.Point3D;
+import id.dope4j.app.Dope4jResult;
+import id.dope4j.app.Dope4jResultsIndex;
+import id.dope4j.app.Dope4jResultsReader;
+import id.dope4j.app.Dope4jResultsWriter;
+import id.dope4j.io.OutputPoses;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class Dope4jResultsIndexTest {
+
+    @Test
+    public void test() throws Exception {
+        var resultsFile = Files.createTempDirectory("dope4j").resolve("results.json");
+        var poses = new OutputPoses(new Cuboid3D(new Point3D(), 1, 2, 3), List.of(), List.of());
+        try (var writer = new Dope4jResultsWriter(resultsFile)) {
+            for (var image : List.of("a/1.jpg", "a/2.jpg", "b/3.png")) {
+                writer.write(new Dope4jResult(Optional.of(Paths.get(image)), poses));
+            }
+        }
+        var index = Dope4jResultsIndex.read(Dope4jResultsIndex.getIndexFile(resultsFile));
+        Assertions.assertEquals(3, index.size());
+        try (var reader = new Dope4jResultsReader(resultsFile)) {
+            Assertions.assertEquals(
+                    "b/3.png",
+                    reader.find(Paths.get("b/3.png")).orElseThrow().imagePath().get().toString());
+            Assertions.assertEquals(true, reader.find(Paths.get("c/4.png")).isEmpty());
+            Assertions.assertEquals(
+                    "[a/1.jpg, a/2.jpg]",
+                    reader.findAll("a/*.jpg").stream()
+                            .map(r -> r.imagePath().get())
+                            .toList()
+                            .toString());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.deeplearningutils.modality.cv.output.Point3D;
+import id.deeplearningutils.modality.cv.output.Pose;
+import id.dope4j.app.Dope4jResultsValidator;
+import id.dope4j.io.OutputPoses;
+import id.dope4j.jackson.JsonUtils;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class Dope4jResultsValidatorTest {
+
+    @Test
+    public void test() throws Exception {
+        var validator =
+                new Dope4jResultsValidator(
+                        new JsonUtils().readDope4jResults(Paths.get("testset/results.json")));
+        Assertions.assertEquals(
+                true, validator.findExpected(Paths.get("testset/missing.jpg")).isEmpty());
+        var expected =
+                validator
+                        .findExpected(Paths.get("testset/scene_0001_0003_rgb_resized.jpg"))
+                        .orElseThrow()
+                        .detectedPoses();
+        Assertions.assertEquals(true, validator.compare(expected, expected).isEmpty());
+        var pose = expected.poses().get(0);
+        var position = pose.position();
+        var shifted =
+                new OutputPoses(
+                        expected.objectCuboidModel(),
+                        expected.objects2d(),
+                        expected.poses().stream()
+                                .map(
+                                        p ->
+                                                p != pose
+                                                        ? p
+                                                        : new Pose(
+                                                                new Point3D(
+                                                                        position.getX(),
+                                                                        position.getY() + 0.2,
+                                                                        position.getZ()),
+                                                                p.orientation()))
+                                .toList());
+        Assertions.assertEquals(true, validator.compare(expected, shifted).isPresent());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.backends.ReplayInferenceBackend;
+import id.dope4j.impl.CacheFileMapper;
+import id.dope4j.jackson.JsonUtils;
+import id.dope4j.server.Dope4jHttpServer;
+import id.dope4j.server.Dope4jServerConfig;
+import id.xfunction.nio.file.FilePredicates;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class Dope4jServerIT {
+
+    private static final JsonUtils jsonUtils = new JsonUtils();
+    private static final Path imagePath = Paths.get("testset");
+    private static Dope4jHttpServer server;
+
+    @BeforeAll
+    public static void setupAll() throws Exception {
+        // adaptive batch sizing with target which is never exceeded by the replayed inference
+        var config =
+                new Dope4jServerConfig(
+                        4, 1, 4, Duration.ofMillis(50), 16, Optional.of(Duration.ofSeconds(10)));
+        server =
+                new Dope4jHttpServer(
+                        new InetSocketAddress("localhost", 0),
+                        TestUtils.newReplayService(imagePath.resolve("_cache")),
+                        config);
+        server.start();
+    }
+
+    @AfterAll
+    public static void cleanupAll() {
+        server.close();
+    }
+
+    @Test
+    public void test() throws Exception {
+        var expectedResults = jsonUtils.readDope4jResults(Paths.get("testset/results.json"));
+        var images = Files.list(imagePath).filter(FilePredicates.anyExtensionOf("jpg")).toList();
+        var client = HttpClient.newHttpClient();
+        // send all requests concurrently so that they are coalesced into batches
+        var responses =
+                images.stream()
+                        .map(
+                                image ->
+                                        HttpRequest.newBuilder()
+                                                .uri(
+                                                        URI.create(
+                                                                "http://localhost:"
+                                                                        + server.getAddress()
+                                                                                .getPort()
+                                                                        + "/analyze?imagePath="
+                                                                        + image))
+                                                .POST(ofFile(image))
+                                                .build())
+                        .map(
+                                request ->
+                                        client.sendAsync(
+                                                request,
+                                                HttpResponse.BodyHandlers.ofString(
+                                                        StandardCharsets.UTF_8)))
+                        .toList();
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).join();
+        for (int i = 0; i < images.size(); i++) {
+            var response = responses.get(i).get();
+            Assertions.assertEquals(200, response.statusCode(), response.body());
+            var actual = jsonUtils.readDope4jResult(response.body().getBytes());
+            var expected = TestUtils.findResult(expectedResults, images.get(i));
+            TestUtils.assertPoses(expected.detectedPoses(), actual.detectedPoses());
+        }
+    }
+
+    /** Workers do not wait for the inference so requests pile up in the queue until it is full */
+    @Test
+    public void test_queue_full() throws Exception {
+        var config = new Dope4jServerConfig(1, 1, 1, Duration.ZERO, 2, Optional.empty());
+        var backend =
+                new ReplayInferenceBackend(
+                        new CacheFileMapper(imagePath, imagePath.resolve("_cache")),
+                        Duration.ofMillis(300),
+                        Duration.ZERO);
+        try (var slowServer =
+                new Dope4jHttpServer(
+                        new InetSocketAddress("localhost", 0),
+                        TestUtils.newService(backend),
+                        config)) {
+            slowServer.start();
+            var image =
+                    Files.list(imagePath)
+                            .filter(FilePredicates.anyExtensionOf("jpg"))
+                            .findFirst()
+                            .orElseThrow();
+            var client = HttpClient.newHttpClient();
+            var request =
+                    HttpRequest.newBuilder()
+                            .uri(
+                                    URI.create(
+                                            "http://localhost:"
+                                                    + slowServer.getAddress().getPort()
+                                                    + "/analyze?imagePath="
+                                                    + image))
+                            .POST(ofFile(image))
+                            .build();
+            var responses =
+                    IntStream.range(0, 8)
+                            .mapToObj(
+                                    i ->
+                                            client.sendAsync(
+                                                    request, HttpResponse.BodyHandlers.ofString()))
+                            .toList();
+            CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).join();
+            var codes = new ArrayList<Integer>();
+            for (var response : responses) codes.add(response.get().statusCode());
+            Assertions.assertTrue(codes.contains(200), codes.toString());
+            Assertions.assertTrue(codes.contains(503), codes.toString());
+        }
+    }
+
+    private HttpRequest.BodyPublisher ofFile(Path image) {
+        try {
+            return HttpRequest.BodyPublishers.ofFile(image);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.jackson.JsonUtils;
+import id.dope4j.server.Dope4jServerConfig;
+import id.dope4j.server.Dope4jSocketProtocol;
+import id.dope4j.server.Dope4jSocketServer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Optional;
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.imgcodecs.Imgcodecs;
+
+public class Dope4jSocketServerIT {
+
+    private static final JsonUtils jsonUtils = new JsonUtils();
+    private static final Path image = Paths.get("testset/0000_rgb_resized.jpg");
+    private static final int REQUESTS_COUNT = 10;
+    private static Dope4jSocketServer server;
+
+    @BeforeAll
+    public static void setupAll() throws Exception {
+        OpenCV.loadLocally();
+        var tempDir = Files.createTempDirectory("dope4j");
+        var socketFile = tempDir.resolve("dope4j.sock");
+        // cache with single tensor which is replayed for every request
+        var cacheHome = Files.createDirectories(tempDir.resolve("_cache"));
+        var tensorFile = image.getFileName() + ".tensor";
+        Files.copy(
+                image.resolveSibling("_cache").resolve(tensorFile), cacheHome.resolve(tensorFile));
+        var config =
+                new Dope4jServerConfig(2, 1, 4, Duration.ofMillis(50), 16, Optional.empty());
+        server =
+                new Dope4jSocketServer(socketFile, TestUtils.newReplayService(cacheHome), config);
+        server.start();
+    }
+
+    @AfterAll
+    public static void cleanupAll() {
+        server.close();
+    }
+
+    @Test
+    public void test() throws Exception {
+        var expected =
+                TestUtils.findResult(
+                                jsonUtils.readDope4jResults(Paths.get("testset/results.json")),
+                                image)
+                        .detectedPoses()
+                        .poses();
+        var frame = Imgcodecs.imread(image.toString());
+        var pixels = new byte[(int) (frame.total() * frame.channels())];
+        frame.get(0, 0, pixels);
+        try (var channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(server.getSocketFile()));
+            // send all requests before reading any responses
+            var request =
+                    ByteBuffer.allocate(
+                                    Integer.BYTES
+                                            + Dope4jSocketProtocol.REQUEST_HEADER_LENGTH
+                                            + pixels.length)
+                            .order(Dope4jSocketProtocol.BYTE_ORDER);
+            for (long id = 0; id < REQUESTS_COUNT; id++) {
+                request.clear();
+                request.putInt(Dope4jSocketProtocol.REQUEST_HEADER_LENGTH + pixels.length);
+                request.putLong(id);
+                request.putInt(frame.cols());
+                request.putInt(frame.rows());
+                request.put(pixels);
+                request.flip();
+                while (request.hasRemaining()) channel.write(request);
+            }
+            var receivedIds = new HashSet<Long>();
+            for (int i = 0; i < REQUESTS_COUNT; i++) {
+                var response = read(channel, Integer.BYTES);
+                response = read(channel, response.getInt());
+                receivedIds.add(response.getLong());
+                Assertions.assertEquals(Dope4jSocketProtocol.STATUS_OK, response.getInt());
+                Assertions.assertEquals(expected.size(), response.getInt());
+                for (var pose : expected) {
+                    var position = pose.position();
+                    Assertions.assertEquals(position.getX(), response.getDouble(), 0.0999);
+                    Assertions.assertEquals(position.getY(), response.getDouble(), 0.0999);
+                    Assertions.assertEquals(position.getZ(), response.getDouble(), 0.0999);
+                    // skip orientation
+                    response.position(response.position() + 3 * Double.BYTES);
+                }
+            }
+            Assertions.assertEquals(REQUESTS_COUNT, receivedIds.size());
+        }
+        frame.release();
+    }
+
+    /** Connections above number of worker threads are closed instead of waiting forever */
+    @Test
+    public void test_connections_limit() throws Exception {
+        var address = UnixDomainSocketAddress.of(server.getSocketFile());
+        try (var first = SocketChannel.open(address);
+                var second = SocketChannel.open(address);
+                var rejected = SocketChannel.open(address);
+                var selector = Selector.open()) {
+            rejected.configureBlocking(false);
+            rejected.register(selector, SelectionKey.OP_READ);
+            Assertions.assertEquals(1, selector.select(5000));
+            Assertions.assertEquals(-1, rejected.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    private ByteBuffer read(SocketChannel channel, int size) throws Exception {
+        var buf = ByteBuffer.allocate(size).order(Dope4jSocketProtocol.BYTE_ORDER);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) throw new RuntimeException("Connection closed");
+        }
+        return buf.flip();
+    }
+}
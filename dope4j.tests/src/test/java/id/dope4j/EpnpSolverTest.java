@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.decoders.EpnpSolver;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class EpnpSolverTest {
+
+    private static final double[] CAMERA_MATRIX = {641.5, 0, 320, 0, 641.5, 240, 0, 0, 1};
+    private static final int POINTS_COUNT = 9;
+
+    /** Cuboid vertices followed by its center */
+    private static final float[] POINTS_3D = createCuboid(4.9f, 3.0f, 8.3f);
+
+    @Test
+    public void test_solve() {
+        var random = new Random(1);
+        var solver = new EpnpSolver(CAMERA_MATRIX, POINTS_COUNT);
+        var points2d = new float[2 * POINTS_COUNT];
+        var projected = new float[2 * POINTS_COUNT];
+        var rvec = new double[3];
+        var tvec = new double[3];
+        for (int i = 0; i < 100; i++) {
+            var expectedRvec = new double[3];
+            for (int j = 0; j < 3; j++) expectedRvec[j] = (random.nextDouble() - 0.5) * Math.PI;
+            var expectedTvec =
+                    new double[] {
+                        (random.nextDouble() - 0.5) * 20,
+                        (random.nextDouble() - 0.5) * 20,
+                        30 + random.nextDouble() * 70
+                    };
+            project(expectedRvec, expectedTvec, points2d);
+            Assertions.assertTrue(solver.solve(POINTS_3D, points2d, POINTS_COUNT));
+            solver.getRotationVector(rvec);
+            solver.getTranslation(tvec);
+            Assertions.assertArrayEquals(expectedRvec, rvec, 1e-3);
+            Assertions.assertArrayEquals(expectedTvec, tvec, 1e-2);
+            solver.project(POINTS_3D, POINTS_COUNT, projected);
+            Assertions.assertArrayEquals(points2d, projected, 1e-2f);
+        }
+    }
+
+    @Test
+    public void test_not_enough_points() {
+        var solver = new EpnpSolver(CAMERA_MATRIX, POINTS_COUNT);
+        var points2d = new float[2 * POINTS_COUNT];
+        project(new double[] {0.1, 0.2, 0.3}, new double[] {1, 2, 50}, points2d);
+        Assertions.assertFalse(
+                solver.solve(POINTS_3D, points2d, EpnpSolver.MIN_POINTS_COUNT - 1));
+        Assertions.assertTrue(solver.solve(POINTS_3D, points2d, EpnpSolver.MIN_POINTS_COUNT));
+    }
+
+    private static float[] createCuboid(float width, float height, float length) {
+        var points = new float[3 * POINTS_COUNT];
+        for (int i = 0; i < 8; i++) {
+            points[3 * i] = (i & 1) == 0 ? width / 2 : -width / 2;
+            points[3 * i + 1] = (i & 2) == 0 ? height / 2 : -height / 2;
+            points[3 * i + 2] = (i & 4) == 0 ? length / 2 : -length / 2;
+        }
+        return points;
+    }
+
+    /** Projects {@link #POINTS_3D} with the given pose using Rodrigues' rotation formula */
+    private static void project(double[] rvec, double[] tvec, float[] points2d) {
+        var angle = Math.sqrt(rvec[0] * rvec[0] + rvec[1] * rvec[1] + rvec[2] * rvec[2]);
+        var k = new double[] {rvec[0] / angle, rvec[1] / angle, rvec[2] / angle};
+        var cos = Math.cos(angle);
+        var sin = Math.sin(angle);
+        for (int i = 0; i < POINTS_COUNT; i++) {
+            var p = new double[] {POINTS_3D[3 * i], POINTS_3D[3 * i + 1], POINTS_3D[3 * i + 2]};
+            var dot = k[0] * p[0] + k[1] * p[1] + k[2] * p[2];
+            var cross =
+                    new double[] {
+                        k[1] * p[2] - k[2] * p[1],
+                        k[2] * p[0] - k[0] * p[2],
+                        k[0] * p[1] - k[1] * p[0]
+                    };
+            var c = new double[3];
+            for (int j = 0; j < 3; j++)
+                c[j] = p[j] * cos + cross[j] * sin + k[j] * dot * (1 - cos) + tvec[j];
+            points2d[2 * i] = (float) (CAMERA_MATRIX[0] * c[0] / c[2] + CAMERA_MATRIX[2]);
+            points2d[2 * i + 1] = (float) (CAMERA_MATRIX[4] * c[1] / c[2] + CAMERA_MATRIX[5]);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.io.ImageLoader;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Size;
+
+public class ImageLoaderTest {
+
+    @Test
+    public void test_readJpegSize() throws Exception {
+        try (var in = Files.newInputStream(Paths.get("testset/0000_rgb_resized.jpg"))) {
+            var size = ImageLoader.readJpegSize(in).orElseThrow();
+            Assertions.assertEquals(640, size.width);
+            Assertions.assertEquals(480, size.height);
+        }
+        var png = new byte[] {(byte) 0x89, 'P', 'N', 'G'};
+        Assertions.assertTrue(ImageLoader.readJpegSize(new ByteArrayInputStream(png)).isEmpty());
+        var truncated = new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+        Assertions.assertTrue(
+                ImageLoader.readJpegSize(new ByteArrayInputStream(truncated)).isEmpty());
+    }
+
+    @Test
+    public void test_findReduction() {
+        Assertions.assertEquals(
+                1, ImageLoader.findReduction(Optional.empty(), InputResolution.DEFAULT));
+        Assertions.assertEquals(1, findReduction(640, 480));
+        Assertions.assertEquals(1, findReduction(1279, 960));
+        Assertions.assertEquals(2, findReduction(1280, 960));
+        Assertions.assertEquals(4, findReduction(3840, 2160));
+        Assertions.assertEquals(8, findReduction(5120, 3840));
+        // rotated by EXIF orientation
+        Assertions.assertEquals(4, findReduction(2160, 3840));
+    }
+
+    private int findReduction(int width, int height) {
+        return ImageLoader.findReduction(
+                Optional.of(new Size(width, height)), InputResolution.DEFAULT);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class InputResolutionTest {
+
+    @Test
+    public void test() {
+        var resolution = InputResolution.parse("320x240");
+        Assertions.assertEquals(new InputResolution(320, 240), resolution);
+        Assertions.assertEquals("320x240", resolution.toString());
+        Assertions.assertEquals(30, resolution.tensorRows());
+        Assertions.assertEquals(40, resolution.tensorCols());
+        Assertions.assertEquals(25 * 30 * 40, resolution.tensorSize());
+        var defaults = InputResolution.DEFAULT;
+        Assertions.assertEquals(DopeConstants.TENSOR_ROWS, defaults.tensorRows());
+        Assertions.assertEquals(DopeConstants.TENSOR_COLS, defaults.tensorCols());
+        Assertions.assertArrayEquals(DopeConstants.BELIEF_SHAPE, defaults.beliefShape());
+    }
+
+    @Test
+    public void test_invalid() {
+        Assertions.assertThrows(Exception.class, () -> new InputResolution(321, 240));
+        Assertions.assertThrows(Exception.class, () -> InputResolution.parse("320"));
+    }
+}
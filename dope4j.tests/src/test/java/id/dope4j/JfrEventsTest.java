@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.backends.ReplayInferenceBackend;
+import id.dope4j.impl.BatchContext;
+import id.dope4j.impl.jfr.ImageLoadEvent;
+import id.dope4j.impl.jfr.InferenceEvent;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JfrEventsTest {
+
+    @Test
+    public void test() throws Exception {
+        var file = Files.createTempFile("dope4j", ".jfr");
+        long batchId;
+        try (var recording = new Recording()) {
+            recording.enable("dope4j.ImageLoad");
+            recording.enable("dope4j.Inference");
+            recording.start();
+            try (var batch = BatchContext.start(3)) {
+                batchId = batch.getId();
+                var inferenceEvent = new InferenceEvent();
+                inferenceEvent.begin();
+                inferenceEvent.commit(ReplayInferenceBackend.class, 3);
+            }
+            var loadEvent = new ImageLoadEvent();
+            loadEvent.begin();
+            loadEvent.commit(Optional.of(Path.of("image.jpg")), 4);
+            recording.stop();
+            recording.dump(file);
+        }
+        var events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        Assertions.assertEquals(2, events.size());
+
+        RecordedEvent inference = find(events, "dope4j.Inference");
+        Assertions.assertEquals(batchId, inference.getLong("batchId"));
+        Assertions.assertEquals(3, inference.getInt("batchSize"));
+        Assertions.assertEquals("ReplayInferenceBackend", inference.getString("backend"));
+
+        RecordedEvent load = find(events, "dope4j.ImageLoad");
+        Assertions.assertEquals("image.jpg", load.getString("imagePath"));
+        Assertions.assertEquals(0, load.getLong("batchId"));
+        Assertions.assertEquals(4, load.getInt("reduction"));
+    }
+
+    @Test
+    public void test_disabled() {
+        // recording is not running so nothing should be committed
+        var event = new InferenceEvent();
+        event.begin();
+        event.commit(ReplayInferenceBackend.class, 1);
+        Assertions.assertFalse(event.shouldCommit());
+    }
+
+    private RecordedEvent find(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(e -> e.getEventType().getName().equals(name))
+                .findFirst()
+                .orElseThrow();
+    }
+}
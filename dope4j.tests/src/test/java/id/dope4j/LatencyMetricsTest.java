@@ -0,0 +1,100 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.impl.BatchContext;
+import id.dope4j.impl.LatencyMetrics;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.context.Context;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyMetricsTest {
+
+    private static class RecordingHistogram implements LongHistogram {
+        List<Long> values = new ArrayList<>();
+        List<Attributes> attributes = new ArrayList<>();
+
+        @Override
+        public void record(long value) {
+            record(value, Attributes.empty());
+        }
+
+        @Override
+        public void record(long value, Attributes attributes) {
+            values.add(value);
+            this.attributes.add(attributes);
+        }
+
+        @Override
+        public void record(long value, Attributes attributes, Context context) {
+            record(value, attributes);
+        }
+    }
+
+    @Test
+    public void test_batch_size() {
+        var histogram = new RecordingHistogram();
+        LatencyMetrics.record(histogram, System.nanoTime());
+        try (var batch = BatchContext.start(8)) {
+            LatencyMetrics.record(histogram, System.nanoTime());
+            try (var subBatch = BatchContext.start(3)) {
+                LatencyMetrics.record(histogram, System.nanoTime());
+            }
+            LatencyMetrics.record(histogram, System.nanoTime());
+        }
+        LatencyMetrics.record(histogram, System.nanoTime());
+        Assertions.assertEquals(
+                "[null, 8, 3, 8, null]",
+                histogram.attributes.stream()
+                        .map(a -> a.get(BatchContext.BATCH_SIZE_KEY))
+                        .toList()
+                        .toString());
+        histogram.values.forEach(v -> Assertions.assertTrue(v >= 0));
+    }
+
+    @Test
+    public void test_warmup() {
+        var histogram = new RecordingHistogram();
+        try (var warmup = BatchContext.startWarmup(4)) {
+            LatencyMetrics.record(histogram, System.nanoTime());
+            // nested batches of the warmup are warmup too
+            try (var subBatch = BatchContext.start(2)) {
+                Assertions.assertTrue(BatchContext.isWarmup());
+                LatencyMetrics.record(histogram, System.nanoTime(), Attributes.empty());
+            }
+        }
+        Assertions.assertFalse(BatchContext.isWarmup());
+        try (var batch = BatchContext.start(4)) {
+            LatencyMetrics.record(histogram, System.nanoTime());
+        }
+        Assertions.assertEquals(1, histogram.values.size());
+    }
+
+    @Test
+    public void test_bucket_boundaries() {
+        var boundaries = LatencyMetrics.BUCKET_BOUNDARIES;
+        Assertions.assertEquals(1_000., boundaries.get(0));
+        Assertions.assertEquals(10_000_000_000., boundaries.get(boundaries.size() - 1));
+        for (int i = 1; i < boundaries.size(); i++)
+            Assertions.assertTrue(boundaries.get(i - 1) < boundaries.get(i));
+    }
+}
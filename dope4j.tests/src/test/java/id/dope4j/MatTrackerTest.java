@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.impl.MatTracker;
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+public class MatTrackerTest {
+
+    @BeforeAll
+    public static void setupAll() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    public void test() {
+        var tracker = MatTracker.getInstance();
+        var count = tracker.getLiveMatsCount();
+        var bytes = tracker.getLiveBytes();
+        var mat = tracker.track(new Mat(10, 20, CvType.CV_32F));
+        Assertions.assertEquals(count + 1, tracker.getLiveMatsCount());
+        Assertions.assertEquals(bytes + 10 * 20 * 4, tracker.getLiveBytes());
+        // reallocation by OpenCV is taken into account
+        mat.create(10, 10, CvType.CV_32F);
+        Assertions.assertEquals(bytes + 10 * 10 * 4, tracker.getLiveBytes());
+        tracker.release(mat);
+        Assertions.assertEquals(count, tracker.getLiveMatsCount());
+        Assertions.assertEquals(bytes, tracker.getLiveBytes());
+    }
+}
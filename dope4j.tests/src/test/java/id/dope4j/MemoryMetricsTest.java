@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.impl.MemoryMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MemoryMetricsTest {
+
+    private static final int ARRAY_SIZE = 1 << 20;
+    private static byte[] array;
+
+    @AfterEach
+    public void cleanup() {
+        MemoryMetrics.setEnabled(false);
+    }
+
+    @Test
+    public void test_disabled() {
+        MemoryMetrics.setEnabled(false);
+        Assertions.assertEquals(0, MemoryMetrics.allocatedBytes());
+        Assertions.assertEquals(0, MemoryMetrics.record("test_disabled", 0));
+        Assertions.assertFalse(MemoryMetrics.getSummary().contains("test_disabled"));
+    }
+
+    @Test
+    public void test_summary() {
+        MemoryMetrics.setEnabled(true);
+        for (int i = 0; i < 2; i++) {
+            var allocatedAt = MemoryMetrics.allocatedBytes();
+            array = new byte[ARRAY_SIZE];
+            Assertions.assertTrue(MemoryMetrics.record("test_summary", allocatedAt) > allocatedAt);
+        }
+        var line =
+                MemoryMetrics.getSummary()
+                        .lines()
+                        .filter(l -> l.startsWith("test_summary "))
+                        .findFirst()
+                        .orElseThrow();
+        var columns = line.trim().split(" +");
+        Assertions.assertEquals("2", columns[1]);
+        Assertions.assertTrue(Long.parseLong(columns[2]) >= 2 * ARRAY_SIZE, line);
+        Assertions.assertTrue(Long.parseLong(columns[3]) >= ARRAY_SIZE, line);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.Shape;
+import id.dope4j.impl.NDArrayScope;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class NDArrayScopeTest {
+
+    @Test
+    public void test_close() {
+        try (var manager = NDManager.newBaseManager()) {
+            var array = manager.create(new float[] {1, 2, 3, 4}, new Shape(2, 2));
+            var outsideSlice = array.get(0);
+            NDArray slice;
+            try (var scope = new NDArrayScope(array, "test")) {
+                slice = array.get(1);
+                Assertions.assertSame(scope.getManager(), slice.getManager());
+            }
+            Assertions.assertTrue(slice.isReleased());
+            Assertions.assertFalse(outsideSlice.isReleased());
+            Assertions.assertFalse(array.isReleased());
+            Assertions.assertSame(manager, array.getManager());
+            Assertions.assertEquals(2, manager.getManagedArrays().size());
+        }
+    }
+}
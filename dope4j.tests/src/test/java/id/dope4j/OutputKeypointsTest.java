@@ -0,0 +1,69 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.deeplearningutils.modality.cv.output.Point2D;
+import id.dope4j.io.OutputKeypoints;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class OutputKeypointsTest {
+
+    @Test
+    public void test() {
+        var offsets = new int[] {0, 2, 2, 2, 2, 2, 2, 2, 3, 4};
+        var keypoints =
+                new OutputKeypoints(
+                        new float[] {1, 2, 3, 4},
+                        new float[] {5, 6, 7, 8},
+                        new float[] {.1f, .2f, .3f, .4f},
+                        offsets);
+        Assertions.assertEquals(4, keypoints.keypointsCount());
+        Assertions.assertEquals(2, keypoints.count(0));
+        Assertions.assertEquals(0, keypoints.count(1));
+        Assertions.assertEquals(7, keypoints.offset(8));
+        Assertions.assertEquals(.3f, keypoints.belief(2));
+        Assertions.assertEquals(8, keypoints.vertices().size());
+        Assertions.assertEquals(
+                List.of(new Point2D(1, 5), new Point2D(2, 6)), keypoints.vertices().get(0));
+        Assertions.assertEquals(List.of(), keypoints.vertices().get(1));
+        Assertions.assertEquals(List.of(new Point2D(3, 7)), keypoints.vertices().get(7));
+        Assertions.assertEquals(List.of(new Point2D(4, 8)), keypoints.centerPoints());
+    }
+
+    @Test
+    public void test_fromLists() {
+        var vertices =
+                List.of(
+                        List.of(new Point2D(1, 5), new Point2D(2, 6)),
+                        List.<Point2D>of(),
+                        List.<Point2D>of(),
+                        List.<Point2D>of(),
+                        List.<Point2D>of(),
+                        List.<Point2D>of(),
+                        List.<Point2D>of(),
+                        List.of(new Point2D(3, 7)));
+        var centerPoints = List.of(new Point2D(4, 8));
+        var keypoints = new OutputKeypoints(vertices, centerPoints);
+        Assertions.assertEquals(4, keypoints.keypointsCount());
+        Assertions.assertEquals(vertices, keypoints.vertices());
+        Assertions.assertEquals(centerPoints, keypoints.centerPoints());
+        Assertions.assertTrue(Float.isNaN(keypoints.belief(0)));
+    }
+}
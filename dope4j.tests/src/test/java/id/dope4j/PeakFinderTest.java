@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.decoders.PeakFinder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class PeakFinderTest {
+
+    private static final int ROWS = 10;
+    private static final int COLS = 12;
+    private static final int[] SHAPE = {ROWS, COLS};
+
+    @Test
+    public void test_findPeaks() {
+        var belief = new float[ROWS * COLS];
+        set(belief, 4, 3, 1);
+        set(belief, 5, 3, .5f);
+        set(belief, 4, 4, .5f);
+        set(belief, 10, 8, .8f);
+        // below the threshold
+        set(belief, 1, 1, .05f);
+        var finder = new PeakFinder();
+        Assertions.assertEquals(2, finder.findPeaks(belief, belief, SHAPE, .01, .1));
+        Assertions.assertEquals("[{4, 3}, {10, 8}]", finder.toString());
+        finder.applyWeightedAverage(belief, SHAPE, 5);
+        Assertions.assertEquals(4.25f, finder.averagedX(0));
+        Assertions.assertEquals(3.25f, finder.averagedY(0));
+        Assertions.assertEquals(10f, finder.averagedX(1));
+        Assertions.assertEquals(8f, finder.averagedY(1));
+    }
+
+    /** Peaks which cannot be averaged are not dropped and keep their original coordinates */
+    @Test
+    public void test_applyWeightedAverage_empty_window() {
+        var belief = new float[ROWS * COLS];
+        set(belief, 2, 2, 1);
+        // weights inside the window of the first peak sum up to zero
+        set(belief, 3, 2, -1);
+        set(belief, 8, 6, 1);
+        set(belief, 9, 6, 1);
+        var blurred = new float[ROWS * COLS];
+        set(blurred, 2, 2, 1);
+        set(blurred, 8, 6, 1);
+        var finder = new PeakFinder();
+        Assertions.assertEquals(2, finder.findPeaks(blurred, belief, SHAPE, .01, .1));
+        finder.applyWeightedAverage(belief, SHAPE, 5);
+        Assertions.assertEquals(2, finder.peaksCount());
+        Assertions.assertEquals(2f, finder.averagedX(0));
+        Assertions.assertEquals(2f, finder.averagedY(0));
+        Assertions.assertEquals(8.5f, finder.averagedX(1));
+        Assertions.assertEquals(6f, finder.averagedY(1));
+    }
+
+    private void set(float[] map, int x, int y, float value) {
+        map[y * COLS + x] = value;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import ai.djl.engine.Engine;
+import ai.djl.ndarray.NDArray;
+import id.deeplearningutils.modality.cv.output.Cuboid2D;
+import id.deeplearningutils.modality.cv.output.Point3D;
+import id.dope4j.app.Dope4jResultsValidator;
+import id.dope4j.decoders.CuboidPoseCalculator;
+import id.dope4j.decoders.DopeDecoderUtils;
+import id.dope4j.impl.CacheFileMapper;
+import id.dope4j.jackson.JsonUtils;
+import id.matcv.camera.CameraInfo;
+import id.xfunction.nio.file.FilePredicates;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class PnpMethodBenchmarkIT {
+
+    private static final int ITERATIONS = 200;
+    private static final Path TESTSET = Paths.get("testset");
+    private static final DopeDecoderUtils decoderUtils = new DopeDecoderUtils();
+    private static final List<Cuboid2D> cuboids = new ArrayList<>();
+    private static final List<Point3D> expectedPositions = new ArrayList<>();
+    private static CameraInfo cameraInfo;
+
+    @BeforeAll
+    public static void setupAll() throws Exception {
+        OpenCV.loadLocally();
+        cameraInfo = TestUtils.readCameraInfo();
+        var results = new JsonUtils().readDope4jResults(TESTSET.resolve("results.json"));
+        var cacheFileMapper = new CacheFileMapper(TESTSET, TESTSET.resolve("_cache"));
+        var images = Files.list(TESTSET).filter(FilePredicates.anyExtensionOf("jpg")).sorted();
+        try (var manager = Engine.getInstance().newBaseManager();
+                var calc = newCalculator(PnpConfig.DEFAULT)) {
+            for (var image : images.toList()) {
+                var tensor =
+                        NDArray.decode(
+                                manager,
+                                Files.readAllBytes(cacheFileMapper.getTensorFile(image)));
+                var output = decoderUtils.readDopeOutput(tensor);
+                var keypoints =
+                        decoderUtils.findKeypoints(output, DopeConstants.DEFAULT_PEAK_THRESHOLD);
+                var expected = TestUtils.findResult(results, image).detectedPoses().poses();
+                var objects = decoderUtils.findObjects(keypoints, output.affinities());
+                var poseId = 0;
+                // keep only cuboids for which results.json has the pose
+                for (var cuboid : objects.cuboids2d()) {
+                    if (!calc.calculateAndAddPose(cuboid)) continue;
+                    cuboids.add(cuboid);
+                    expectedPositions.add(expected.get(poseId++).position());
+                }
+                Assertions.assertEquals(expected.size(), poseId);
+            }
+        }
+        Assertions.assertFalse(cuboids.isEmpty());
+    }
+
+    @Test
+    public void test() {
+        System.out.format("Cuboids: %d, iterations: %d%n", cuboids.size(), ITERATIONS);
+        System.out.format("%-10s %-7s %14s %14s%n", "method", "refine", "us/pose", "deviation");
+        for (var method : PnpMethod.values()) {
+            for (var refine : List.of(false, true)) {
+                var config = new PnpConfig(method, refine);
+                try (var calc = newCalculator(config)) {
+                    var deviation = findMaxDeviation(calc);
+                    var micros = measureTimePerPose(calc) / 1000.;
+                    System.out.format(
+                            "%-10s %-7s %14.2f %14.6f%n", method, refine, micros, deviation);
+                    // Java solver is validated against OpenCV results
+                    if (config.equals(PnpConfig.DEFAULT) || method == PnpMethod.JAVA_EPNP)
+                        Assertions.assertTrue(
+                                deviation < Dope4jResultsValidator.POSITION_DELTA,
+                                method + " deviation " + deviation);
+                }
+            }
+        }
+    }
+
+    private static CuboidPoseCalculator newCalculator(PnpConfig config) {
+        return new CuboidPoseCalculator(
+                TestUtils.OBJECT_MODEL, cameraInfo, InputResolution.DEFAULT, config);
+    }
+
+    /** Largest difference between coordinates of calculated and expected positions */
+    private double findMaxDeviation(CuboidPoseCalculator calc) {
+        calc.clear();
+        cuboids.forEach(calc::calculateAndAddPose);
+        var poses = calc.getPoses();
+        Assertions.assertEquals(cuboids.size(), poses.size());
+        var deviation = 0.;
+        for (int i = 0; i < poses.size(); i++) {
+            var actual = poses.get(i).position();
+            var expected = expectedPositions.get(i);
+            deviation = Math.max(deviation, Math.abs(actual.getX() - expected.getX()));
+            deviation = Math.max(deviation, Math.abs(actual.getY() - expected.getY()));
+            deviation = Math.max(deviation, Math.abs(actual.getZ() - expected.getZ()));
+        }
+        return deviation;
+    }
+
+    /** Average time per pose in nanoseconds, first half of the iterations is warm up */
+    private double measureTimePerPose(CuboidPoseCalculator calc) {
+        var totalTime = 0L;
+        for (int i = 0; i < ITERATIONS; i++) {
+            calc.clear();
+            var startAt = System.nanoTime();
+            cuboids.forEach(calc::calculateAndAddPose);
+            if (i >= ITERATIONS / 2) totalTime += System.nanoTime() - startAt;
+        }
+        return (double) totalTime / (ITERATIONS - ITERATIONS / 2) / cuboids.size();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.metrics.PrometheusMetricsServer;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PrometheusMetricsServerTest {
+
+    private PrometheusMetricsServer server;
+    private SdkMeterProvider provider;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        server = new PrometheusMetricsServer(new InetSocketAddress("localhost", 0));
+        provider = SdkMeterProvider.builder().registerMetricReader(server).build();
+        server.start();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        provider.close();
+    }
+
+    @Test
+    public void test() throws Exception {
+        var meter = provider.get("TestMeter");
+        meter.counterBuilder("analyze")
+                .setDescription("Number of method calls")
+                .build()
+                .add(3, Attributes.of(AttributeKey.stringKey("path"), "a\"b"));
+        var histogram = meter.histogramBuilder("latency_ms").ofLongs().build();
+        histogram.record(7);
+        histogram.record(12);
+        var response = scrape("GET");
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertTrue(
+                response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        var expected =
+                """
+                # HELP analyze_total Number of method calls
+                # TYPE analyze_total counter
+                analyze_total{otel_scope_name="TestMeter",path="a\\"b"} 3
+                # TYPE latency_ms histogram
+                latency_ms_bucket{otel_scope_name="TestMeter",le="0.0"} 0
+                latency_ms_bucket{otel_scope_name="TestMeter",le="5.0"} 0
+                latency_ms_bucket{otel_scope_name="TestMeter",le="10.0"} 1
+                latency_ms_bucket{otel_scope_name="TestMeter",le="25.0"} 2
+                """;
+        Assertions.assertTrue(response.body().startsWith(expected), response.body());
+        Assertions.assertTrue(
+                response.body()
+                        .endsWith(
+                                """
+                                latency_ms_bucket{otel_scope_name="TestMeter",le="+Inf"} 2
+                                latency_ms_sum{otel_scope_name="TestMeter"} 19.0
+                                latency_ms_count{otel_scope_name="TestMeter"} 2
+                                """),
+                response.body());
+    }
+
+    @Test
+    public void test_method_not_allowed() throws Exception {
+        Assertions.assertEquals(405, scrape("POST").statusCode());
+    }
+
+    private HttpResponse<String> scrape(String method) throws Exception {
+        var request =
+                HttpRequest.newBuilder()
+                        .uri(
+                                URI.create(
+                                        "http://localhost:"
+                                                + server.getAddress().getPort()
+                                                + "/metrics"))
+                        .method(method, HttpRequest.BodyPublishers.noBody())
+                        .build();
+        return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.dope4j.app.StageLatencyReader;
+import id.dope4j.impl.BatchContext;
+import id.dope4j.impl.LatencyMetrics;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.Aggregation;
+import io.opentelemetry.sdk.metrics.InstrumentSelector;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.View;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StageLatencyReaderTest {
+
+    private StageLatencyReader reader;
+    private SdkMeterProvider provider;
+
+    @BeforeEach
+    public void setup() {
+        reader = new StageLatencyReader();
+        provider =
+                SdkMeterProvider.builder()
+                        .registerMetricReader(reader)
+                        .registerView(
+                                InstrumentSelector.builder()
+                                        .setName("*" + LatencyMetrics.NAME_SUFFIX)
+                                        .build(),
+                                View.builder()
+                                        .setAggregation(
+                                                Aggregation.explicitBucketHistogram(
+                                                        List.of(0., 100., 200., 400.)))
+                                        .build())
+                        .build();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        provider.close();
+    }
+
+    @Test
+    public void test() {
+        var histogram =
+                provider.get("TestMeter").histogramBuilder("decode_time_ns").ofLongs().build();
+        // measurements of different batch sizes are merged
+        var batch1 = Attributes.of(BatchContext.BATCH_SIZE_KEY, 1L);
+        var batch2 = Attributes.of(BatchContext.BATCH_SIZE_KEY, 2L);
+        for (int i = 0; i < 50; i++) {
+            histogram.record(150, batch1);
+            histogram.record(300, batch2);
+        }
+        // not a latency metric
+        provider.get("TestMeter").histogramBuilder("decode_alloc_bytes").build().record(10);
+        var percentiles = reader.findPercentiles(0.5, 0.99);
+        Assertions.assertEquals("[decode]", percentiles.keySet().toString());
+        Assertions.assertEquals(
+                List.of(Duration.ofNanos(200), Duration.ofNanos(396)), percentiles.get("decode"));
+
+        reader.reset();
+        Assertions.assertTrue(reader.findPercentiles(0.5).isEmpty());
+        for (int i = 0; i < 10; i++) histogram.record(50);
+        histogram.record(1000);
+        Assertions.assertEquals(
+                List.of(Duration.ofNanos(55), Duration.ofNanos(400)),
+                reader.findPercentiles(0.5, 1).get("decode"));
+    }
+}
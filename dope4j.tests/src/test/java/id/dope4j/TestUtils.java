@@ -17,12 +17,33 @@
  */
 package id.dope4j;
 
+import id.deeplearningutils.modality.cv.output.Cuboid3D;
+import id.deeplearningutils.modality.cv.output.Point3D;
+import id.dope4j.app.Dope4jResult;
+import id.dope4j.app.Dope4jResultsValidator;
+import id.dope4j.backends.InferenceBackend;
+import id.dope4j.backends.ReplayInferenceBackend;
+import id.dope4j.decoders.ObjectsDecoder;
+import id.dope4j.impl.CacheFileMapper;
 import id.dope4j.io.OutputPoses;
+import id.dope4j.jackson.JsonUtils;
+import id.matcv.camera.CameraInfo;
 import id.xfunctiontests.XAsserts;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
 import org.junit.jupiter.api.Assertions;
 
 public class TestUtils {
-    private static final double POSE_DELTA = 0.0999;
+    private static final double POSE_DELTA = Dope4jResultsValidator.POSITION_DELTA;
+    private static final Path TESTSET = Paths.get("testset");
+
+    /** Cuboid model of the object in the testset */
+    public static final Cuboid3D OBJECT_MODEL =
+            new Cuboid3D(
+                    new Point3D(), 4.947199821472168, 2.9923000335693359, 8.3498001098632812);
 
     public static void assertPoses(OutputPoses expected, OutputPoses actual) {
         var expectedPoses = expected.poses();
@@ -38,4 +59,46 @@ public class TestUtils {
             XAsserts.assertSimilar(expectedPose.getZ(), actualPose.getZ(), POSE_DELTA);
         }
     }
+
+    /** Find result for the given image by matching its file name */
+    public static Dope4jResult findResult(List<Dope4jResult> results, Path image) {
+        var imageFileName = image.getFileName().toString();
+        return results.stream()
+                .filter(
+                        res ->
+                                res.imagePath()
+                                        .get()
+                                        .getFileName()
+                                        .toString()
+                                        .startsWith(imageFileName))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("Could not find results for " + image));
+    }
+
+    /** Camera intrinsics which were used to take images in the testset */
+    public static CameraInfo readCameraInfo() {
+        return new JsonUtils().readCameraInfo(Paths.get("../config/camera_info.yaml"));
+    }
+
+    /**
+     * Create service which instead of running the network replays output tensors stored in the
+     * cache.
+     */
+    public static DeepObjectPoseEstimationService<OutputPoses> newReplayService(Path cacheHome)
+            throws IOException {
+        return newService(newReplayBackend(cacheHome));
+    }
+
+    public static ReplayInferenceBackend newReplayBackend(Path cacheHome) {
+        return new ReplayInferenceBackend(
+                new CacheFileMapper(TESTSET, cacheHome), Duration.ZERO, Duration.ZERO);
+    }
+
+    public static DeepObjectPoseEstimationService<OutputPoses> newService(
+            InferenceBackend backend) throws IOException {
+        var decoder =
+                new ObjectsDecoder(
+                        DopeConstants.DEFAULT_PEAK_THRESHOLD, OBJECT_MODEL, readCameraInfo());
+        return new DeepObjectPoseEstimationService<>(backend, decoder);
+    }
 }
@@ -20,7 +20,6 @@ package id.deeplearningutils.modality.cv.output;
 import ai.djl.modality.cv.output.Point;
 import id.xfunction.XJsonStringBuilder;
 import java.util.Comparator;
-import java.util.Objects;
 
 /**
  * Extension for {@link Point}
@@ -56,7 +55,8 @@ public class Point2D extends Point {
 
     @Override
     public int hashCode() {
-        return Objects.hash(getX(), getY());
+        // same as Objects.hash(getX(), getY()) but without boxing
+        return 31 * (31 + Double.hashCode(getX())) + Double.hashCode(getY());
     }
 
     @Override
@@ -17,24 +17,28 @@
  */
 package id.dope4j;
 
-import ai.djl.Model;
-import ai.djl.engine.Engine;
-import ai.djl.translate.TranslateException;
-import ai.djl.util.cuda.CudaUtils;
+import ai.djl.opencv.OpenCVImageFactory;
+import id.dope4j.backends.DjlInferenceBackend;
+import id.dope4j.backends.InferenceBackend;
+import id.dope4j.backends.ReplicatedInferenceBackend;
 import id.dope4j.decoders.DopeDecoder;
 import id.dope4j.exceptions.DopeException;
-import id.dope4j.impl.DopeTranslator;
-import id.dope4j.impl.Utils;
+import id.dope4j.impl.BatchContext;
 import id.dope4j.io.InputImage;
 import id.xfunction.util.LazyService;
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.api.metrics.Meter;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,11 +47,16 @@ import org.slf4j.LoggerFactory;
  *
  * <p>To perform inference this service requires path to DOPE network and {@link DopeDecoder}
  * implementation. Each input image is sent to the DOPE network and network output results are
- * decoded with {@link DopeDecoder}.
+ * decoded with {@link DopeDecoder}. The network is run by {@link InferenceBackend} ({@link
+ * DjlInferenceBackend} by default).
  *
  * <p>Network knows how to detect only one class of objects. It means that all detected poses will
  * be for different objects present on the image where all these objects belong to the same class.
  *
+ * <p>Service is started lazily on the first inference request, which means that this request also
+ * pays for loading the model. To avoid it users can start the service explicitly with {@link
+ * #start(WarmupConfig)}.
+ *
  * @param <R> type of the service output inference results
  * @author lambdaprime intid@protonmail.com
  */
@@ -68,13 +77,131 @@ public class DeepObjectPoseEstimationService<R> extends LazyService {
             METER.counterBuilder("analyzed_images")
                     .setDescription("Total number of images analyzed")
                     .build();
-    private String networkUrl;
-    private Model model;
-    private DopeTranslator<R> translator;
+    private final LongHistogram WARMUP_TIME_METER =
+            METER.histogramBuilder("warmup_time_ms")
+                    .setDescription("Time to start the service and complete its warmup in millis")
+                    .ofLongs()
+                    .build();
+    private InferenceBackend backend;
+    private DopeDecoder<R> decoder;
+    private InputResolution inputResolution;
+    private volatile boolean isReady;
 
     public DeepObjectPoseEstimationService(String networkUrl, DopeDecoder<R> decoder) {
-        this.networkUrl = networkUrl;
-        translator = new DopeTranslator<>(decoder);
+        this(networkUrl, decoder, ModelLoadingConfig.DEFAULT);
+    }
+
+    /**
+     * @param modelLoadingConfig settings of ONNX Runtime session used to run the network
+     */
+    public DeepObjectPoseEstimationService(
+            String networkUrl, DopeDecoder<R> decoder, ModelLoadingConfig modelLoadingConfig) {
+        this(new DjlInferenceBackend(networkUrl, modelLoadingConfig), decoder);
+    }
+
+    /**
+     * Service which hosts several replicas of the model (see {@link ReplicatedInferenceBackend}).
+     *
+     * @param modelLoadingConfig settings of ONNX Runtime session of each replica. To avoid
+     *     oversubscription, total number of intra-op threads of all replicas should not exceed
+     *     number of available cores.
+     * @param replicas number of replicas
+     */
+    public DeepObjectPoseEstimationService(
+            String networkUrl,
+            DopeDecoder<R> decoder,
+            ModelLoadingConfig modelLoadingConfig,
+            int replicas) {
+        this(
+                new ReplicatedInferenceBackend(
+                        replicas, i -> new DjlInferenceBackend(networkUrl, modelLoadingConfig)),
+                decoder);
+    }
+
+    /**
+     * @param backend engine which is used to run the network
+     */
+    public DeepObjectPoseEstimationService(InferenceBackend backend, DopeDecoder<R> decoder) {
+        this(backend, decoder, InputResolution.DEFAULT);
+    }
+
+    /**
+     * @param backend engine which is used to run the network
+     * @param inputResolution resolution to which all images are resized before they are sent to
+     *     the network
+     */
+    public DeepObjectPoseEstimationService(
+            InferenceBackend backend, DopeDecoder<R> decoder, InputResolution inputResolution) {
+        this.backend = backend;
+        this.decoder = decoder;
+        this.inputResolution = inputResolution;
+    }
+
+    /**
+     * Start the service without waiting for the first inference request.
+     *
+     * @see #start(WarmupConfig)
+     */
+    public void start() throws DopeException {
+        start(WarmupConfig.NONE);
+    }
+
+    /**
+     * Start the service (load the model) and warm it up by running inference on synthetic images.
+     *
+     * <p>Inference results for synthetic images are decoded same as for real images so that
+     * decoder is warmed up too, but then they are discarded. Warmup batches are marked with {@link
+     * BatchContext#startWarmup(int)} so decoder, PnP and replica metrics do not count them.
+     *
+     * <p>Once this method returns the service is ready (see {@link #isReady()}). Calling it again
+     * on ready service does nothing.
+     */
+    public synchronized void start(WarmupConfig warmup) throws DopeException {
+        if (isReady) return;
+        var startAt = Instant.now();
+        startLazy();
+        var random = new Random(0);
+        for (var batchSize : warmup.batchSizes()) {
+            LOGGER.info(
+                    "Warming up with {} iterations of batch size {}",
+                    warmup.iterations(),
+                    batchSize);
+            var batch = new ArrayList<InputImage>(batchSize);
+            for (int i = 0; i < batchSize; i++) batch.add(newSyntheticImage(random));
+            try (var batchContext = BatchContext.startWarmup(batchSize)) {
+                for (int i = 0; i < warmup.iterations(); i++) {
+                    backend.warmup(batch, decoder);
+                }
+            }
+        }
+        var warmupTime = Duration.between(startAt, Instant.now());
+        WARMUP_TIME_METER.record(warmupTime.toMillis());
+        LOGGER.info("Service is ready, warmup took {}", warmupTime);
+        isReady = true;
+    }
+
+    /**
+     * Returns true once the service is started with {@link #start(WarmupConfig)} and its warmup
+     * is completed.
+     */
+    public boolean isReady() {
+        return isReady;
+    }
+
+    /**
+     * Resolution of the images which are sent to the network. Images passed to {@link
+     * #analyzeBatch(List)} are expected to have it.
+     */
+    public InputResolution getInputResolution() {
+        return inputResolution;
+    }
+
+    private InputImage newSyntheticImage(Random random) {
+        var pixels = new int[inputResolution.width() * inputResolution.height()];
+        for (int i = 0; i < pixels.length; i++) pixels[i] = random.nextInt();
+        return new InputImage(
+                OpenCVImageFactory.getInstance()
+                        .fromPixels(pixels, inputResolution.width(), inputResolution.height()));
     }
 
     /**
@@ -90,40 +217,60 @@ public class DeepObjectPoseEstimationService<R> extends LazyService {
             LOGGER.warn("Received empty list of images, nothing to analyze");
             return List.of();
         }
-        try {
-            var batch =
-                    Arrays.stream(images)
-                            .map(
-                                    imagePath -> {
-                                        try {
-                                            return new InputImage(imagePath);
-                                        } catch (IOException e) {
-                                            LOGGER.warn(
-                                                    "Ignoring file {} due to an error: {}: {}",
-                                                    imagePath,
-                                                    e.getClass(),
-                                                    e);
-                                            return null;
-                                        }
-                                    })
-                            .filter(o -> o != null)
-                            .toList();
-            if (batch.isEmpty()) {
-                LOGGER.warn("There is no images to analyze (possibly due to errors above)");
-                return List.of();
-            }
-            LOGGER.info("Starting inference for batch of size {}", batch.size());
-            var output =
-                    model.newPredictor(translator).batchPredict(batch).stream()
-                            .filter(Optional::isPresent)
-                            .map(Optional::get)
-                            .toList();
-            LOGGER.info("Inference completed");
-            ANALYZED_IMAGES_COUNTER.add(output.size());
-            return output;
-        } catch (TranslateException e) {
-            throw new DopeException(e);
+        var batch =
+                Arrays.stream(images)
+                        .map(
+                                imagePath -> {
+                                    try {
+                                        return new InputImage(imagePath, inputResolution);
+                                    } catch (IOException e) {
+                                        LOGGER.warn(
+                                                "Ignoring file {} due to an error: {}: {}",
+                                                imagePath,
+                                                e.getClass(),
+                                                e);
+                                        return null;
+                                    }
+                                })
+                        .filter(o -> o != null)
+                        .toList();
+        if (batch.isEmpty()) {
+            LOGGER.warn("There is no images to analyze (possibly due to errors above)");
+            return List.of();
         }
+        return runInference(batch).stream()
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .toList();
+    }
+
+    /**
+     * Perform batch inference on already loaded images.
+     *
+     * @return inference results in the same order as input images. If results for some of the
+     *     images are not available (due to errors during decoding etc) they are empty.
+     */
+    public List<Optional<R>> analyzeBatch(List<InputImage> batch) throws DopeException {
+        startLazy();
+        ANALYZE_COUNTER.add(1);
+        IMAGES_COUNTER.add(batch.size());
+        if (batch.isEmpty()) {
+            LOGGER.warn("Received empty list of images, nothing to analyze");
+            return List.of();
+        }
+        return runInference(batch);
+    }
+
+    private List<Optional<R>> runInference(List<InputImage> batch) {
+        LOGGER.info("Starting inference for batch of size {}", batch.size());
+        List<Optional<R>> output;
+        // metrics and events of all the stages are labeled with the batch
+        try (var batchContext = BatchContext.start(batch.size())) {
+            output = backend.predict(batch, decoder);
+        }
+        LOGGER.info("Inference completed");
+        ANALYZED_IMAGES_COUNTER.add(output.stream().filter(Optional::isPresent).count());
+        return output;
     }
 
     /**
@@ -131,15 +278,7 @@ public class DeepObjectPoseEstimationService<R> extends LazyService {
      */
     @Override
     protected void onStart() {
-        LOGGER.info("Engine name: {}", Engine.getDefaultEngineName());
-        LOGGER.info("Engine: {}", Engine.getInstance());
-        LOGGER.info("GPU count: {}", Engine.getInstance().getGpuCount());
-        LOGGER.info("CUDA version: {}", CudaUtils.getCudaVersion());
-        try {
-            model = Utils.loadModel(networkUrl);
-        } catch (Exception e) {
-            throw new DopeException("Could not load model " + networkUrl, e);
-        }
+        backend.start();
     }
 
     /**
@@ -147,7 +286,8 @@ public class DeepObjectPoseEstimationService<R> extends LazyService {
      */
     @Override
     protected void onClose() {
-        LOGGER.info("Closing model {}", networkUrl);
-        model.close();
+        isReady = false;
+        backend.close();
+        decoder.close();
     }
 }
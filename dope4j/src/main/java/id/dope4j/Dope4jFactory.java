@@ -18,6 +18,7 @@
 package id.dope4j;
 
 import id.deeplearningutils.modality.cv.output.Cuboid3D;
+import id.dope4j.backends.InferenceBackend;
 import id.dope4j.decoders.ObjectsDecoder;
 import id.dope4j.io.OutputPoses;
 import id.matcv.camera.CameraInfo;
@@ -51,7 +52,69 @@ public class Dope4jFactory {
             Cuboid3D objectCuboidModel,
             double threshold,
             CameraInfo cameraInfo) {
+        return createPoseEstimationService(
+                networkUrl, objectCuboidModel, threshold, cameraInfo, ModelLoadingConfig.DEFAULT);
+    }
+
+    /**
+     * @param modelLoadingConfig settings of ONNX Runtime session used to run the network
+     */
+    public DeepObjectPoseEstimationService<OutputPoses> createPoseEstimationService(
+            String networkUrl,
+            Cuboid3D objectCuboidModel,
+            double threshold,
+            CameraInfo cameraInfo,
+            ModelLoadingConfig modelLoadingConfig) {
+        return new DeepObjectPoseEstimationService<>(
+                networkUrl,
+                new ObjectsDecoder(threshold, objectCuboidModel, cameraInfo),
+                modelLoadingConfig);
+    }
+
+    /**
+     * @param backend engine which is used to run the network
+     */
+    public DeepObjectPoseEstimationService<OutputPoses> createPoseEstimationService(
+            InferenceBackend backend,
+            Cuboid3D objectCuboidModel,
+            double threshold,
+            CameraInfo cameraInfo) {
+        return createPoseEstimationService(
+                backend, objectCuboidModel, threshold, cameraInfo, InputResolution.DEFAULT);
+    }
+
+    /**
+     * @param inputResolution resolution of the images which are sent to the network. Camera
+     *     intrinsics are scaled to it automatically.
+     */
+    public DeepObjectPoseEstimationService<OutputPoses> createPoseEstimationService(
+            InferenceBackend backend,
+            Cuboid3D objectCuboidModel,
+            double threshold,
+            CameraInfo cameraInfo,
+            InputResolution inputResolution) {
+        return createPoseEstimationService(
+                backend,
+                objectCuboidModel,
+                threshold,
+                cameraInfo,
+                inputResolution,
+                PnpConfig.DEFAULT);
+    }
+
+    /**
+     * @param pnpConfig PnP solver which is used to calculate poses of the detected objects
+     */
+    public DeepObjectPoseEstimationService<OutputPoses> createPoseEstimationService(
+            InferenceBackend backend,
+            Cuboid3D objectCuboidModel,
+            double threshold,
+            CameraInfo cameraInfo,
+            InputResolution inputResolution,
+            PnpConfig pnpConfig) {
         return new DeepObjectPoseEstimationService<>(
-                networkUrl, new ObjectsDecoder(threshold, objectCuboidModel, cameraInfo));
+                backend,
+                new ObjectsDecoder(threshold, objectCuboidModel, cameraInfo, pnpConfig, null),
+                inputResolution);
     }
 }
@@ -23,7 +23,10 @@ import id.dope4j.io.OutputTensor;
  * @author lambdaprime intid@protonmail.com
  */
 public interface DopeConstants {
+    /** Width of the input images by default (see {@link InputResolution}) */
     int IMAGE_WIDTH = 640;
+
+    /** Height of the input images by default (see {@link InputResolution}) */
     int IMAGE_HEIGHT = 480;
 
     /**
@@ -37,7 +40,13 @@ public interface DopeConstants {
     long AFFINITIES_COUNT = 16;
 
     long TENSOR_LENGTH = BELIEF_MAPS_COUNT + AFFINITIES_COUNT;
+
+    /**
+     * Shape of the network output for the default input resolution. For other resolutions see
+     * {@link InputResolution#tensorRows()}, {@link InputResolution#tensorCols()}
+     */
     int TENSOR_ROWS = 60;
+
     int TENSOR_COLS = 80;
     int[] BELIEF_SHAPE = {TENSOR_ROWS, TENSOR_COLS};
     double GAUSSIAN_SIGMA = 3.0;
@@ -58,6 +67,7 @@ public interface DopeConstants {
      */
     double DEFAULT_BLURRED_PEAK_THRESHOLD = 0.01;
 
+    /** How many times network output is smaller than its input */
     float SCALE_FACTOR = 8;
     int PEAKS_WEIGHTED_AVERAGE_WINDOW = 5;
     float OFFSET_DUE_TO_UPSAMPLING = 0.4395F;
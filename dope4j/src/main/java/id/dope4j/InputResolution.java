@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.xfunction.Preconditions;
+import java.util.regex.Pattern;
+
+/**
+ * Resolution of the images which are sent to DOPE network.
+ *
+ * <p>DOPE network is fully convolutional, so it can be run on images of different resolution.
+ * Lower resolution reduces inference time, higher resolution allows to detect smaller objects.
+ * Network output (Belief Maps and affinity fields) is {@link DopeConstants#SCALE_FACTOR} times
+ * smaller than the input image, so both dimensions should be multiples of it.
+ *
+ * <p>Model should be exported with dynamic height and width of the input (or with this exact
+ * resolution).
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public record InputResolution(int width, int height) {
+
+    private static final Pattern SEPARATOR = Pattern.compile("x");
+
+    /** Resolution which DOPE network was trained with */
+    public static final InputResolution DEFAULT =
+            new InputResolution(DopeConstants.IMAGE_WIDTH, DopeConstants.IMAGE_HEIGHT);
+
+    public InputResolution {
+        Preconditions.isTrue(
+                width > 0 && width % (int) DopeConstants.SCALE_FACTOR == 0,
+                "width should be positive multiple of " + DopeConstants.SCALE_FACTOR);
+        Preconditions.isTrue(
+                height > 0 && height % (int) DopeConstants.SCALE_FACTOR == 0,
+                "height should be positive multiple of " + DopeConstants.SCALE_FACTOR);
+    }
+
+    /**
+     * @param resolution resolution in format "widthxheight" (for example "320x240")
+     */
+    public static InputResolution parse(String resolution) {
+        var vals = SEPARATOR.split(resolution.trim());
+        Preconditions.equals(2, vals.length, "Could not parse resolution " + resolution);
+        return new InputResolution(Integer.parseInt(vals[0]), Integer.parseInt(vals[1]));
+    }
+
+    /** Number of rows in each of the Belief Maps and affinity fields of the network output */
+    public int tensorRows() {
+        return height / (int) DopeConstants.SCALE_FACTOR;
+    }
+
+    /** Number of columns in each of the Belief Maps and affinity fields of the network output */
+    public int tensorCols() {
+        return width / (int) DopeConstants.SCALE_FACTOR;
+    }
+
+    /** Shape of each of the Belief Maps (see {@link DopeConstants#BELIEF_SHAPE}) */
+    public int[] beliefShape() {
+        return new int[] {tensorRows(), tensorCols()};
+    }
+
+    /** Number of values in each of the Belief Maps */
+    public int beliefMapSize() {
+        return tensorRows() * tensorCols();
+    }
+
+    /** Number of values in the network output for single image */
+    public int tensorSize() {
+        return (int) DopeConstants.TENSOR_LENGTH * beliefMapSize();
+    }
+
+    /** Number of values in the network input for single RGB image */
+    public int inputSize() {
+        return 3 * width * height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+}
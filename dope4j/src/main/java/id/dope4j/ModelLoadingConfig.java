@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import ai.onnxruntime.OrtSession.SessionOptions.ExecutionMode;
+import ai.onnxruntime.OrtSession.SessionOptions.OptLevel;
+import id.xfunction.Preconditions;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Settings of ONNX Runtime session which is used to run DOPE network.
+ *
+ * <p>Empty values mean that ONNX Runtime defaults are used.
+ *
+ * @param intraOpThreads number of threads used to parallelize execution within nodes
+ * @param interOpThreads number of threads used to parallelize execution of the graph (across
+ *     nodes). Used only with {@link ExecutionMode#PARALLEL}.
+ * @param optimizationLevel graph optimization level
+ * @param executionMode whether operators in the graph are executed sequentially or in parallel
+ * @param memoryArena whether to use memory arena on CPU
+ * @param ortDevice ONNX Runtime execution provider to use ("TensorRT", "ROCM", "CoreML"). Empty
+ *     means CPU.
+ * @param optimizedModelFile path where optimized model is saved. If file does not exist, the
+ *     model is optimized with {@link #optimizationLevel()} and saved there, otherwise it is
+ *     loaded from it without optimizing it again, which reduces startup time. Graph optimizations
+ *     depend on the hardware so this file should not be shared between different hosts. Only
+ *     models which are stored locally can be optimized this way.
+ * @author lambdaprime intid@protonmail.com
+ */
+public record ModelLoadingConfig(
+        Optional<Integer> intraOpThreads,
+        Optional<Integer> interOpThreads,
+        Optional<OptLevel> optimizationLevel,
+        Optional<ExecutionMode> executionMode,
+        Optional<Boolean> memoryArena,
+        Optional<String> ortDevice,
+        Optional<Path> optimizedModelFile) {
+
+    /** Use ONNX Runtime defaults with TensorRT execution provider */
+    public static final ModelLoadingConfig DEFAULT =
+            new ModelLoadingConfig(
+                    Optional.empty(),
+                    Optional.empty(),
+                    Optional.empty(),
+                    Optional.empty(),
+                    Optional.empty(),
+                    Optional.of("TensorRT"),
+                    Optional.empty());
+
+    public ModelLoadingConfig {
+        Preconditions.isTrue(intraOpThreads.orElse(1) > 0, "intraOpThreads should be positive");
+        Preconditions.isTrue(interOpThreads.orElse(1) > 0, "interOpThreads should be positive");
+    }
+}
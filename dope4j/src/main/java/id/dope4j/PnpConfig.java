@@ -0,0 +1,34 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import org.opencv.calib3d.Calib3d;
+
+/**
+ * Settings of the Perspective-n-Point solver which calculates poses of the detected objects.
+ *
+ * @param method PnP method
+ * @param refine refine poses found by {@link #method} with Levenberg-Marquardt optimization (see
+ *     {@link Calib3d#solvePnPRefineLM}). Ignored for {@link PnpMethod#ITERATIVE} which already
+ *     does it.
+ * @author lambdaprime intid@protonmail.com
+ */
+public record PnpConfig(PnpMethod method, boolean refine) {
+
+    public static final PnpConfig DEFAULT = new PnpConfig(PnpMethod.ITERATIVE, false);
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import org.opencv.calib3d.Calib3d;
+
+/**
+ * Perspective-n-Point method which is used to calculate pose of the object from the vertices of
+ * its detected cuboid (see <a
+ * href="https://docs.opencv.org/4.x/d5/d1f/calib3d_solvePnP.html">Perspective-n-Point (PnP) pose
+ * computation</a>).
+ *
+ * <p>When cuboid has fewer vertices than the method requires, {@link #P3P} is used instead.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public enum PnpMethod {
+    /**
+     * Levenberg-Marquardt optimization, used by default. Requires at least 6 points, cuboids with
+     * 4 or 5 vertices are solved with {@link #P3P}.
+     */
+    ITERATIVE(Calib3d.SOLVEPNP_ITERATIVE, 6, Integer.MAX_VALUE),
+
+    /** Efficient PnP, non-iterative and fast for any number of points */
+    EPNP(Calib3d.SOLVEPNP_EPNP, 4, Integer.MAX_VALUE),
+
+    /** Non-iterative, globally optimal solver */
+    SQPNP(Calib3d.SOLVEPNP_SQPNP, 4, Integer.MAX_VALUE),
+
+    /** Uses exactly 4 points, the rest of the vertices are ignored */
+    P3P(Calib3d.SOLVEPNP_P3P, 4, 4),
+
+    /** Algebraic P3P, uses exactly 4 points, the rest of the vertices are ignored */
+    AP3P(Calib3d.SOLVEPNP_AP3P, 4, 4),
+
+    /**
+     * EPnP followed by Gauss-Newton refinement, implemented in Java (see {@link
+     * id.dope4j.decoders.EpnpSolver}). Avoids copying points to OpenCV and back. Requires at least
+     * 6 points, cuboids with 4 or 5 vertices are solved with {@link #P3P}. Camera distortion is
+     * not supported, when camera has one {@link #ITERATIVE} is used instead.
+     */
+    JAVA_EPNP(-1, 6, Integer.MAX_VALUE);
+
+    private final int openCvFlag;
+    private final int minPointsCount;
+    private final int maxPointsCount;
+
+    PnpMethod(int openCvFlag, int minPointsCount, int maxPointsCount) {
+        this.openCvFlag = openCvFlag;
+        this.minPointsCount = minPointsCount;
+        this.maxPointsCount = maxPointsCount;
+    }
+
+    /** Method flag as defined in {@link Calib3d} or -1 for methods implemented in Java */
+    public int getOpenCvFlag() {
+        return openCvFlag;
+    }
+
+    public int getMinPointsCount() {
+        return minPointsCount;
+    }
+
+    public int getMaxPointsCount() {
+        return maxPointsCount;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j;
+
+import id.xfunction.Preconditions;
+import java.util.List;
+
+/**
+ * Warmup which is performed by {@link DeepObjectPoseEstimationService#start(WarmupConfig)}.
+ *
+ * <p>Warmup runs inference on synthetic images so that all one-time costs (model load, session
+ * optimization, JIT compilation of the decoder etc) are paid before the first real request.
+ *
+ * @param iterations number of synthetic inferences to run for each of the batch sizes
+ * @param batchSizes batch sizes to warm up. Some engines optimize the model for each new input
+ *     shape so it is recommended to include all batch sizes which are expected to be used.
+ * @author lambdaprime intid@protonmail.com
+ */
+public record WarmupConfig(int iterations, List<Integer> batchSizes) {
+
+    /** Only load the model without running any inference */
+    public static final WarmupConfig NONE = new WarmupConfig(0, List.of());
+
+    public WarmupConfig {
+        Preconditions.isTrue(iterations >= 0, "iterations should not be negative");
+        Preconditions.isTrue(
+                batchSizes.stream().allMatch(size -> size > 0), "batchSizes should be positive");
+    }
+}
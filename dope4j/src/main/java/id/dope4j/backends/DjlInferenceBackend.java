@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.backends;
+
+import ai.djl.Model;
+import ai.djl.engine.Engine;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.translate.TranslateException;
+import ai.djl.util.cuda.CudaUtils;
+import id.dope4j.ModelLoadingConfig;
+import id.dope4j.decoders.DopeDecoder;
+import id.dope4j.exceptions.DopeException;
+import id.dope4j.impl.DopeTranslator;
+import id.dope4j.impl.Utils;
+import id.dope4j.io.InputImage;
+import java.util.List;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs DOPE network with <a href="https://djl.ai/">Deep Java Library</a> and ONNX Runtime engine.
+ *
+ * <p>Besides fp32 models it supports models with reduced precision: INT8 dynamically quantized
+ * models and fp16 models. Input and output tensors are converted to the data types which model
+ * declares.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class DjlInferenceBackend implements InferenceBackend {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DjlInferenceBackend.class);
+    private final String networkUrl;
+    private final ModelLoadingConfig modelLoadingConfig;
+    private Model model;
+    private DataType inputDataType;
+    private DopeTranslator.Metrics translatorMetrics;
+
+    /**
+     * @param modelLoadingConfig settings of ONNX Runtime session used to run the network
+     */
+    public DjlInferenceBackend(String networkUrl, ModelLoadingConfig modelLoadingConfig) {
+        this.networkUrl = networkUrl;
+        this.modelLoadingConfig = modelLoadingConfig;
+    }
+
+    @Override
+    public void start() {
+        LOGGER.info("Engine name: {}", Engine.getDefaultEngineName());
+        LOGGER.info("Engine: {}", Engine.getInstance());
+        LOGGER.info("GPU count: {}", Engine.getInstance().getGpuCount());
+        LOGGER.info("CUDA version: {}", CudaUtils.getCudaVersion());
+        try {
+            model = Utils.loadModel(networkUrl, modelLoadingConfig);
+            inputDataType = Utils.readInputDataType(networkUrl);
+            LOGGER.info("Model input data type: {}", inputDataType);
+            translatorMetrics = new DopeTranslator.Metrics();
+        } catch (Exception e) {
+            throw new DopeException("Could not load model " + networkUrl, e);
+        }
+    }
+
+    @Override
+    public <R> List<Optional<R>> predict(List<InputImage> batch, DopeDecoder<R> decoder) {
+        var translator = new DopeTranslator<>(decoder, inputDataType, translatorMetrics);
+        try (var predictor = model.newPredictor(translator)) {
+            return predictor.batchPredict(batch);
+        } catch (TranslateException e) {
+            throw new DopeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info("Closing model {}", networkUrl);
+        model.close();
+    }
+}
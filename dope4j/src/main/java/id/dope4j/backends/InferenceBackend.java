@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.backends;
+
+import id.dope4j.DeepObjectPoseEstimationService;
+import id.dope4j.decoders.DopeDecoder;
+import id.dope4j.exceptions.DopeException;
+import id.dope4j.io.InputImage;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Engine which runs DOPE network for {@link DeepObjectPoseEstimationService}.
+ *
+ * <p>It separates the service from the engine which is used to produce network output, which allows
+ * to replace the engine (for example to run the service without the model, see {@link
+ * ReplayInferenceBackend}).
+ *
+ * <p>Must be thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public interface InferenceBackend extends AutoCloseable {
+
+    /** Called once before any inference, this is where models are loaded. */
+    void start() throws DopeException;
+
+    /**
+     * Produces network output for the batch of images and decodes it.
+     *
+     * @return decoded results in the same order as input images
+     */
+    <R> List<Optional<R>> predict(List<InputImage> batch, DopeDecoder<R> decoder)
+            throws DopeException;
+
+    /**
+     * Runs inference on the batch of synthetic images to warm up the backend. Backends which run
+     * several models should warm up all of them.
+     */
+    default <R> void warmup(List<InputImage> batch, DopeDecoder<R> decoder) throws DopeException {
+        predict(batch, decoder);
+    }
+
+    /** Release all resources allocated by the backend */
+    @Override
+    void close();
+}
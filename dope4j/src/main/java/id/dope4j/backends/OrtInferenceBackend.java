@@ -0,0 +1,316 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.backends;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxJavaType;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.OrtSession.SessionOptions.OptLevel;
+import ai.onnxruntime.TensorInfo;
+import id.dope4j.DopeConstants;
+import id.dope4j.InputResolution;
+import id.dope4j.ModelLoadingConfig;
+import id.dope4j.decoders.DopeDecoder;
+import id.dope4j.exceptions.DopeException;
+import id.dope4j.impl.BatchContext;
+import id.dope4j.impl.LatencyMetrics;
+import id.dope4j.impl.MemoryMetrics;
+import id.dope4j.impl.Utils;
+import id.dope4j.impl.jfr.InferenceEvent;
+import id.dope4j.impl.jfr.PreprocessEvent;
+import id.dope4j.io.InputImage;
+import id.xfunction.Preconditions;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs DOPE network with ONNX Runtime directly, without DJL.
+ *
+ * <p>Input and output tensors are bound to direct buffers which are allocated once for {@link
+ * #maxBatchSize} images of the given {@link InputResolution} and then reused between the calls.
+ * Input images are normalized straight into the input buffer and the network output is decoded
+ * straight from the output buffer (see {@link DopeDecoder#decode(InputImage, FloatBuffer)}), so
+ * there are no per batch native allocations for the tensors. Batches larger than {@link
+ * #maxBatchSize} are split.
+ *
+ * <p>Each of the threads which run inference concurrently uses its own set of buffers.
+ *
+ * <p>Thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class OrtInferenceBackend implements InferenceBackend {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrtInferenceBackend.class);
+    private final Meter METER =
+            GlobalOpenTelemetry.getMeter(OrtInferenceBackend.class.getSimpleName());
+    private final LongHistogram PREPROCESS_TIME_METER =
+            LatencyMetrics.createHistogram(
+                    METER, "preprocess", "Image conversion to the network input tensor time");
+    private final LongHistogram INFERENCE_TIME_METER =
+            LatencyMetrics.createHistogram(
+                    METER, "inference", "Network inference time of the whole batch");
+
+    /**
+     * Input and output buffers together with the tensors which are bound to them. Tensors are
+     * created for each batch size on demand.
+     */
+    private class IoBuffers implements AutoCloseable {
+        final FloatBuffer input = allocate(maxBatchSize * inputSize);
+        final FloatBuffer output = allocate(maxBatchSize * outputSize);
+        final OnnxTensor[] inputTensors = new OnnxTensor[maxBatchSize + 1];
+        final OnnxTensor[] outputTensors = new OnnxTensor[maxBatchSize + 1];
+        final byte[] pixels = new byte[inputSize];
+        final float[] channels = new float[inputSize];
+
+        OnnxTensor inputTensor(int batchSize) throws OrtException {
+            if (inputTensors[batchSize] == null)
+                inputTensors[batchSize] =
+                        OnnxTensor.createTensor(
+                                environment,
+                                input.slice(0, batchSize * inputSize),
+                                new long[] {
+                                    batchSize, 3, resolution.height(), resolution.width()
+                                });
+            return inputTensors[batchSize];
+        }
+
+        OnnxTensor outputTensor(int batchSize) throws OrtException {
+            if (outputTensors[batchSize] == null)
+                outputTensors[batchSize] =
+                        OnnxTensor.createTensor(
+                                environment,
+                                output.slice(0, batchSize * outputSize),
+                                new long[] {
+                                    batchSize,
+                                    DopeConstants.TENSOR_LENGTH,
+                                    resolution.tensorRows(),
+                                    resolution.tensorCols()
+                                });
+            return outputTensors[batchSize];
+        }
+
+        @Override
+        public void close() {
+            for (int i = 0; i <= maxBatchSize; i++) {
+                if (inputTensors[i] != null) inputTensors[i].close();
+                if (outputTensors[i] != null) outputTensors[i].close();
+            }
+        }
+    }
+
+    private final String networkUrl;
+    private final ModelLoadingConfig modelLoadingConfig;
+    private final int maxBatchSize;
+    private final InputResolution resolution;
+    private final int imageSize;
+    private final int inputSize;
+    private final int outputSize;
+    private final ConcurrentLinkedQueue<IoBuffers> allBuffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<IoBuffers> buffers =
+            ThreadLocal.withInitial(
+                    () -> {
+                        var b = new IoBuffers();
+                        allBuffers.add(b);
+                        return b;
+                    });
+    private OrtEnvironment environment;
+    private OrtSession session;
+    private String inputName;
+    private String outputName;
+
+    /**
+     * @param modelLoadingConfig settings of ONNX Runtime session used to run the network
+     * @param maxBatchSize maximum number of images which are sent to the network at once
+     */
+    public OrtInferenceBackend(
+            String networkUrl, ModelLoadingConfig modelLoadingConfig, int maxBatchSize) {
+        this(networkUrl, modelLoadingConfig, maxBatchSize, InputResolution.DEFAULT);
+    }
+
+    /**
+     * @param resolution resolution of all input images, buffers are allocated for it
+     */
+    public OrtInferenceBackend(
+            String networkUrl,
+            ModelLoadingConfig modelLoadingConfig,
+            int maxBatchSize,
+            InputResolution resolution) {
+        Preconditions.isTrue(maxBatchSize > 0, "maxBatchSize should be positive");
+        this.networkUrl = networkUrl;
+        this.modelLoadingConfig = modelLoadingConfig;
+        this.maxBatchSize = maxBatchSize;
+        this.resolution = resolution;
+        imageSize = resolution.width() * resolution.height();
+        inputSize = resolution.inputSize();
+        outputSize = resolution.tensorSize();
+    }
+
+    @Override
+    public void start() {
+        LOGGER.info("Loading model {}", networkUrl);
+        LOGGER.info("Model loading configuration: {}", modelLoadingConfig);
+        environment = OrtEnvironment.getEnvironment();
+        try (var options = Utils.newSessionOptions(modelLoadingConfig)) {
+            var modelFile = Utils.findLocalModelFile(networkUrl);
+            var optimizedModelFile = modelLoadingConfig.optimizedModelFile();
+            if (optimizedModelFile.isPresent()) {
+                if (optimizedModelFile.get().toFile().exists()) {
+                    LOGGER.info("Using previously optimized model {}", optimizedModelFile.get());
+                    modelFile = optimizedModelFile.get();
+                    options.setOptimizationLevel(OptLevel.NO_OPT);
+                } else {
+                    options.setOptimizedModelFilePath(
+                            optimizedModelFile.get().toAbsolutePath().toString());
+                }
+            }
+            session = environment.createSession(modelFile.toAbsolutePath().toString(), options);
+            inputName = session.getInputNames().iterator().next();
+            outputName = session.getOutputNames().iterator().next();
+            LOGGER.info("Model input {}, output {}", inputName, outputName);
+            checkFloatTensor(session.getInputInfo().get(inputName));
+            checkFloatTensor(session.getOutputInfo().get(outputName));
+        } catch (Exception e) {
+            throw new DopeException("Could not load model " + networkUrl, e);
+        }
+    }
+
+    /**
+     * Buffers are bound to the tensors directly so their data type should match the model. Models
+     * with reduced precision (fp16) should keep fp32 inputs and outputs to be used with this
+     * backend.
+     */
+    private void checkFloatTensor(NodeInfo node) {
+        if (node.getInfo() instanceof TensorInfo info && info.type == OnnxJavaType.FLOAT) return;
+        throw new DopeException(
+                "Only models with fp32 input and output are supported, found "
+                        + node.getName()
+                        + " of type "
+                        + node.getInfo());
+    }
+
+    @Override
+    public <R> List<Optional<R>> predict(List<InputImage> batch, DopeDecoder<R> decoder) {
+        var buffers = this.buffers.get();
+        var output = new ArrayList<Optional<R>>(batch.size());
+        for (int from = 0; from < batch.size(); from += maxBatchSize) {
+            var subBatch = batch.subList(from, Math.min(batch.size(), from + maxBatchSize));
+            try (var batchContext = BatchContext.start(subBatch.size())) {
+                runSubBatch(subBatch, buffers, decoder, output);
+            }
+        }
+        return output;
+    }
+
+    /** Runs the batch which fits into the buffers */
+    private <R> void runSubBatch(
+            List<InputImage> subBatch,
+            IoBuffers buffers,
+            DopeDecoder<R> decoder,
+            List<Optional<R>> output) {
+        for (int i = 0; i < subBatch.size(); i++) {
+            var startAt = System.nanoTime();
+            var allocatedAt = MemoryMetrics.allocatedBytes();
+            var event = new PreprocessEvent();
+            event.begin();
+            writeInput(subBatch.get(i), buffers, i * inputSize);
+            LatencyMetrics.record(PREPROCESS_TIME_METER, startAt);
+            MemoryMetrics.record("preprocess", allocatedAt);
+            event.commit(subBatch.get(i));
+        }
+        var startAt = System.nanoTime();
+        var event = new InferenceEvent();
+        event.begin();
+        try (var result =
+                session.run(
+                        Map.of(inputName, buffers.inputTensor(subBatch.size())),
+                        Map.of(outputName, buffers.outputTensor(subBatch.size())))) {
+            LatencyMetrics.record(INFERENCE_TIME_METER, startAt);
+            event.commit(OrtInferenceBackend.class, subBatch.size());
+            for (int i = 0; i < subBatch.size(); i++) {
+                output.add(
+                        decoder.decode(
+                                subBatch.get(i), buffers.output.slice(i * outputSize, outputSize)));
+            }
+        } catch (OrtException e) {
+            throw new DopeException(e);
+        }
+    }
+
+    /**
+     * Converts image to CHW RGB tensor with values normalized to [-1, 1], same as {@link
+     * id.dope4j.impl.DopeTranslator} does.
+     */
+    private void writeInput(InputImage image, IoBuffers buffers, int offset) {
+        if (!(image.image().getWrappedImage() instanceof Mat mat))
+            throw new DopeException("Only OpenCV images are supported");
+        Preconditions.isTrue(
+                mat.type() == CvType.CV_8UC3
+                        && mat.cols() == resolution.width()
+                        && mat.rows() == resolution.height(),
+                "Unexpected image format");
+        var pixels = buffers.pixels;
+        var channels = buffers.channels;
+        mat.get(0, 0, pixels);
+        // Mat stores pixels in BGR order
+        for (int i = 0, p = 0; i < imageSize; i++, p += 3) {
+            channels[i] = normalize(pixels[p + 2]);
+            channels[imageSize + i] = normalize(pixels[p + 1]);
+            channels[2 * imageSize + i] = normalize(pixels[p]);
+        }
+        buffers.input.put(offset, channels);
+    }
+
+    private static float normalize(byte value) {
+        return ((value & 0xff) / 255F - .5F) / .5F;
+    }
+
+    private static FloatBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info("Closing model {}", networkUrl);
+        allBuffers.forEach(IoBuffers::close);
+        allBuffers.clear();
+        try {
+            session.close();
+        } catch (OrtException e) {
+            throw new DopeException(e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.backends;
+
+import ai.djl.engine.Engine;
+import ai.djl.ndarray.NDArray;
+import id.dope4j.decoders.DopeDecoder;
+import id.dope4j.exceptions.DopeException;
+import id.dope4j.impl.CacheFileMapper;
+import id.dope4j.impl.LatencyMetrics;
+import id.dope4j.impl.jfr.InferenceEvent;
+import id.dope4j.io.InputImage;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instead of running DOPE network it replays network output tensors which were stored in the cache
+ * before (see "-cache" option of <b>dope4j-app</b>).
+ *
+ * <p>It allows to run, profile and load test the service on hosts without the model or GPU.
+ *
+ * <p>Output tensor for the image is looked up in the cache by image path. When image has no path,
+ * or its tensor is not found in the cache, all cached tensors are replayed one after another.
+ *
+ * <p>To keep timings realistic each batch is delayed for the configured synthetic latency, which
+ * is expected to match inference time of the real model. Tensors are read from the disk once and
+ * then kept in memory. Synthetic latency is reported as inference time and reading of the tensors
+ * (from the disk or memory) as cache read time.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class ReplayInferenceBackend implements InferenceBackend {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayInferenceBackend.class);
+    private final Meter METER =
+            GlobalOpenTelemetry.getMeter(ReplayInferenceBackend.class.getSimpleName());
+    private final LongHistogram INFERENCE_TIME_METER =
+            LatencyMetrics.createHistogram(
+                    METER, "inference", "Network inference time of the whole batch");
+    private final LongHistogram CACHE_READ_TIME_METER =
+            LatencyMetrics.createHistogram(
+                    METER, "cache_read", "Output tensor reading time from the cache");
+    private final CacheFileMapper cacheFileMapper;
+    private final Duration batchLatency;
+    private final Duration imageLatency;
+    private final Map<Path, byte[]> tensors = new ConcurrentHashMap<>();
+    private final AtomicInteger nextTensor = new AtomicInteger();
+    private List<Path> allTensorFiles = List.of();
+
+    /**
+     * @param batchLatency synthetic latency added to each batch
+     * @param imageLatency synthetic latency added for each image in the batch
+     */
+    public ReplayInferenceBackend(
+            CacheFileMapper cacheFileMapper, Duration batchLatency, Duration imageLatency) {
+        this.cacheFileMapper = cacheFileMapper;
+        this.batchLatency = batchLatency;
+        this.imageLatency = imageLatency;
+    }
+
+    @Override
+    public void start() {
+        var cacheHome = cacheFileMapper.getCacheHome();
+        try (var files = Files.walk(cacheHome)) {
+            allTensorFiles = files.filter(f -> f.toString().endsWith(".tensor")).sorted().toList();
+        } catch (IOException e) {
+            throw new DopeException("Could not read cache " + cacheHome, e);
+        }
+        if (allTensorFiles.isEmpty())
+            throw new DopeException("No tensors found in the cache " + cacheHome);
+        LOGGER.info("Replaying {} tensors from {}", allTensorFiles.size(), cacheHome);
+    }
+
+    @Override
+    public <R> List<Optional<R>> predict(List<InputImage> batch, DopeDecoder<R> decoder) {
+        var startAt = System.nanoTime();
+        var event = new InferenceEvent();
+        event.begin();
+        try {
+            Thread.sleep(batchLatency.plus(imageLatency.multipliedBy(batch.size())).toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DopeException("Inference was interrupted", e);
+        }
+        LatencyMetrics.record(INFERENCE_TIME_METER, startAt);
+        event.commit(ReplayInferenceBackend.class, batch.size());
+        var output = new ArrayList<Optional<R>>(batch.size());
+        try (var manager = Engine.getInstance().newBaseManager()) {
+            for (var image : batch) {
+                // free the tensor right after the image is decoded
+                try (var imageManager = manager.newSubManager()) {
+                    var readStartAt = System.nanoTime();
+                    var data = tensors.computeIfAbsent(findTensorFile(image), this::readTensor);
+                    var tensor = NDArray.decode(imageManager, data);
+                    LatencyMetrics.record(CACHE_READ_TIME_METER, readStartAt);
+                    output.add(decoder.decode(image, tensor));
+                }
+            }
+        }
+        return output;
+    }
+
+    private Path findTensorFile(InputImage image) {
+        return image.path()
+                .map(cacheFileMapper::getTensorFile)
+                .filter(Files::exists)
+                .orElseGet(
+                        () ->
+                                allTensorFiles.get(
+                                        Math.floorMod(
+                                                nextTensor.getAndIncrement(),
+                                                allTensorFiles.size())));
+    }
+
+    private byte[] readTensor(Path tensorFile) {
+        try {
+            return Files.readAllBytes(tensorFile);
+        } catch (IOException e) {
+            throw new DopeException("Could not read tensor " + tensorFile, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        tensors.clear();
+    }
+}
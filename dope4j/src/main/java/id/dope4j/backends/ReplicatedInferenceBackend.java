@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.backends;
+
+import id.dope4j.decoders.DopeDecoder;
+import id.dope4j.exceptions.DopeException;
+import id.dope4j.impl.BatchContext;
+import id.dope4j.io.InputImage;
+import id.xfunction.Preconditions;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hosts several replicas of the model and dispatches each batch to the least loaded of them.
+ *
+ * <p>Single model session does not scale well across many cores: increasing number of its
+ * intra-op threads gives diminishing returns. Instead, the cores can be split between several
+ * replicas where each replica runs with its own bounded number of intra-op threads (see {@link
+ * id.dope4j.ModelLoadingConfig#intraOpThreads()}) and concurrent batches are processed by
+ * different replicas.
+ *
+ * <p>Load of the replica is the number of images which it is processing at the moment. When
+ * several replicas have the same load, they are selected in round-robin order.
+ *
+ * <p>Each replica is a separate {@link InferenceBackend}, which means each of them holds its own
+ * copy of the model weights unless the backend shares them (like {@link ReplayInferenceBackend}
+ * when all replicas are given the same instance of it).
+ *
+ * <p>Thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class ReplicatedInferenceBackend implements InferenceBackend {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicatedInferenceBackend.class);
+    private static final AttributeKey<Long> REPLICA_KEY = AttributeKey.longKey("replica");
+    private final Meter METER =
+            GlobalOpenTelemetry.getMeter(ReplicatedInferenceBackend.class.getSimpleName());
+    private final LongCounter BATCHES_TOTAL =
+            METER.counterBuilder("replica_batches_total")
+                    .setDescription("Total number of batches processed by the replica")
+                    .build();
+    private final LongCounter BUSY_TIME_TOTAL =
+            METER.counterBuilder("replica_busy_time_ms_total")
+                    .setDescription(
+                            "Total time the replica spent processing batches in millis. Its rate"
+                                    + " shows the replica utilization.")
+                    .build();
+    private final LongHistogram QUEUE_SIZE =
+            METER.histogramBuilder("replica_queue_size")
+                    .setDescription(
+                            "Number of images which replica is processing at the moment when new"
+                                    + " batch is dispatched to it (including the new batch)")
+                    .ofLongs()
+                    .build();
+
+    private final List<InferenceBackend> replicas;
+    private final List<Attributes> attributes;
+    private final int[] load;
+    private int next;
+
+    /**
+     * @param replicaCount number of replicas
+     * @param replicaFactory creates replica with the given index
+     */
+    public ReplicatedInferenceBackend(
+            int replicaCount, IntFunction<InferenceBackend> replicaFactory) {
+        Preconditions.isTrue(replicaCount > 0, "replicaCount should be positive");
+        replicas = IntStream.range(0, replicaCount).mapToObj(replicaFactory).toList();
+        attributes =
+                IntStream.range(0, replicaCount)
+                        .mapToObj(i -> Attributes.of(REPLICA_KEY, (long) i))
+                        .toList();
+        load = new int[replicaCount];
+    }
+
+    @Override
+    public void start() throws DopeException {
+        for (int i = 0; i < replicas.size(); i++) {
+            LOGGER.info("Starting replica {}", i);
+            replicas.get(i).start();
+        }
+    }
+
+    @Override
+    public <R> List<Optional<R>> predict(List<InputImage> batch, DopeDecoder<R> decoder)
+            throws DopeException {
+        var replica = acquire(batch.size());
+        var startAt = Instant.now();
+        try {
+            return replicas.get(replica).predict(batch, decoder);
+        } finally {
+            release(replica, batch.size());
+            // replicas which are warmed up through predict should not be counted as busy
+            if (!BatchContext.isWarmup()) {
+                BATCHES_TOTAL.add(1, attributes.get(replica));
+                BUSY_TIME_TOTAL.add(
+                        Duration.between(startAt, Instant.now()).toMillis(),
+                        attributes.get(replica));
+            }
+        }
+    }
+
+    /** Runs the batch on every replica, so that all of them are warmed up */
+    @Override
+    public <R> void warmup(List<InputImage> batch, DopeDecoder<R> decoder) throws DopeException {
+        for (var replica : replicas) replica.warmup(batch, decoder);
+    }
+
+    /** Selects the least loaded replica and adds the batch to its load */
+    private synchronized int acquire(int batchSize) {
+        var replica = next;
+        for (int i = 1; i < load.length; i++) {
+            var candidate = (next + i) % load.length;
+            if (load[candidate] < load[replica]) replica = candidate;
+        }
+        next = (replica + 1) % load.length;
+        load[replica] += batchSize;
+        if (!BatchContext.isWarmup()) QUEUE_SIZE.record(load[replica], attributes.get(replica));
+        return replica;
+    }
+
+    private synchronized void release(int replica, int batchSize) {
+        load[replica] -= batchSize;
+    }
+
+    @Override
+    public void close() {
+        replicas.forEach(InferenceBackend::close);
+    }
+}
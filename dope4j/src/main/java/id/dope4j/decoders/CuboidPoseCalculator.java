@@ -19,22 +19,29 @@ package id.dope4j.decoders;
 
 import id.deeplearningutils.modality.cv.output.Cuboid2D;
 import id.deeplearningutils.modality.cv.output.Cuboid3D;
+import id.deeplearningutils.modality.cv.output.Point2D;
+import id.deeplearningutils.modality.cv.output.Point3D;
 import id.deeplearningutils.modality.cv.output.Pose;
+import id.dope4j.DopeConstants;
+import id.dope4j.InputResolution;
+import id.dope4j.PnpConfig;
+import id.dope4j.PnpMethod;
+import id.dope4j.impl.BatchContext;
 import id.dope4j.impl.DjlOpenCvConverters;
-import id.matcv.MatConverters;
+import id.dope4j.impl.LatencyMetrics;
+import id.dope4j.impl.MatTracker;
+import id.mathcalc.Vector3d;
 import id.matcv.MatUtils;
 import id.matcv.camera.CameraInfo;
-import id.xfunction.Preconditions;
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.metrics.LongCounter;
 import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.api.metrics.Meter;
-import java.time.Duration;
-import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.IntStream;
 import org.opencv.calib3d.Calib3d;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfDouble;
@@ -46,52 +53,110 @@ import org.slf4j.LoggerFactory;
 /**
  * Calculates pose of the cuboids and adds them to the output results.
  *
+ * <p>Calculator keeps its Mats between the cuboids, they are released when it is closed.
+ *
  * @author lambdaprime intid@protonmail.com
  */
-public class CuboidPoseCalculator {
+public class CuboidPoseCalculator implements AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(CuboidPoseCalculator.class);
-    private static final Map<Integer, String> PNP_METHODS =
-            Map.of(
-                    Calib3d.SOLVEPNP_P3P, "SOLVEPNP_P3P",
-                    Calib3d.SOLVEPNP_ITERATIVE, "SOLVEPNP_ITERATIVE");
-    private static final MatConverters matConverters = new MatConverters();
     private static final DjlOpenCvConverters converters = new DjlOpenCvConverters();
     private static final MatUtils utils = new MatUtils();
+    private static final MatTracker tracker = MatTracker.getInstance();
     private final Meter METER =
             GlobalOpenTelemetry.getMeter(CuboidPoseCalculator.class.getSimpleName());
-    private final LongCounter SOLVEPNP_P3P_TOTAL =
-            METER.counterBuilder("solvepnp_p3p")
-                    .setDescription("SOLVEPNP_P3P algorithm used for pose estimation")
-                    .build();
-    private final LongCounter SOLVEPNP_ITERATIVE_TOTAL =
-            METER.counterBuilder("solvepnp_iterative")
-                    .setDescription("SOLVEPNP_ITERATIVE_TOTAL algorithm used for pose estimation")
-                    .build();
+    private final Map<PnpMethod, LongCounter> SOLVEPNP_TOTAL = createPnpCounters();
     private final LongHistogram POSE_CALC_TIME_METER =
-            METER.histogramBuilder("pose_calc_time_ms")
-                    .setDescription("Pose calculation time in millis")
-                    .ofLongs()
-                    .build();
+            LatencyMetrics.createHistogram(METER, "pose_calc", "Pose calculation time");
+    private static final int MAX_POINTS_COUNT = Cuboid2D.VERTEX_COUNT + 1;
     private final Cuboid3D cuboidModel3d;
     private final Mat cameraMat;
     private final MatOfDouble distortionMat;
     private final MatOfPoint3f pointsModel3d;
     private float scale;
+    private final PnpConfig pnpConfig;
+    private final float[] modelPointsData = new float[3 * MAX_POINTS_COUNT];
+    private EpnpSolver javaSolver;
     private final List<Pose> poses = new ArrayList<>();
     private final List<Cuboid2D> objects = new ArrayList<>();
 
+    // buffers which are reused between the cuboids
+    private final float[] points2dData = new float[2 * MAX_POINTS_COUNT];
+    private final float[] points3dData = new float[3 * MAX_POINTS_COUNT];
+    private final float[] projectedData = new float[2 * MAX_POINTS_COUNT];
+    private final double[] tvecData = new double[3];
+    private final double[] rvecData = new double[3];
+    private final MatOfPoint2f points2d = tracker.track(new MatOfPoint2f());
+    private final MatOfPoint3f points3d = tracker.track(new MatOfPoint3f());
+    private final MatOfPoint2f projected = tracker.track(new MatOfPoint2f());
+    private final Mat rvec = tracker.track(new Mat());
+    private final Mat tvec = tracker.track(new Mat());
+
     /**
      * @param scale allows to scale all input cuboids if needed, before performing calculations
      */
     public CuboidPoseCalculator(Cuboid3D cuboidModel3d, CameraInfo cameraInfo, float scale) {
+        this(cuboidModel3d, cameraInfo, scale, PnpConfig.DEFAULT);
+    }
+
+    private CuboidPoseCalculator(
+            Cuboid3D cuboidModel3d, CameraInfo cameraInfo, float scale, PnpConfig pnpConfig) {
         this.cuboidModel3d = cuboidModel3d;
         this.scale = scale;
 
-        cameraMat = cameraInfo.cameraMatrix().toMat64F();
+        cameraMat = tracker.track(cameraInfo.cameraMatrix().toMat64F());
         utils.debugMat("cameraMat", cameraMat);
-        distortionMat = cameraInfo.distortionCoefficients().toMatOfDouble();
+        distortionMat = tracker.track(cameraInfo.distortionCoefficients().toMatOfDouble());
         utils.debugMat("distortionMat", distortionMat);
-        pointsModel3d = converters.copyToMatOfPoint3f(cuboidModel3d);
+        pointsModel3d = tracker.track(converters.copyToMatOfPoint3f(cuboidModel3d));
+        pointsModel3d.get(0, 0, modelPointsData);
+        if (pnpConfig.method() == PnpMethod.JAVA_EPNP && hasDistortion()) {
+            LOGGER.warn(
+                    "{} does not support camera distortion, using {} instead",
+                    PnpMethod.JAVA_EPNP,
+                    PnpMethod.ITERATIVE);
+            pnpConfig = new PnpConfig(PnpMethod.ITERATIVE, pnpConfig.refine());
+        }
+        this.pnpConfig = pnpConfig;
+    }
+
+    /**
+     * Calculator for the cuboids detected in the network output for the image of the given
+     * resolution.
+     *
+     * <p>Cuboids are scaled from the network output to the input image resolution. Camera
+     * intrinsics are scaled from the resolution of the camera images ({@link
+     * CameraInfo#imageWidth()}, {@link CameraInfo#imageHeight()}) to the input image resolution,
+     * so that same {@link CameraInfo} can be used with any input resolution. If camera resolution
+     * is not available, intrinsics are used as is.
+     */
+    public CuboidPoseCalculator(
+            Cuboid3D cuboidModel3d, CameraInfo cameraInfo, InputResolution resolution) {
+        this(cuboidModel3d, cameraInfo, resolution, PnpConfig.DEFAULT);
+    }
+
+    /**
+     * @param pnpConfig PnP solver which is used to calculate the poses
+     */
+    public CuboidPoseCalculator(
+            Cuboid3D cuboidModel3d,
+            CameraInfo cameraInfo,
+            InputResolution resolution,
+            PnpConfig pnpConfig) {
+        this(cuboidModel3d, cameraInfo, DopeConstants.SCALE_FACTOR, pnpConfig);
+        var cameraWidth = cameraInfo.imageWidth();
+        var cameraHeight = cameraInfo.imageHeight();
+        if (cameraWidth <= 0 || cameraHeight <= 0) return;
+        if (cameraWidth == resolution.width() && cameraHeight == resolution.height()) return;
+        var scaleX = (double) resolution.width() / cameraWidth;
+        var scaleY = (double) resolution.height() / cameraHeight;
+        var intrinsics = new double[9];
+        cameraMat.get(0, 0, intrinsics);
+        // fx, skew, cx
+        for (int i = 0; i < 3; i++) intrinsics[i] *= scaleX;
+        // fy, cy
+        for (int i = 4; i < 6; i++) intrinsics[i] *= scaleY;
+        cameraMat.put(0, 0, intrinsics);
+        utils.debugMat("Scaled cameraMat", cameraMat);
     }
 
     /**
@@ -100,19 +165,31 @@ public class CuboidPoseCalculator {
      * @return true if pose was calculated and added to the output results
      */
     public boolean calculateAndAddPose(Cuboid2D cuboid2d) {
-        var points2d = converters.copyToMatOfPoint2f(cuboid2d, scale);
-        utils.debugMat("points2d", points2d);
-        var cuboid3d = createCuboid3dModel(cuboid2d);
-        var points3d = converters.copyToMatOfPoint3f(cuboid3d);
-        utils.debugMat("points3d", points3d);
-        var startAt = Instant.now();
+        var pointsCount = copyPoints(cuboid2d);
+        var startAt = System.nanoTime();
         try {
-            return findPose(points2d, points3d);
+            return findPose(pointsCount);
         } finally {
-            POSE_CALC_TIME_METER.record(Duration.between(startAt, Instant.now()).toMillis());
+            LatencyMetrics.record(POSE_CALC_TIME_METER, startAt);
         }
     }
 
+    /**
+     * Removes all output results so that calculator can be reused for the cuboids of the next
+     * image.
+     */
+    public void clear() {
+        poses.clear();
+        objects.clear();
+    }
+
+    /** Releases native memory of all Mats used by the calculator */
+    @Override
+    public void close() {
+        List.of(cameraMat, distortionMat, pointsModel3d, points2d, points3d, projected, rvec, tvec)
+                .forEach(tracker::release);
+    }
+
     /**
      * Return output results.
      *
@@ -132,54 +209,136 @@ public class CuboidPoseCalculator {
         return objects;
     }
 
-    private boolean findPose(MatOfPoint2f points2d, MatOfPoint3f points3d) {
-        var vertexCount = points2d.rows();
-        var rvec = new Mat();
-        var tvec = new Mat();
-        LOGGER.debug("Number of available vertices: {}", points2d.rows());
-        if (vertexCount < 4) return false;
-        var method = Calib3d.SOLVEPNP_ITERATIVE;
-        if (points2d.rows() < 6) {
-            if (points2d.rows() != 4) {
-                points2d = new MatOfPoint2f(points2d.rowRange(0, 4));
-                points3d = new MatOfPoint3f(points3d.rowRange(0, 4));
-            }
-            SOLVEPNP_P3P_TOTAL.add(1);
-            method = Calib3d.SOLVEPNP_P3P;
-        } else {
-            SOLVEPNP_ITERATIVE_TOTAL.add(1);
+    private boolean findPose(int pointsCount) {
+        LOGGER.debug("Number of available vertices: {}", pointsCount);
+        if (pointsCount < 4) return false;
+        var method = pnpConfig.method();
+        if (pointsCount < method.getMinPointsCount()) method = PnpMethod.P3P;
+        pointsCount = Math.min(pointsCount, method.getMaxPointsCount());
+        if (method == PnpMethod.JAVA_EPNP && !solveInJava(pointsCount)) {
+            LOGGER.debug("{} failed, using {} instead", method, PnpMethod.ITERATIVE);
+            method = PnpMethod.ITERATIVE;
         }
-        if (LOGGER.isDebugEnabled()) LOGGER.debug("Using PnP method: {}", PNP_METHODS.get(method));
-        Preconditions.equals(points2d.rows(), points3d.rows(), "Vertex count mismatch");
-        Calib3d.solvePnP(points3d, points2d, cameraMat, distortionMat, rvec, tvec, false, method);
-        utils.debugMat("rvec", rvec);
-        utils.debugMat("tvec", tvec);
-        Calib3d.projectPoints(pointsModel3d, rvec, tvec, cameraMat, distortionMat, points2d);
-        var position = converters.copyToPoint(tvec);
+        if (method != PnpMethod.JAVA_EPNP) solveInOpenCv(method, pointsCount);
+        if (!BatchContext.isWarmup()) SOLVEPNP_TOTAL.get(method).add(1);
+        var position = new Point3D(tvecData[0], tvecData[1], tvecData[2]);
         if (position.getZ() < 0) position = position.scaled(-1);
-        var orientation = matConverters.copyToVector3d(rvec);
+        var orientation = new Vector3d(rvecData[0], rvecData[1], rvecData[2]);
         poses.add(new Pose(position, orientation));
-        objects.add(converters.copyToCuboid2D(points2d));
+        objects.add(readProjectedCuboid());
         return true;
     }
 
+    private void solveInOpenCv(PnpMethod method, int pointsCount) {
+        LOGGER.debug("Using PnP method: {}", method);
+        // Mats are reallocated only when number of points changes
+        points2d.alloc(pointsCount);
+        points2d.put(0, 0, points2dData);
+        points3d.alloc(pointsCount);
+        points3d.put(0, 0, points3dData);
+        utils.debugMat("points2d", points2d);
+        utils.debugMat("points3d", points3d);
+        Calib3d.solvePnP(
+                points3d,
+                points2d,
+                cameraMat,
+                distortionMat,
+                rvec,
+                tvec,
+                false,
+                method.getOpenCvFlag());
+        if (pnpConfig.refine() && method != PnpMethod.ITERATIVE)
+            Calib3d.solvePnPRefineLM(points3d, points2d, cameraMat, distortionMat, rvec, tvec);
+        utils.debugMat("rvec", rvec);
+        utils.debugMat("tvec", tvec);
+        Calib3d.projectPoints(pointsModel3d, rvec, tvec, cameraMat, distortionMat, projected);
+        projected.get(0, 0, projectedData);
+        tvec.get(0, 0, tvecData);
+        rvec.get(0, 0, rvecData);
+    }
+
+    /**
+     * Solver already refines the pose so {@link PnpConfig#refine()} is ignored.
+     *
+     * @return false if solver failed
+     */
+    private boolean solveInJava(int pointsCount) {
+        LOGGER.debug("Using PnP method: {}", PnpMethod.JAVA_EPNP);
+        if (javaSolver == null) {
+            // camera intrinsics may be scaled after the construction so solver is created lazily
+            var intrinsics = new double[9];
+            cameraMat.get(0, 0, intrinsics);
+            javaSolver = new EpnpSolver(intrinsics, MAX_POINTS_COUNT);
+        }
+        if (!javaSolver.solve(points3dData, points2dData, pointsCount)) return false;
+        javaSolver.project(modelPointsData, MAX_POINTS_COUNT, projectedData);
+        javaSolver.getTranslation(tvecData);
+        javaSolver.getRotationVector(rvecData);
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug(
+                    "rvec: {}, tvec: {}", Arrays.toString(rvecData), Arrays.toString(tvecData));
+        return true;
+    }
+
+    private boolean hasDistortion() {
+        for (var c : distortionMat.toArray()) if (c != 0) return true;
+        return false;
+    }
+
+    private Map<PnpMethod, LongCounter> createPnpCounters() {
+        var counters = new EnumMap<PnpMethod, LongCounter>(PnpMethod.class);
+        for (var method : PnpMethod.values()) {
+            counters.put(
+                    method,
+                    METER.counterBuilder("solvepnp_" + method.name().toLowerCase())
+                            .setDescription(
+                                    "SOLVEPNP_" + method + " algorithm used for pose estimation")
+                            .build());
+        }
+        return counters;
+    }
+
     /**
-     * Uses {@link #cuboidModel3d} to create a 3D cuboid for its 2D version.
+     * Copies available vertices of the 2D cuboid and their matching vertices of {@link
+     * #cuboidModel3d} to the buffers. Center points are copied the last ones.
      *
      * <p>There is not always 1:1 matching between cuboid 3D model and its detected2D versions. This
      * happens when not all vertices of 2D cuboid was detected. If certain vertices are missing in
-     * the 2D cuboid they will be removed from its 3D cuboid as well.
+     * the 2D cuboid they are skipped in the 3D cuboid as well.
+     *
+     * @return number of copied points
      */
-    private Cuboid3D createCuboid3dModel(Cuboid2D cuboid2d) {
-        if (cuboid2d.getMissingVertexCount() == 0) return cuboidModel3d;
-        var vertices =
-                IntStream.range(0, Cuboid2D.VERTEX_COUNT)
-                        .mapToObj(
-                                i ->
-                                        cuboid2d.getVertices().get(i) != null
-                                                ? cuboidModel3d.getVertices().get(i)
-                                                : null)
-                        .toList();
-        return new Cuboid3D(cuboidModel3d.getCenter(), vertices);
+    private int copyPoints(Cuboid2D cuboid2d) {
+        var vertices2d = cuboid2d.getVertices();
+        var vertices3d = cuboidModel3d.getVertices();
+        var count = 0;
+        for (int i = 0; i < Cuboid2D.VERTEX_COUNT; i++) {
+            var p = vertices2d.get(i);
+            if (p == null) continue;
+            copyPoint(p, vertices3d.get(i), count++);
+        }
+        copyPoint(cuboid2d.getCenter(), cuboidModel3d.getCenter(), count++);
+        return count;
+    }
+
+    private void copyPoint(Point2D p2d, Point3D p3d, int index) {
+        points2dData[2 * index] = (float) (p2d.getX() * scale);
+        points2dData[2 * index + 1] = (float) (p2d.getY() * scale);
+        points3dData[3 * index] = (float) p3d.getX();
+        points3dData[3 * index + 1] = (float) p3d.getY();
+        points3dData[3 * index + 2] = (float) p3d.getZ();
+    }
+
+    /** Reads cuboid which vertices are ordered as in {@link #pointsModel3d} */
+    private Cuboid2D readProjectedCuboid() {
+        var vertices = new Point2D[Cuboid2D.VERTEX_COUNT];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = new Point2D(projectedData[2 * i], projectedData[2 * i + 1]);
+        }
+        var center =
+                new Point2D(
+                        projectedData[2 * Cuboid2D.VERTEX_COUNT],
+                        projectedData[2 * Cuboid2D.VERTEX_COUNT + 1]);
+        return new Cuboid2D(center, Arrays.asList(vertices));
     }
 }
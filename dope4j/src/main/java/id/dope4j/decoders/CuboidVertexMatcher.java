@@ -18,35 +18,31 @@
 package id.dope4j.decoders;
 
 import id.deeplearningutils.modality.cv.output.Point2D;
+import id.dope4j.DopeConstants;
+import id.dope4j.impl.BatchContext;
+import id.dope4j.impl.LatencyMetrics;
+import id.dope4j.io.OutputKeypoints;
 import id.mathcalc.Vector2f;
-import id.xfunction.Preconditions;
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.api.metrics.Meter;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.Arrays;
 
 /**
  * Matches cuboids center points with their vertices.
  *
- * <p>Returns map of pairs: [center point C: vertices], where vertices are all vertices from the
- * verticesLists and are part of the cuboid which matches to this center point C. For those cuboid
- * vertices which was not found because they does not exist in verticesLists we return null. This
- * guarantees that for each center point C we always will return list of 8 vertices but some
- * vertices in this list may be null.
+ * <p>For each center point C and each cuboid vertex L it finds a vertex keypoint which is part of
+ * the cuboid with center point C. For those cuboid vertices which were not found it returns -1.
+ * This guarantees that for each center point C there are always 8 vertices but some of them may be
+ * missing.
  *
  * <p>Matching between cuboid center point and its vertex happens based on follow criteria:
  *
  * <ol>
- *   <li>distance between them
- *   <li>direction of the vertex as given by {@link VectorField} (currently it is ignored)
+ *   <li>distance between them: each vertex keypoint is matched to its nearest center point. If
+ *       several vertex keypoints are matched to the same cuboid vertex, the nearest one is chosen.
+ *   <li>direction of the vertex as given by {@link VectorField}: it is taken into account only
+ *       when maximum angle distance is set (see {@link #CuboidVertexMatcher(double)})
  * </ol>
  *
  * <p>Output example:
@@ -54,13 +50,14 @@ import java.util.stream.Stream;
  * <pre>{@code
  *       L1,  L2,  L3,   L4,  L5,  L6,   L7,  L8
  *
- * C1: null, v11, v12, null, v14, v15, null, v17
+ * C1:   -1, v11, v12,   -1, v14, v15,   -1, v17
  * C2:  v20, v21, v22,  v23, v24, v25,  v26, v27
  * ...
  * CN: ...
  * }</pre>
  *
- * <p>Where CN is a number of center points in centerPoints list and L* are cuboid vertices:
+ * <p>Where CN is a number of center points, vNM are indices of vertex keypoints in {@link
+ * OutputKeypoints} and L* are cuboid vertices:
  *
  * <pre>{@code
  * y
@@ -75,15 +72,31 @@ import java.util.stream.Stream;
  * | 2--------1
  * |-----------------> x
  * }</pre>
+ *
+ * <p>Center points are bucketed into a uniform grid so that search of the nearest center point
+ * visits only the grid cells around the vertex instead of all center points. All buffers are kept
+ * between the calls to {@link #match(OutputKeypoints, VectorField)}, so matcher does not allocate
+ * memory once they grow to the size of the typical scene.
+ *
+ * <p>Not thread safe.
  */
 public class CuboidVertexMatcher {
 
     @FunctionalInterface
     public static interface VectorField {
         Vector2f get(int cuboidVertexId, Point2D vertex);
+
+        default Vector2f get(int cuboidVertexId, float x, float y) {
+            return get(cuboidVertexId, new Point2D(x, y));
+        }
     }
 
     private static final int VERTEX_COUNT = 8;
+    private static final int CENTER_POINTS_MAP_ID = DopeConstants.BELIEF_MAPS_COUNT - 1;
+
+    /** Size of the grid cell in Belief Map pixels */
+    private static final int CELL_SIZE = 8;
+
     private final Meter METER =
             GlobalOpenTelemetry.getMeter(CuboidVertexMatcher.class.getSimpleName());
     private final LongHistogram CENTER_POINTS =
@@ -92,104 +105,217 @@ public class CuboidVertexMatcher {
                     .ofLongs()
                     .build();
     private final LongHistogram MATCHER_TIME_METER =
-            METER.histogramBuilder("matcher_time_ms")
-                    .setDescription("Center points matcher time in millis")
-                    .ofLongs()
-                    .build();
-    private List<Point2D> centerPoints;
-    private List<List<Point2D>> verticesLists;
-    private VectorField vectorField;
+            LatencyMetrics.createHistogram(METER, "matcher", "Center points matcher time");
+    private final double maxAngleDistance;
+
+    // grid of center points: ids of center points which belong to the cell i are stored in
+    // cellItems from cellStart[i] to cellStart[i + 1]
+    private int gridCols;
+    private int gridRows;
+    private float gridX;
+    private float gridY;
+    private int[] cellStart = new int[1];
+    private int[] cellItems = new int[0];
+
+    // vertices[c * VERTEX_COUNT + v] is index of the keypoint which is vertex v of the cuboid with
+    // center point c
+    private int[] vertices = new int[0];
+    private double[] distances = new double[0];
+    private int centerPointsCount;
+
+    /** Matcher which ignores direction of the vertices */
+    public CuboidVertexMatcher() {
+        this(Double.NaN);
+    }
 
     /**
-     * @param centerPoints list of center points. Each center point describes single cuboid.
-     * @param verticesLists there should be 8 lists where each list describes all candidates of a
-     *     given cuboid vertex. Each V = verticesLists[i][j] will be matched with only one center
-     *     point centerPoints[c] and its cuboid vertex with index i.
-     * @param vectorField direction vectors of all vertices from verticesLists.
+     * @param maxAngleDistance vertex can be matched with the center point only when distance
+     *     between normalized direction of the vertex (as given by {@link VectorField}) and
+     *     normalized vector from the vertex to the center point is less than this value. Use NaN
+     *     to ignore direction of the vertices.
      */
-    public CuboidVertexMatcher(
-            List<Point2D> centerPoints,
-            List<List<Point2D>> verticesLists,
-            VectorField vectorField) {
-        Preconditions.equals(8, verticesLists.size());
-        this.centerPoints = centerPoints;
-        this.verticesLists = verticesLists;
-        this.vectorField = vectorField;
+    public CuboidVertexMatcher(double maxAngleDistance) {
+        this.maxAngleDistance = maxAngleDistance;
     }
 
-    public Map<Point2D, List<Point2D>> match() {
-        CENTER_POINTS.record(centerPoints.size());
-        var startAt = Instant.now();
-        // cuboidsMap[i] = [all 8 vertices of a cuboid with center point centerPoints[i]]
-        var cuboidsMap =
-                Stream.generate(() -> new ArrayList<Point2D>(VERTEX_COUNT))
-                        .limit(centerPoints.size())
-                        .toList();
-        record VertexCandidate(Point2D vertex, double distance) {}
-        // candidatesMap[i] = [all candidate vertices of cuboid vertex vertexId with center point
-        // centerPoints[i]]
-        // candidatesMap is reused and cleaned up for each new vertexId
-        var candidatesMap =
-                Stream.generate(() -> new ArrayList<VertexCandidate>())
-                        .limit(centerPoints.size())
-                        .toList();
+    /**
+     * Matches all vertex keypoints with the center points. Results are available through {@link
+     * #getVertex(int, int)} until the next call.
+     *
+     * @param vectorField direction vectors of all vertex keypoints
+     */
+    public void match(OutputKeypoints keypoints, VectorField vectorField) {
+        var centerOffset = keypoints.offset(CENTER_POINTS_MAP_ID);
+        centerPointsCount = keypoints.count(CENTER_POINTS_MAP_ID);
+        if (!BatchContext.isWarmup()) CENTER_POINTS.record(centerPointsCount);
+        var startAt = System.nanoTime();
+        var size = centerPointsCount * VERTEX_COUNT;
+        if (vertices.length < size) {
+            vertices = new int[size];
+            distances = new double[size];
+        }
+        Arrays.fill(vertices, 0, size, -1);
+        if (centerPointsCount == 0) return;
+        buildGrid(keypoints, centerOffset);
         for (int cuboidVertexId = 0; cuboidVertexId < VERTEX_COUNT; cuboidVertexId++) {
-            var vertices = verticesLists.get(cuboidVertexId);
-            for (var vertex : vertices) {
-                double minDistance = Integer.MAX_VALUE;
-                // point with the smallest distance to the current vertex
-                int candidateCenterPointId = -1;
-                for (int i = 0; i < centerPoints.size(); i++) {
-                    var center = centerPoints.get(i);
-                    var affinityVec = vectorField.get(cuboidVertexId, vertex).normalize();
-                    var vec =
-                            new Vector2f(
-                                            (float) (center.getX() - vertex.getX()),
-                                            (float) (center.getY() - vertex.getY()))
-                                    .normalize();
-                    var angle = affinityVec.sub(vec).norm();
-                    var distance = vertex.distance(center);
-                    if (distance < minDistance) {
-                        candidateCenterPointId = i;
-                        minDistance = distance;
-                    }
+            var end = keypoints.offset(cuboidVertexId + 1);
+            for (int i = keypoints.offset(cuboidVertexId); i < end; i++) {
+                var x = keypoints.x(i);
+                var y = keypoints.y(i);
+                float dirX = 0, dirY = 0;
+                if (!Double.isNaN(maxAngleDistance)) {
+                    // sample the field only once per vertex
+                    var dir = vectorField.get(cuboidVertexId, x, y).normalize();
+                    dirX = dir.getX();
+                    dirY = dir.getY();
+                }
+                var centerId = findNearestCenter(keypoints, centerOffset, x, y, dirX, dirY);
+                if (centerId == -1) continue;
+                var distance =
+                        distance(
+                                x,
+                                y,
+                                keypoints.x(centerOffset + centerId),
+                                keypoints.y(centerOffset + centerId));
+                // from all candidates of the cuboid vertex we chose the one with smallest distance
+                // to the center point
+                var slot = centerId * VERTEX_COUNT + cuboidVertexId;
+                if (vertices[slot] == -1 || distance < distances[slot]) {
+                    vertices[slot] = i;
+                    distances[slot] = distance;
                 }
-                if (candidateCenterPointId != -1)
-                    candidatesMap
-                            .get(candidateCenterPointId)
-                            .add(new VertexCandidate(vertex, minDistance));
             }
-            for (int i = 0; i < centerPoints.size(); i++) {
-                var candidates = candidatesMap.get(i);
-                if (candidates.isEmpty()) {
-                    // for missing vertices of a cuboid we add nulls
-                    cuboidsMap.get(i).add(null);
-                } else {
-                    // from all found candidates of current cuboidVertexId we chose the one with
-                    // smallest distance to the center point
-                    var best = candidates.get(0);
-                    for (var c : candidates) {
-                        if (c.distance < best.distance) best = c;
+        }
+        LatencyMetrics.record(MATCHER_TIME_METER, startAt);
+    }
+
+    /** Number of center points in the last matched keypoints */
+    public int getCenterPointsCount() {
+        return centerPointsCount;
+    }
+
+    /**
+     * @param centerPointId index of the center point among all center points
+     * @return index of the keypoint which is the vertex of the cuboid with the given center point
+     *     or -1 if such vertex is missing
+     */
+    public int getVertex(int centerPointId, int cuboidVertexId) {
+        return vertices[centerPointId * VERTEX_COUNT + cuboidVertexId];
+    }
+
+    private void buildGrid(OutputKeypoints keypoints, int centerOffset) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int c = 0; c < centerPointsCount; c++) {
+            var x = keypoints.x(centerOffset + c);
+            var y = keypoints.y(centerOffset + c);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        gridX = minX;
+        gridY = minY;
+        gridCols = (int) ((maxX - minX) / CELL_SIZE) + 1;
+        gridRows = (int) ((maxY - minY) / CELL_SIZE) + 1;
+        var cellsCount = gridCols * gridRows;
+        if (cellStart.length < cellsCount + 1) cellStart = new int[cellsCount + 1];
+        if (cellItems.length < centerPointsCount) cellItems = new int[centerPointsCount];
+        // counting sort of the center points by their cells
+        Arrays.fill(cellStart, 0, cellsCount + 1, 0);
+        for (int c = 0; c < centerPointsCount; c++) {
+            cellStart[cellOf(keypoints, centerOffset + c) + 1]++;
+        }
+        for (int i = 0; i < cellsCount; i++) {
+            cellStart[i + 1] += cellStart[i];
+        }
+        // center points are added in increasing order of their ids so that each cell keeps them
+        // sorted
+        for (int c = 0; c < centerPointsCount; c++) {
+            var cell = cellOf(keypoints, centerOffset + c);
+            // cellStart[cell] is used as insertion position and restored below
+            cellItems[cellStart[cell]++] = c;
+        }
+        for (int i = cellsCount; i > 0; i--) {
+            cellStart[i] = cellStart[i - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    private int cellOf(OutputKeypoints keypoints, int index) {
+        return cellRow(keypoints.y(index)) * gridCols + cellCol(keypoints.x(index));
+    }
+
+    private int cellCol(float x) {
+        return Math.max(0, Math.min(gridCols - 1, (int) Math.floor((x - gridX) / CELL_SIZE)));
+    }
+
+    private int cellRow(float y) {
+        return Math.max(0, Math.min(gridRows - 1, (int) Math.floor((y - gridY) / CELL_SIZE)));
+    }
+
+    /**
+     * Searches grid cells in rings of increasing size around the vertex cell. Search stops when
+     * cells of the next ring cannot contain any center point closer than the one already found.
+     *
+     * <p>When several center points have the same distance to the vertex, the one with the
+     * smallest id is returned.
+     *
+     * @return id of the nearest center point or -1 if no center point matches the vertex
+     */
+    private int findNearestCenter(
+            OutputKeypoints keypoints,
+            int centerOffset,
+            float x,
+            float y,
+            float dirX,
+            float dirY) {
+        var col = cellCol(x);
+        var row = cellRow(y);
+        var maxRing = Math.max(gridCols, gridRows);
+        var bestId = -1;
+        var bestDistance = Double.MAX_VALUE;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // any cell of this ring is separated from the vertex cell by (ring - 1) cells
+            if (bestId != -1 && (ring - 1) * CELL_SIZE > bestDistance) break;
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= gridRows) continue;
+                var isBorderRow = r == row - ring || r == row + ring;
+                // inner rows of the ring have only two cells
+                var step = isBorderRow ? 1 : Math.max(1, 2 * ring);
+                for (int c = col - ring; c <= col + ring; c += step) {
+                    if (c < 0 || c >= gridCols) continue;
+                    var cell = r * gridCols + c;
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        var centerId = cellItems[i];
+                        var cx = keypoints.x(centerOffset + centerId);
+                        var cy = keypoints.y(centerOffset + centerId);
+                        var distance = distance(x, y, cx, cy);
+                        if (distance > bestDistance) continue;
+                        if (distance == bestDistance && centerId > bestId) continue;
+                        if (!isDirectionMatching(x, y, cx, cy, dirX, dirY)) continue;
+                        bestId = centerId;
+                        bestDistance = distance;
                     }
-                    cuboidsMap.get(i).add(best.vertex);
                 }
-                candidatesMap.get(i).clear();
             }
         }
-        try {
-            return IntStream.range(0, cuboidsMap.size())
-                    .boxed()
-                    .collect(
-                            Collectors.toMap(
-                                    i -> centerPoints.get(i),
-                                    i -> cuboidsMap.get(i),
-                                    (m1, m2) -> {
-                                        throw new RuntimeException(
-                                                "Collision between center point indices");
-                                    },
-                                    () -> new LinkedHashMap<>(centerPoints.size())));
-        } finally {
-            MATCHER_TIME_METER.record(Duration.between(startAt, Instant.now()).toMillis());
-        }
+        return bestId;
+    }
+
+    private boolean isDirectionMatching(
+            float x, float y, float centerX, float centerY, float dirX, float dirY) {
+        if (Double.isNaN(maxAngleDistance)) return true;
+        var vx = centerX - x;
+        var vy = centerY - y;
+        var norm = Math.sqrt(vx * vx + vy * vy);
+        var angleDistance = Math.hypot(dirX - vx / norm, dirY - vy / norm);
+        return angleDistance < maxAngleDistance;
+    }
+
+    private static double distance(float x1, float y1, float x2, float y2) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        return Math.sqrt(dx * dx + dy * dy);
     }
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.decoders;
+
+import id.deeplearningutils.modality.cv.output.Cuboid3D;
+import id.dope4j.DopeConstants;
+import id.dope4j.InputResolution;
+import id.dope4j.PnpConfig;
+import id.dope4j.impl.MatTracker;
+import id.dope4j.io.OutputKeypoints;
+import id.matcv.camera.CameraInfo;
+import java.util.Arrays;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Buffers and Mats which {@link DopeDecoderUtils} reuses between the images decoded on the same
+ * thread, so that decoding of each new image does not allocate them again.
+ *
+ * <p>Buffers are preallocated for the Belief Maps of default shape ({@link
+ * DopeConstants#BELIEF_SHAPE}) and reallocated only when shape of the network output changes.
+ *
+ * <p>Mats are tracked by {@link MatTracker}. Mats which are replaced are released immediately,
+ * others are released when the workspace is closed.
+ *
+ * <p>Not thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+class DecoderWorkspace implements AutoCloseable {
+
+    private static final int INITIAL_KEYPOINTS_CAPACITY = 64;
+    private static final MatTracker tracker = MatTracker.getInstance();
+    private int[] beliefShape;
+    private float[] belief;
+    private float[] blurredBuffer;
+    private Mat beliefMat;
+    private Mat blurred;
+    private CuboidPoseCalculator poseCalculator;
+    private Cuboid3D poseCuboidModel;
+    private CameraInfo poseCameraInfo;
+    private InputResolution poseResolution;
+    private PnpConfig posePnpConfig;
+    private float[] keypointsX = new float[INITIAL_KEYPOINTS_CAPACITY];
+    private float[] keypointsY = new float[INITIAL_KEYPOINTS_CAPACITY];
+    private float[] keypointsBeliefs = new float[INITIAL_KEYPOINTS_CAPACITY];
+    private int keypointsCount;
+    private final int[] keypointsOffsets = new int[DopeConstants.BELIEF_MAPS_COUNT + 1];
+    private final CuboidVertexMatcher vertexMatcher = new CuboidVertexMatcher();
+    private final PeakFinder peakFinder = new PeakFinder();
+    // workspace is closed by the thread which closes the decoder
+    private volatile boolean isClosed;
+
+    DecoderWorkspace() {
+        allocate(DopeConstants.BELIEF_SHAPE);
+    }
+
+    /** Makes sure that Belief Map buffers match the given shape */
+    void ensureBeliefShape(int[] shape) {
+        if (Arrays.equals(beliefShape, shape)) return;
+        tracker.release(beliefMat);
+        tracker.release(blurred);
+        allocate(shape);
+    }
+
+    /** Buffer for a single Belief Map */
+    float[] belief() {
+        return belief;
+    }
+
+    /** Mat of {@link CvType#CV_32F} type with the shape of Belief Map */
+    Mat beliefMat() {
+        return beliefMat;
+    }
+
+    /** Mat where blurred Belief Map is stored */
+    Mat blurred() {
+        return blurred;
+    }
+
+    /** Buffer where {@link #blurred()} is copied to */
+    float[] blurredBuffer() {
+        return blurredBuffer;
+    }
+
+    CuboidVertexMatcher vertexMatcher() {
+        return vertexMatcher;
+    }
+
+    PeakFinder peakFinder() {
+        return peakFinder;
+    }
+
+    /**
+     * Returns calculator without any results. It is created again only when any of the arguments
+     * changes.
+     */
+    CuboidPoseCalculator poseCalculator(
+            Cuboid3D cuboid3d,
+            CameraInfo cameraInfo,
+            InputResolution resolution,
+            PnpConfig pnpConfig) {
+        if (poseCalculator == null
+                || poseCuboidModel != cuboid3d
+                || poseCameraInfo != cameraInfo
+                || !poseResolution.equals(resolution)
+                || !posePnpConfig.equals(pnpConfig)) {
+            if (poseCalculator != null) poseCalculator.close();
+            poseCalculator = new CuboidPoseCalculator(cuboid3d, cameraInfo, resolution, pnpConfig);
+            poseCuboidModel = cuboid3d;
+            poseCameraInfo = cameraInfo;
+            poseResolution = resolution;
+            posePnpConfig = pnpConfig;
+        } else {
+            poseCalculator.clear();
+        }
+        return poseCalculator;
+    }
+
+    /** Removes all keypoints added with {@link #addKeypoint(float, float, float)} */
+    void clearKeypoints() {
+        keypointsCount = 0;
+    }
+
+    /** Keypoints added after this call belong to the given Belief Map */
+    void startBeliefMap(int beliefMapId) {
+        keypointsOffsets[beliefMapId] = keypointsCount;
+    }
+
+    void addKeypoint(float x, float y, float belief) {
+        if (keypointsCount == keypointsX.length) {
+            var capacity = keypointsCount * 2;
+            keypointsX = Arrays.copyOf(keypointsX, capacity);
+            keypointsY = Arrays.copyOf(keypointsY, capacity);
+            keypointsBeliefs = Arrays.copyOf(keypointsBeliefs, capacity);
+        }
+        keypointsX[keypointsCount] = x;
+        keypointsY[keypointsCount] = y;
+        keypointsBeliefs[keypointsCount] = belief;
+        keypointsCount++;
+    }
+
+    int keypointsCount() {
+        return keypointsCount;
+    }
+
+    /** Copies all added keypoints to the new {@link OutputKeypoints} */
+    OutputKeypoints buildKeypoints() {
+        keypointsOffsets[DopeConstants.BELIEF_MAPS_COUNT] = keypointsCount;
+        return new OutputKeypoints(
+                Arrays.copyOf(keypointsX, keypointsCount),
+                Arrays.copyOf(keypointsY, keypointsCount),
+                Arrays.copyOf(keypointsBeliefs, keypointsCount),
+                keypointsOffsets.clone());
+    }
+
+    boolean isClosed() {
+        return isClosed;
+    }
+
+    /** Releases native memory of all Mats including the ones held by cached pose calculator */
+    @Override
+    public void close() {
+        if (isClosed) return;
+        isClosed = true;
+        tracker.release(beliefMat);
+        tracker.release(blurred);
+        if (poseCalculator != null) poseCalculator.close();
+        poseCalculator = null;
+    }
+
+    private void allocate(int[] shape) {
+        beliefShape = shape.clone();
+        belief = new float[shape[0] * shape[1]];
+        blurredBuffer = new float[belief.length];
+        beliefMat = tracker.track(new Mat(shape[0], shape[1], CvType.CV_32F));
+        blurred = tracker.track(new Mat(shape[0], shape[1], CvType.CV_32F));
+    }
+}
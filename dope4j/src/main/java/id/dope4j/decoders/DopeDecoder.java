@@ -18,9 +18,14 @@
 package id.dope4j.decoders;
 
 import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.Shape;
 import ai.djl.translate.Translator;
+import id.dope4j.DopeConstants;
+import id.dope4j.InputResolution;
 import id.dope4j.exceptions.DopeException;
 import id.dope4j.io.InputImage;
+import java.nio.FloatBuffer;
 import java.util.Optional;
 
 /**
@@ -56,4 +61,36 @@ public interface DopeDecoder<R> {
      * @throws DopeException
      */
     Optional<R> decode(InputImage inputImage, NDArray outputTensor) throws DopeException;
+
+    /**
+     * Decodes network output which is stored in the buffer. This method is used by inference
+     * backends which keep network output in their own buffers (see {@link
+     * id.dope4j.backends.OrtInferenceBackend}). Same as with {@link NDArray} the content of the
+     * buffer is valid only during execution of this method.
+     *
+     * <p>Default implementation copies the buffer to {@link NDArray} and calls {@link
+     * #decode(InputImage, NDArray)}.
+     *
+     * @param outputTensor network output for single image with shape [{@link
+     *     DopeConstants#TENSOR_LENGTH}, {@link InputResolution#tensorRows()}, {@link
+     *     InputResolution#tensorCols()}] where resolution is {@link InputImage#resolution()}
+     */
+    default Optional<R> decode(InputImage inputImage, FloatBuffer outputTensor)
+            throws DopeException {
+        try (var manager = NDManager.newBaseManager()) {
+            var resolution = inputImage.resolution();
+            var shape =
+                    new Shape(
+                            DopeConstants.TENSOR_LENGTH,
+                            resolution.tensorRows(),
+                            resolution.tensorCols());
+            return decode(inputImage, manager.create(outputTensor, shape));
+        }
+    }
+
+    /**
+     * Releases resources held by the decoder. It is called when {@link
+     * id.dope4j.DeepObjectPoseEstimationService} which uses it is closed.
+     */
+    default void close() {}
 }
@@ -18,11 +18,8 @@
 package id.dope4j.decoders;
 
 import static id.dope4j.DopeConstants.BELIEF_MAPS_COUNT;
-import static id.dope4j.DopeConstants.BELIEF_SHAPE;
 import static id.dope4j.DopeConstants.GAUSSIAN_SIGMA;
-import static id.dope4j.DopeConstants.TENSOR_COLS;
 import static id.dope4j.DopeConstants.TENSOR_LENGTH;
-import static id.dope4j.DopeConstants.TENSOR_ROWS;
 import static id.dope4j.impl.Utils.debugNDArray;
 
 import ai.djl.ndarray.NDArray;
@@ -31,29 +28,32 @@ import id.deeplearningutils.modality.cv.output.Cuboid2D;
 import id.deeplearningutils.modality.cv.output.Cuboid3D;
 import id.deeplearningutils.modality.cv.output.Point2D;
 import id.dope4j.DopeConstants;
+import id.dope4j.InputResolution;
+import id.dope4j.PnpConfig;
 import id.dope4j.decoders.CuboidVertexMatcher.VectorField;
+import id.dope4j.impl.LatencyMetrics;
 import id.dope4j.io.AffinityFields;
+import id.dope4j.io.InputImage;
 import id.dope4j.io.OutputKeypoints;
 import id.dope4j.io.OutputObjects2D;
 import id.dope4j.io.OutputPoses;
 import id.dope4j.io.OutputTensor;
 import id.matcv.MatUtils;
-import id.matcv.OpenCvKit;
-import id.matcv.accessors.Float2DAccessor;
 import id.matcv.camera.CameraInfo;
 import id.mathcalc.Vector2f;
 import id.xfunction.Preconditions;
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.api.metrics.Meter;
-import java.time.Duration;
-import java.time.Instant;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
 import org.opencv.core.Core;
-import org.opencv.core.Mat;
-import org.opencv.core.MatOfFloat;
-import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
@@ -68,30 +68,38 @@ import org.slf4j.LoggerFactory;
  *
  * @author lambdaprime intid@protonmail.com
  */
-public class DopeDecoderUtils {
+public class DopeDecoderUtils implements AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DopeDecoderUtils.class);
     private final Meter METER =
             GlobalOpenTelemetry.getMeter(DopeDecoderUtils.class.getSimpleName());
     private final LongHistogram FINDKEYPOINTS_TIME_METER =
-            METER.histogramBuilder("findkeypoints_time_ms")
-                    .setDescription("Find keypoints time in millis")
-                    .ofLongs()
-                    .build();
+            LatencyMetrics.createHistogram(METER, "findkeypoints", "Find keypoints time");
 
+    private static final Size AUTO_KERNEL_SIZE = new Size(0, 0);
     private MatUtils utils = new MatUtils();
-    private OpenCvKit openCvKit = new OpenCvKit();
+    private final ThreadLocal<DecoderWorkspace> workspaces = new ThreadLocal<>();
+    private final Set<DecoderWorkspace> allWorkspaces = ConcurrentHashMap.newKeySet();
 
-    /** Wraps network output tensor to data class */
+    /** Wraps network output tensor for the image of default resolution to data class */
     public OutputTensor readDopeOutput(NDArray tensor) {
+        return readDopeOutput(tensor, InputResolution.DEFAULT);
+    }
+
+    /**
+     * Wraps network output tensor to data class
+     *
+     * @param resolution resolution of the input image which defines expected tensor shape
+     */
+    public OutputTensor readDopeOutput(NDArray tensor, InputResolution resolution) {
         Shape tensorShape = tensor.getShape();
         Preconditions.equals(3, tensorShape.dimension(), "Tensor shape dimensions is wrong");
         var tensorSize = tensorShape.get(0);
         Preconditions.equals(TENSOR_LENGTH, tensorSize, "Total tensor size is wrong");
         int rows = (int) tensorShape.get(1);
-        Preconditions.equals(TENSOR_ROWS, rows, "Number of rows is wrong");
+        Preconditions.equals(resolution.tensorRows(), rows, "Number of rows is wrong");
         int cols = (int) tensorShape.get(2);
-        Preconditions.equals(TENSOR_COLS, cols, "Number of cols is wrong");
+        Preconditions.equals(resolution.tensorCols(), cols, "Number of cols is wrong");
 
         var beliefMaps = tensor.get(":" + BELIEF_MAPS_COUNT);
         var affinities = tensor.get(BELIEF_MAPS_COUNT + ":");
@@ -111,101 +119,223 @@ public class DopeDecoderUtils {
      * ignored and which are not.
      */
     public OutputKeypoints findKeypoints(OutputTensor output, double threshold) {
-        var startAt = Instant.now();
         var beliefMaps = output.beliefMaps();
-        List<List<Point>> allPeaks = new ArrayList<>();
-        List<List<Point2D>> keypoints = new ArrayList<>();
-        int keypointsCount = 0;
+        var shape = beliefMaps.getShape();
+        return findKeypoints(
+                (belief, i) -> {
+                    try (var beliefMap = beliefMaps.get(i)) {
+                        if (LOGGER.isDebugEnabled())
+                            LOGGER.debug("Belief map shape: {}", beliefMap.getShape());
+                        beliefMap
+                                .toByteBuffer()
+                                .order(ByteOrder.nativeOrder())
+                                .asFloatBuffer()
+                                .get(belief);
+                    }
+                },
+                new int[] {(int) shape.get(1), (int) shape.get(2)},
+                threshold);
+    }
+
+    /**
+     * Same as {@link #findKeypoints(OutputTensor, double)} but reads Belief Maps directly from the
+     * buffer with network output (see {@link DopeDecoder#decode(InputImage, FloatBuffer)}).
+     *
+     * @param resolution resolution of the input image which defines the shape of the output
+     */
+    public OutputKeypoints findKeypoints(
+            FloatBuffer outputTensor, InputResolution resolution, double threshold) {
+        var beliefMapSize = resolution.beliefMapSize();
+        return findKeypoints(
+                (belief, i) -> outputTensor.get(i * beliefMapSize, belief),
+                resolution.beliefShape(),
+                threshold);
+    }
+
+    /**
+     * @param beliefMaps reads Belief Map with the given index to the buffer
+     */
+    private OutputKeypoints findKeypoints(
+            ObjIntConsumer<float[]> beliefMaps, int[] beliefShape, double threshold) {
+        var startAt = System.nanoTime();
+        var workspace = workspace();
+        workspace.ensureBeliefShape(beliefShape);
+        var belief = workspace.belief();
+        var beliefMat = workspace.beliefMat();
+        var blurred = workspace.blurred();
+        var blurredBuffer = workspace.blurredBuffer();
+        var peakFinder = workspace.peakFinder();
+        workspace.clearKeypoints();
         for (int i = 0; i < BELIEF_MAPS_COUNT; i++) {
-            LOGGER.debug("Belief map shape: {}", beliefMaps.get(i).getShape());
-            var belief = beliefMaps.get(i).toFloatArray();
-            Mat beliefMat = new MatOfFloat(belief);
-            beliefMat = beliefMat.reshape(1, BELIEF_SHAPE);
+            workspace.startBeliefMap(i);
+            beliefMaps.accept(belief, i);
+            beliefMat.put(0, 0, belief);
             if (i == 0) utils.debugMat("Belief map", beliefMat, new Rect(0, 0, 3, 3));
 
-            var blurred = new Mat();
             Imgproc.GaussianBlur(
                     beliefMat,
                     blurred,
-                    new Size(0, 0),
+                    AUTO_KERNEL_SIZE,
                     GAUSSIAN_SIGMA,
                     GAUSSIAN_SIGMA,
                     Core.BORDER_REFLECT);
             if (i == 0) utils.debugMat("Blurred belief map {}", blurred, new Rect(0, 0, 3, 3));
-            var beliefAcc = Float2DAccessor.fromArray(belief, BELIEF_SHAPE);
-            var peaks =
-                    utils.findPeaks(blurred, DopeConstants.DEFAULT_BLURRED_PEAK_THRESHOLD).stream()
-                            .filter(
-                                    p ->
-                                            beliefAcc.get(p.y, p.x)
-                                                    > DopeConstants.DEFAULT_PEAK_THRESHOLD)
-                            .toList();
-
-            allPeaks.add(peaks);
+            blurred.get(0, 0, blurredBuffer);
+            var peaksCount =
+                    peakFinder.findPeaks(
+                            blurredBuffer,
+                            belief,
+                            beliefShape,
+                            DopeConstants.DEFAULT_BLURRED_PEAK_THRESHOLD,
+                            DopeConstants.DEFAULT_PEAK_THRESHOLD);
+            if (LOGGER.isDebugEnabled())
+                LOGGER.debug("Detected peaks on belief map {}: {}", i, peakFinder);
 
             // recalculating peak coordinates with respect to weighted average
-            peaks =
-                    openCvKit.applyWeightedAverage(
-                            Float2DAccessor.fromArray(belief, BELIEF_SHAPE),
-                            DopeConstants.PEAKS_WEIGHTED_AVERAGE_WINDOW,
-                            peaks);
-            keypointsCount += peaks.size();
-            keypoints.add(
-                    peaks.stream()
-                            .map(
-                                    p ->
-                                            new Point2D(
-                                                    p.x + DopeConstants.OFFSET_DUE_TO_UPSAMPLING,
-                                                    p.y + DopeConstants.OFFSET_DUE_TO_UPSAMPLING))
-                            .toList());
+            peakFinder.applyWeightedAverage(
+                    belief, beliefShape, DopeConstants.PEAKS_WEIGHTED_AVERAGE_WINDOW);
+            for (int j = 0; j < peaksCount; j++) {
+                workspace.addKeypoint(
+                        peakFinder.averagedX(j) + DopeConstants.OFFSET_DUE_TO_UPSAMPLING,
+                        peakFinder.averagedY(j) + DopeConstants.OFFSET_DUE_TO_UPSAMPLING,
+                        belief[peakFinder.peakY(j) * beliefShape[1] + peakFinder.peakX(j)]);
+            }
         }
-        FINDKEYPOINTS_TIME_METER.record(Duration.between(startAt, Instant.now()).toMillis());
+        LatencyMetrics.record(FINDKEYPOINTS_TIME_METER, startAt);
 
-        if (keypointsCount == 0) {
+        if (workspace.keypointsCount() == 0) {
             LOGGER.warn("No keypoints found, peaks threshold {}", threshold);
             return OutputKeypoints.EMPTY;
         }
 
-        LOGGER.debug("Detected peaks: {}", allPeaks);
-        LOGGER.debug("Detected {} keypoints: {}", keypointsCount, keypoints);
-
-        var verticesBeliefs = keypoints.subList(0, DopeConstants.BELIEF_MAPS_COUNT - 1);
-        LOGGER.debug("Detected vertices: {}", verticesBeliefs);
-        var centerPointBeliefs = keypoints.get(DopeConstants.BELIEF_MAPS_COUNT - 1);
-        LOGGER.debug("Detected center points: {}", centerPointBeliefs);
-        return new OutputKeypoints(verticesBeliefs, centerPointBeliefs);
+        var keypoints = workspace.buildKeypoints();
+        LOGGER.debug("Detected {} keypoints", keypoints.keypointsCount());
+        LOGGER.debug("Detected vertices: {}", keypoints.vertices());
+        LOGGER.debug("Detected center points: {}", keypoints.centerPoints());
+        return keypoints;
     }
 
     public OutputObjects2D findObjects(OutputKeypoints keypoints, AffinityFields affinityFields) {
+        return findObjects(
+                keypoints,
+                new VectorField() {
+                    @Override
+                    public Vector2f get(int cuboidVertexId, Point2D vertex) {
+                        return affinityFields.getValue(cuboidVertexId, vertex);
+                    }
+                });
+    }
+
+    /**
+     * Same as {@link #findObjects(OutputKeypoints, AffinityFields)} but reads affinity fields
+     * directly from the buffer with network output (see {@link DopeDecoder#decode(InputImage,
+     * FloatBuffer)}).
+     *
+     * @param resolution resolution of the input image which defines the shape of the output
+     */
+    public OutputObjects2D findObjects(
+            OutputKeypoints keypoints, FloatBuffer outputTensor, InputResolution resolution) {
+        var beliefMapSize = resolution.beliefMapSize();
+        var cols = resolution.tensorCols();
+        return findObjects(
+                keypoints,
+                new VectorField() {
+                    @Override
+                    public Vector2f get(int cuboidVertexId, Point2D vertex) {
+                        return get(cuboidVertexId, (float) vertex.getX(), (float) vertex.getY());
+                    }
+
+                    @Override
+                    public Vector2f get(int cuboidVertexId, float x, float y) {
+                        var offset =
+                                (BELIEF_MAPS_COUNT + cuboidVertexId * 2) * beliefMapSize
+                                        + (int) y * cols
+                                        + (int) x;
+                        return new Vector2f(
+                                outputTensor.get(offset),
+                                outputTensor.get(offset + beliefMapSize));
+                    }
+                });
+    }
+
+    private OutputObjects2D findObjects(OutputKeypoints keypoints, VectorField affinityFields) {
         if (keypoints == OutputKeypoints.EMPTY) return OutputObjects2D.EMPTY;
-        var objectsMap =
-                new CuboidVertexMatcher(
-                                keypoints.centerPoints(),
-                                keypoints.vertices(),
-                                new VectorField() {
-                                    @Override
-                                    public Vector2f get(int cuboidVertexId, Point2D vertex) {
-                                        return affinityFields.getValue(cuboidVertexId, vertex);
-                                    }
-                                })
-                        .match();
-        var objects =
-                new OutputObjects2D(
-                        objectsMap.entrySet().stream()
-                                .map(e -> newCuboid2D(e.getKey(), e.getValue()))
-                                .toList());
+        var matcher = workspace().vertexMatcher();
+        matcher.match(keypoints, affinityFields);
+        var centerOffset = keypoints.offset(BELIEF_MAPS_COUNT - 1);
+        var cuboids = new ArrayList<Cuboid2D>(matcher.getCenterPointsCount());
+        for (int c = 0; c < matcher.getCenterPointsCount(); c++) {
+            var vertices = new Point2D[Cuboid2D.VERTEX_COUNT];
+            for (int v = 0; v < vertices.length; v++) {
+                var index = matcher.getVertex(c, v);
+                if (index != -1) vertices[v] = toPoint2D(keypoints, index);
+            }
+            cuboids.add(
+                    new Cuboid2D(toPoint2D(keypoints, centerOffset + c), Arrays.asList(vertices)));
+        }
+        var objects = new OutputObjects2D(cuboids);
         LOGGER.debug("Detected {} objects: {}", objects.size(), objects);
         return objects;
     }
 
-    private Cuboid2D newCuboid2D(Point2D center, List<Point2D> vertices) {
-        return new Cuboid2D(center, vertices);
+    private Point2D toPoint2D(OutputKeypoints keypoints, int index) {
+        return new Point2D(keypoints.x(index), keypoints.y(index));
     }
 
     public OutputPoses findPoses(
             OutputObjects2D objects, Cuboid3D cuboid3d, CameraInfo cameraInfo) {
-        var calc = new CuboidPoseCalculator(cuboid3d, cameraInfo, DopeConstants.SCALE_FACTOR);
+        return findPoses(objects, cuboid3d, cameraInfo, InputResolution.DEFAULT);
+    }
+
+    /**
+     * @param resolution resolution of the input image (see {@link
+     *     CuboidPoseCalculator#CuboidPoseCalculator(Cuboid3D, CameraInfo, InputResolution)})
+     */
+    public OutputPoses findPoses(
+            OutputObjects2D objects,
+            Cuboid3D cuboid3d,
+            CameraInfo cameraInfo,
+            InputResolution resolution) {
+        return findPoses(objects, cuboid3d, cameraInfo, resolution, PnpConfig.DEFAULT);
+    }
+
+    /**
+     * Calculator is reused between the calls done by the same thread as long as their arguments
+     * do not change.
+     *
+     * @param pnpConfig PnP solver which is used to calculate the poses
+     */
+    public OutputPoses findPoses(
+            OutputObjects2D objects,
+            Cuboid3D cuboid3d,
+            CameraInfo cameraInfo,
+            InputResolution resolution,
+            PnpConfig pnpConfig) {
+        var calc = workspace().poseCalculator(cuboid3d, cameraInfo, resolution, pnpConfig);
         objects.cuboids2d().forEach(calc::calculateAndAddPose);
-        return new OutputPoses(cuboid3d, calc.getObjects(), calc.getPoses());
+        return new OutputPoses(
+                cuboid3d, List.copyOf(calc.getObjects()), List.copyOf(calc.getPoses()));
+    }
+
+    /**
+     * Releases native memory held by the workspaces of all threads. Should be called only when
+     * none of the threads uses this instance. Closed instance can still be used, in that case new
+     * workspaces are allocated.
+     */
+    @Override
+    public void close() {
+        allWorkspaces.forEach(DecoderWorkspace::close);
+        allWorkspaces.clear();
+    }
+
+    /** Workspace of the current thread */
+    private DecoderWorkspace workspace() {
+        var workspace = workspaces.get();
+        if (workspace == null || workspace.isClosed()) {
+            workspace = new DecoderWorkspace();
+            workspaces.set(workspace);
+            allWorkspaces.add(workspace);
+        }
+        return workspace;
     }
 }
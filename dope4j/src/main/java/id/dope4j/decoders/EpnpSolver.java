@@ -0,0 +1,910 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.decoders;
+
+import java.util.Arrays;
+
+/**
+ * Perspective-n-Point solver implemented in Java. Pose is found with EPnP (see <a
+ * href="https://www.tugraz.at/fileadmin/user_upload/Institute/ICG/Images/team_lepetit/publications/lepetit_ijcv08.pdf">EPnP:
+ * An Accurate O(n) Solution to the PnP Problem</a>) and then refined with Gauss-Newton
+ * optimization of the reprojection error.
+ *
+ * <p>It is intended for the small number of points (cuboid vertices and its center) where the
+ * cost of passing them to OpenCV and back is comparable with the cost of solving PnP itself. All
+ * buffers are allocated once, so solving does not allocate any memory.
+ *
+ * <p>Camera distortion is not supported.
+ *
+ * <p>Not thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class EpnpSolver {
+
+    /**
+     * With less points M (see {@link #computeNullSpace()}) has more than one null vector even
+     * without noise and elimination of x, y coordinates does not give its null space
+     */
+    public static final int MIN_POINTS_COUNT = 6;
+
+    private static final int MAX_JACOBI_SWEEPS = 50;
+    private static final int BETAS_ITERATIONS = 5;
+    private static final int MAX_REFINE_ITERATIONS = 50;
+    private static final double INITIAL_LAMBDA = 1e-3;
+    private static final double MIN_LAMBDA = 1e-9;
+    private static final double MAX_LAMBDA = 1e9;
+    private static final double EPS = 1e-12;
+
+    // indices of control points which are used in L_6x10 and rho
+    private static final int[][] PAIRS = {{0, 1}, {0, 2}, {0, 3}, {1, 2}, {1, 3}, {2, 3}};
+    // columns of L_6x10 which are used by each of the betas approximations
+    private static final int[][] BETAS_COLUMNS = {{0, 1, 3, 6}, {0, 1, 2}, {0, 1, 2, 3, 4}};
+
+    private final double fx, fy, cx, cy, skew;
+    private int count;
+
+    // input points
+    private final double[] pws;
+    private final double[] pixels;
+    private final double[] normalized;
+
+    // EPnP
+    private final double[] alphas;
+    private final double[] pcs;
+    private final double[] cws = new double[12];
+    private final double[] ccs = new double[12];
+    private final double[] g = new double[16];
+    private final double[] gx = new double[16];
+    private final double[] gy = new double[16];
+    private final double[] px = new double[16];
+    private final double[] py = new double[16];
+    private final double[] schur = new double[16];
+    private final double[] schurValues = new double[4];
+    private final double[] schurVectors = new double[16];
+    private final int[] order = new int[4];
+    private final double[] nullSpace = new double[48];
+    private final double[] l6x10 = new double[60];
+    private final double[] rho = new double[6];
+    private final double[] betas = new double[4];
+    private final double[] cov = new double[9];
+    private final double[] covValues = new double[3];
+    private final double[] covVectors = new double[9];
+    private final double[] ccInv = new double[9];
+    private final double[] horn = new double[16];
+    private final double[] hornValues = new double[4];
+    private final double[] hornVectors = new double[16];
+
+    // least squares
+    private final double[] lsA = new double[30];
+    private final double[] lsB = new double[6];
+    private final double[] lsX = new double[5];
+    private final double[] lsDiag = new double[5];
+
+    // pose refinement
+    private final double[] jtj = new double[36];
+    private final double[] damped = new double[36];
+    private final double[] jtr = new double[6];
+    private final double[] delta = new double[6];
+    private final double[] ju = new double[6];
+    private final double[] jv = new double[6];
+    private final double[] exp = new double[9];
+    private final double[] tmp = new double[9];
+
+    // results
+    private final double[] rotation = new double[9];
+    private final double[] translation = new double[3];
+    private final double[] bestRotation = new double[9];
+    private final double[] bestTranslation = new double[3];
+    private final double[] backupRotation = new double[9];
+    private final double[] backupTranslation = new double[3];
+
+    /**
+     * @param cameraMatrix row-major 3x3 camera intrinsics matrix
+     * @param maxPointsCount maximum number of points which will be passed to the solver
+     */
+    public EpnpSolver(double[] cameraMatrix, int maxPointsCount) {
+        fx = cameraMatrix[0];
+        skew = cameraMatrix[1];
+        cx = cameraMatrix[2];
+        fy = cameraMatrix[4];
+        cy = cameraMatrix[5];
+        pws = new double[3 * maxPointsCount];
+        pixels = new double[2 * maxPointsCount];
+        normalized = new double[2 * maxPointsCount];
+        alphas = new double[4 * maxPointsCount];
+        pcs = new double[3 * maxPointsCount];
+    }
+
+    /**
+     * Finds pose of the object.
+     *
+     * @param points3d object points (x, y, z) in the object coordinate frame
+     * @param points2d their projections (x, y) on the image in pixels
+     * @param count number of points, should be at least {@link #MIN_POINTS_COUNT} and they should
+     *     not lie on the same plane
+     * @return false if pose could not be found
+     */
+    public boolean solve(float[] points3d, float[] points2d, int count) {
+        if (count < MIN_POINTS_COUNT) return false;
+        this.count = count;
+        for (int i = 0; i < count; i++) {
+            pws[3 * i] = points3d[3 * i];
+            pws[3 * i + 1] = points3d[3 * i + 1];
+            pws[3 * i + 2] = points3d[3 * i + 2];
+            var u = pixels[2 * i] = points2d[2 * i];
+            var v = pixels[2 * i + 1] = points2d[2 * i + 1];
+            var y = (v - cy) / fy;
+            normalized[2 * i] = (u - cx - skew * y) / fx;
+            normalized[2 * i + 1] = y;
+        }
+        if (!chooseControlPoints()) return false;
+        if (!computeBarycentricCoordinates()) return false;
+        if (!computeNullSpace()) return false;
+        computeL6x10();
+        computeRho();
+        // each of the EPnP solutions is refined since the one with the smallest reprojection
+        // error may still converge to the local minimum
+        var minError = Double.POSITIVE_INFINITY;
+        for (var columns : BETAS_COLUMNS) {
+            if (!findBetas(columns)) continue;
+            refineBetas();
+            if (!computeRotationAndTranslation()) continue;
+            var error = refinePose();
+            if (error < minError) {
+                minError = error;
+                System.arraycopy(rotation, 0, bestRotation, 0, 9);
+                System.arraycopy(translation, 0, bestTranslation, 0, 3);
+            }
+        }
+        if (!Double.isFinite(minError)) return false;
+        System.arraycopy(bestRotation, 0, rotation, 0, 9);
+        System.arraycopy(bestTranslation, 0, translation, 0, 3);
+        return true;
+    }
+
+    /** Rotation vector (see Rodrigues' rotation formula) of the pose found by the last solve */
+    public void getRotationVector(double[] rvec) {
+        var sin =
+                0.5
+                        * Math.sqrt(
+                                sq(rotation[7] - rotation[5])
+                                        + sq(rotation[2] - rotation[6])
+                                        + sq(rotation[3] - rotation[1]));
+        var cos = Math.max(-1, Math.min(1, (rotation[0] + rotation[4] + rotation[8] - 1) / 2));
+        var theta = Math.atan2(sin, cos);
+        if (sin > 1e-5) {
+            var k = theta / (2 * sin);
+            rvec[0] = k * (rotation[7] - rotation[5]);
+            rvec[1] = k * (rotation[2] - rotation[6]);
+            rvec[2] = k * (rotation[3] - rotation[1]);
+        } else if (cos > 0) {
+            rvec[0] = 0.5 * (rotation[7] - rotation[5]);
+            rvec[1] = 0.5 * (rotation[2] - rotation[6]);
+            rvec[2] = 0.5 * (rotation[3] - rotation[1]);
+        } else {
+            // rotation by pi, axis is found from R = 2 * axis * axis^T - I
+            var x = Math.sqrt(Math.max(0, (rotation[0] + 1) / 2));
+            var y = Math.sqrt(Math.max(0, (rotation[4] + 1) / 2));
+            var z = Math.sqrt(Math.max(0, (rotation[8] + 1) / 2));
+            if (x > EPS) {
+                y = Math.copySign(y, rotation[1]);
+                z = Math.copySign(z, rotation[2]);
+            } else {
+                z = Math.copySign(z, rotation[5]);
+            }
+            rvec[0] = theta * x;
+            rvec[1] = theta * y;
+            rvec[2] = theta * z;
+        }
+    }
+
+    /** Translation vector of the pose found by the last solve */
+    public void getTranslation(double[] tvec) {
+        System.arraycopy(translation, 0, tvec, 0, 3);
+    }
+
+    /**
+     * Projects points to the image using the pose found by the last solve.
+     *
+     * @param points3d object points (x, y, z) in the object coordinate frame
+     * @param projected where their projections (x, y) in pixels are stored
+     */
+    public void project(float[] points3d, int count, float[] projected) {
+        var r = rotation;
+        var t = translation;
+        for (int i = 0; i < count; i++) {
+            var px = points3d[3 * i];
+            var py = points3d[3 * i + 1];
+            var pz = points3d[3 * i + 2];
+            var x = r[0] * px + r[1] * py + r[2] * pz + t[0];
+            var y = r[3] * px + r[4] * py + r[5] * pz + t[1];
+            var z = r[6] * px + r[7] * py + r[8] * pz + t[2];
+            x /= z;
+            y /= z;
+            projected[2 * i] = (float) (fx * x + skew * y + cx);
+            projected[2 * i + 1] = (float) (fy * y + cy);
+        }
+    }
+
+    /**
+     * First control point is the centroid of the points, the rest are placed along the principal
+     * axes of the points.
+     *
+     * @return false if all points lie on the same plane
+     */
+    private boolean chooseControlPoints() {
+        Arrays.fill(cws, 0, 3, 0);
+        for (int i = 0; i < count; i++) {
+            for (int k = 0; k < 3; k++) cws[k] += pws[3 * i + k];
+        }
+        for (int k = 0; k < 3; k++) cws[k] /= count;
+        Arrays.fill(cov, 0);
+        for (int i = 0; i < count; i++) {
+            for (int r = 0; r < 3; r++) {
+                var dr = pws[3 * i + r] - cws[r];
+                for (int c = 0; c < 3; c++) cov[3 * r + c] += dr * (pws[3 * i + c] - cws[c]);
+            }
+        }
+        jacobi(cov, 3, covValues, covVectors);
+        var maxValue = Math.max(covValues[0], Math.max(covValues[1], covValues[2]));
+        for (int j = 0; j < 3; j++) {
+            if (covValues[j] <= maxValue * 1e-10) return false;
+            var k = Math.sqrt(covValues[j] / count);
+            for (int c = 0; c < 3; c++) cws[3 * (j + 1) + c] = cws[c] + k * covVectors[3 * c + j];
+        }
+        return true;
+    }
+
+    private boolean computeBarycentricCoordinates() {
+        // columns of CC are control points relative to the first one
+        var a = cws[3] - cws[0];
+        var b = cws[6] - cws[0];
+        var c = cws[9] - cws[0];
+        var d = cws[4] - cws[1];
+        var e = cws[7] - cws[1];
+        var f = cws[10] - cws[1];
+        var g = cws[5] - cws[2];
+        var h = cws[8] - cws[2];
+        var i = cws[11] - cws[2];
+        var det = a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g);
+        if (Math.abs(det) < EPS) return false;
+        ccInv[0] = (e * i - f * h) / det;
+        ccInv[1] = (c * h - b * i) / det;
+        ccInv[2] = (b * f - c * e) / det;
+        ccInv[3] = (f * g - d * i) / det;
+        ccInv[4] = (a * i - c * g) / det;
+        ccInv[5] = (c * d - a * f) / det;
+        ccInv[6] = (d * h - e * g) / det;
+        ccInv[7] = (b * g - a * h) / det;
+        ccInv[8] = (a * e - b * d) / det;
+        for (int p = 0; p < count; p++) {
+            var x = pws[3 * p] - cws[0];
+            var y = pws[3 * p + 1] - cws[1];
+            var z = pws[3 * p + 2] - cws[2];
+            var sum = 0.;
+            for (int j = 0; j < 3; j++) {
+                var alpha = ccInv[3 * j] * x + ccInv[3 * j + 1] * y + ccInv[3 * j + 2] * z;
+                alphas[4 * p + j + 1] = alpha;
+                sum += alpha;
+            }
+            alphas[4 * p] = 1 - sum;
+        }
+        return true;
+    }
+
+    /**
+     * Finds 4 vectors which approximate the null space of M, where M is 2n x 12 matrix of
+     * projection equations M * x = 0 and x are control points in the camera frame.
+     *
+     * <p>Instead of eigen decomposition of 12 x 12 matrix M^T * M, x and y coordinates of the
+     * control points are eliminated: for the given z coordinates (vector z) they are found as
+     * G^-1 * Gx * z and G^-1 * Gy * z. What is left is the 4 x 4 Schur complement S = Gzz - Gx *
+     * G^-1 * Gx - Gy * G^-1 * Gy, which eigen vectors with smallest eigen values give z
+     * coordinates of the null space vectors.
+     *
+     * @return false if points lie on the same plane
+     */
+    private boolean computeNullSpace() {
+        Arrays.fill(g, 0);
+        Arrays.fill(gx, 0);
+        Arrays.fill(gy, 0);
+        Arrays.fill(schur, 0);
+        for (int p = 0; p < count; p++) {
+            var x = normalized[2 * p];
+            var y = normalized[2 * p + 1];
+            var xy = x * x + y * y;
+            for (int j = 0; j < 4; j++) {
+                var aj = alphas[4 * p + j];
+                for (int k = j; k < 4; k++) {
+                    var ajk = aj * alphas[4 * p + k];
+                    g[4 * j + k] += ajk;
+                    gx[4 * j + k] += x * ajk;
+                    gy[4 * j + k] += y * ajk;
+                    schur[4 * j + k] += xy * ajk;
+                }
+            }
+        }
+        for (int j = 0; j < 4; j++) {
+            for (int k = 0; k < j; k++) {
+                g[4 * j + k] = g[4 * k + j];
+                gx[4 * j + k] = gx[4 * k + j];
+                gy[4 * j + k] = gy[4 * k + j];
+                schur[4 * j + k] = schur[4 * k + j];
+            }
+        }
+        if (!choleskyDecompose(g, 4)) return false;
+        for (int c = 0; c < 4; c++) {
+            choleskySolve(g, gx, c, px, 4);
+            choleskySolve(g, gy, c, py, 4);
+        }
+        for (int j = 0; j < 4; j++) {
+            for (int k = 0; k < 4; k++) {
+                var sum = 0.;
+                for (int i = 0; i < 4; i++)
+                    sum += gx[4 * j + i] * px[4 * i + k] + gy[4 * j + i] * py[4 * i + k];
+                schur[4 * j + k] -= sum;
+            }
+        }
+        // remove asymmetry caused by rounding errors
+        for (int j = 0; j < 4; j++) {
+            for (int k = 0; k < j; k++) {
+                var avg = (schur[4 * j + k] + schur[4 * k + j]) / 2;
+                schur[4 * j + k] = schur[4 * k + j] = avg;
+            }
+        }
+        jacobi(schur, 4, schurValues, schurVectors);
+        for (int i = 0; i < 4; i++) order[i] = i;
+        for (int i = 1; i < 4; i++) {
+            var cur = order[i];
+            var j = i - 1;
+            while (j >= 0 && schurValues[order[j]] > schurValues[cur]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = cur;
+        }
+        for (int i = 0; i < 4; i++) {
+            var z = order[i];
+            for (int j = 0; j < 4; j++) {
+                var vx = 0.;
+                var vy = 0.;
+                for (int k = 0; k < 4; k++) {
+                    vx += px[4 * j + k] * schurVectors[4 * k + z];
+                    vy += py[4 * j + k] * schurVectors[4 * k + z];
+                }
+                nullSpace[12 * i + 3 * j] = vx;
+                nullSpace[12 * i + 3 * j + 1] = vy;
+                nullSpace[12 * i + 3 * j + 2] = schurVectors[4 * j + z];
+            }
+        }
+        return true;
+    }
+
+    /** Component k of the null space vector with i-th smallest eigen value */
+    private double v(int i, int k) {
+        return nullSpace[12 * i + k];
+    }
+
+    private void computeL6x10() {
+        for (int row = 0; row < 6; row++) {
+            var a = PAIRS[row][0];
+            var b = PAIRS[row][1];
+            // dv[i] . dv[j] where dv[i] is the difference between control points a and b in
+            // eigen vector i
+            var l = 10 * row;
+            l6x10[l] = dot(0, 0, a, b);
+            l6x10[l + 1] = 2 * dot(0, 1, a, b);
+            l6x10[l + 2] = dot(1, 1, a, b);
+            l6x10[l + 3] = 2 * dot(0, 2, a, b);
+            l6x10[l + 4] = 2 * dot(1, 2, a, b);
+            l6x10[l + 5] = dot(2, 2, a, b);
+            l6x10[l + 6] = 2 * dot(0, 3, a, b);
+            l6x10[l + 7] = 2 * dot(1, 3, a, b);
+            l6x10[l + 8] = 2 * dot(2, 3, a, b);
+            l6x10[l + 9] = dot(3, 3, a, b);
+        }
+    }
+
+    private double dot(int i, int j, int a, int b) {
+        var sum = 0.;
+        for (int k = 0; k < 3; k++)
+            sum += (v(i, 3 * a + k) - v(i, 3 * b + k)) * (v(j, 3 * a + k) - v(j, 3 * b + k));
+        return sum;
+    }
+
+    private void computeRho() {
+        for (int row = 0; row < 6; row++) {
+            var a = 3 * PAIRS[row][0];
+            var b = 3 * PAIRS[row][1];
+            rho[row] =
+                    sq(cws[a] - cws[b])
+                            + sq(cws[a + 1] - cws[b + 1])
+                            + sq(cws[a + 2] - cws[b + 2]);
+        }
+    }
+
+    /**
+     * Approximates betas by solving L * B = rho for the subset of products of betas
+     *
+     * @return false if approximation failed
+     */
+    private boolean findBetas(int[] columns) {
+        var n = columns.length;
+        for (int row = 0; row < 6; row++) {
+            for (int c = 0; c < n; c++) lsA[n * row + c] = l6x10[10 * row + columns[c]];
+            lsB[row] = rho[row];
+        }
+        if (!solveLeastSquares(6, n)) return false;
+        Arrays.fill(betas, 0);
+        // columns: B11 B12 B22 B13 B23 B33 B14 B24 B34 B44
+        if (n == 4) {
+            betas[0] = Math.sqrt(Math.abs(lsX[0]));
+            if (betas[0] < EPS) return false;
+            var sign = lsX[0] < 0 ? -1 : 1;
+            betas[1] = sign * lsX[1] / betas[0];
+            betas[2] = sign * lsX[2] / betas[0];
+            betas[3] = sign * lsX[3] / betas[0];
+        } else {
+            var sign = lsX[0] < 0 ? -1 : 1;
+            betas[0] = Math.sqrt(Math.abs(lsX[0]));
+            betas[1] = sign * lsX[2] > 0 ? Math.sqrt(Math.abs(lsX[2])) : 0;
+            if (lsX[1] < 0) betas[0] = -betas[0];
+            if (n == 5) {
+                if (Math.abs(betas[0]) < EPS) return false;
+                betas[2] = lsX[3] / betas[0];
+            }
+        }
+        return true;
+    }
+
+    /** Gauss-Newton refinement of betas */
+    private void refineBetas() {
+        for (int iter = 0; iter < BETAS_ITERATIONS; iter++) {
+            var b0 = betas[0];
+            var b1 = betas[1];
+            var b2 = betas[2];
+            var b3 = betas[3];
+            for (int row = 0; row < 6; row++) {
+                var l = 10 * row;
+                var a = 4 * row;
+                lsA[a] =
+                        2 * l6x10[l] * b0
+                                + l6x10[l + 1] * b1
+                                + l6x10[l + 3] * b2
+                                + l6x10[l + 6] * b3;
+                lsA[a + 1] =
+                        l6x10[l + 1] * b0
+                                + 2 * l6x10[l + 2] * b1
+                                + l6x10[l + 4] * b2
+                                + l6x10[l + 7] * b3;
+                lsA[a + 2] =
+                        l6x10[l + 3] * b0
+                                + l6x10[l + 4] * b1
+                                + 2 * l6x10[l + 5] * b2
+                                + l6x10[l + 8] * b3;
+                lsA[a + 3] =
+                        l6x10[l + 6] * b0
+                                + l6x10[l + 7] * b1
+                                + l6x10[l + 8] * b2
+                                + 2 * l6x10[l + 9] * b3;
+                lsB[row] =
+                        rho[row]
+                                - (l6x10[l] * b0 * b0
+                                        + l6x10[l + 1] * b0 * b1
+                                        + l6x10[l + 2] * b1 * b1
+                                        + l6x10[l + 3] * b0 * b2
+                                        + l6x10[l + 4] * b1 * b2
+                                        + l6x10[l + 5] * b2 * b2
+                                        + l6x10[l + 6] * b0 * b3
+                                        + l6x10[l + 7] * b1 * b3
+                                        + l6x10[l + 8] * b2 * b3
+                                        + l6x10[l + 9] * b3 * b3);
+            }
+            if (!solveLeastSquares(6, 4)) return;
+            for (int i = 0; i < 4; i++) betas[i] += lsX[i];
+        }
+    }
+
+    /**
+     * Finds pose from the control points in camera frame which are defined by current betas.
+     *
+     * @return false if some of the points are behind the camera
+     */
+    private boolean computeRotationAndTranslation() {
+        for (int k = 0; k < 12; k++) {
+            ccs[k] = 0;
+            for (int i = 0; i < 4; i++) ccs[k] += betas[i] * v(i, k);
+        }
+        for (int p = 0; p < count; p++) {
+            for (int k = 0; k < 3; k++) {
+                var sum = 0.;
+                for (int j = 0; j < 4; j++) sum += alphas[4 * p + j] * ccs[3 * j + k];
+                pcs[3 * p + k] = sum;
+            }
+        }
+        // points should be in front of the camera
+        if (pcs[2] < 0) {
+            for (int k = 0; k < 3 * count; k++) pcs[k] = -pcs[k];
+        }
+        alignPoints(rotation, translation);
+        return Double.isFinite(computeSquaredError(rotation, translation));
+    }
+
+    /**
+     * Finds rotation and translation which align object points with points in camera frame
+     * ({@link #pcs}). Uses Horn's closed form solution with unit quaternions.
+     */
+    private void alignPoints(double[] r, double[] t) {
+        double wx = 0, wy = 0, wz = 0, mx = 0, my = 0, mz = 0;
+        for (int p = 0; p < count; p++) {
+            wx += pws[3 * p];
+            wy += pws[3 * p + 1];
+            wz += pws[3 * p + 2];
+            mx += pcs[3 * p];
+            my += pcs[3 * p + 1];
+            mz += pcs[3 * p + 2];
+        }
+        wx /= count;
+        wy /= count;
+        wz /= count;
+        mx /= count;
+        my /= count;
+        mz /= count;
+        double sxx = 0, sxy = 0, sxz = 0, syx = 0, syy = 0, syz = 0, szx = 0, szy = 0, szz = 0;
+        for (int p = 0; p < count; p++) {
+            var ax = pws[3 * p] - wx;
+            var ay = pws[3 * p + 1] - wy;
+            var az = pws[3 * p + 2] - wz;
+            var bx = pcs[3 * p] - mx;
+            var by = pcs[3 * p + 1] - my;
+            var bz = pcs[3 * p + 2] - mz;
+            sxx += ax * bx;
+            sxy += ax * by;
+            sxz += ax * bz;
+            syx += ay * bx;
+            syy += ay * by;
+            syz += ay * bz;
+            szx += az * bx;
+            szy += az * by;
+            szz += az * bz;
+        }
+        horn[0] = sxx + syy + szz;
+        horn[1] = horn[4] = syz - szy;
+        horn[2] = horn[8] = szx - sxz;
+        horn[3] = horn[12] = sxy - syx;
+        horn[5] = sxx - syy - szz;
+        horn[6] = horn[9] = sxy + syx;
+        horn[7] = horn[13] = szx + sxz;
+        horn[10] = -sxx + syy - szz;
+        horn[11] = horn[14] = syz + szy;
+        horn[15] = -sxx - syy + szz;
+        jacobi(horn, 4, hornValues, hornVectors);
+        var max = 0;
+        for (int i = 1; i < 4; i++) if (hornValues[i] > hornValues[max]) max = i;
+        var qw = hornVectors[max];
+        var qx = hornVectors[4 + max];
+        var qy = hornVectors[8 + max];
+        var qz = hornVectors[12 + max];
+        r[0] = 1 - 2 * (qy * qy + qz * qz);
+        r[1] = 2 * (qx * qy - qw * qz);
+        r[2] = 2 * (qx * qz + qw * qy);
+        r[3] = 2 * (qx * qy + qw * qz);
+        r[4] = 1 - 2 * (qx * qx + qz * qz);
+        r[5] = 2 * (qy * qz - qw * qx);
+        r[6] = 2 * (qx * qz - qw * qy);
+        r[7] = 2 * (qy * qz + qw * qx);
+        r[8] = 1 - 2 * (qx * qx + qy * qy);
+        t[0] = mx - (r[0] * wx + r[1] * wy + r[2] * wz);
+        t[1] = my - (r[3] * wx + r[4] * wy + r[5] * wz);
+        t[2] = mz - (r[6] * wx + r[7] * wy + r[8] * wz);
+    }
+
+    /**
+     * Sum of squared distances in pixels between the points and their projections. Infinite if
+     * some of the points are behind the camera.
+     */
+    private double computeSquaredError(double[] r, double[] t) {
+        var sum = 0.;
+        for (int p = 0; p < count; p++) {
+            var px = pws[3 * p];
+            var py = pws[3 * p + 1];
+            var pz = pws[3 * p + 2];
+            var x = r[0] * px + r[1] * py + r[2] * pz + t[0];
+            var y = r[3] * px + r[4] * py + r[5] * pz + t[1];
+            var z = r[6] * px + r[7] * py + r[8] * pz + t[2];
+            if (z <= 0) return Double.POSITIVE_INFINITY;
+            x /= z;
+            y /= z;
+            var du = fx * x + skew * y + cx - pixels[2 * p];
+            var dv = fy * y + cy - pixels[2 * p + 1];
+            sum += du * du + dv * dv;
+        }
+        return sum;
+    }
+
+    /**
+     * Minimizes reprojection error of the current pose with Gauss-Newton iterations. Steps are
+     * damped as in Levenberg-Marquardt so that error never increases. Rotation is updated with
+     * small rotations applied on the left: R' = exp(w) * R, t' = exp(w) * t + dt.
+     *
+     * @return sum of squared reprojection errors
+     */
+    private double refinePose() {
+        var error = computeSquaredError(rotation, translation);
+        var lambda = INITIAL_LAMBDA;
+        for (int iter = 0; iter < MAX_REFINE_ITERATIONS; iter++) {
+            computeNormalEquations();
+            var newError = Double.POSITIVE_INFINITY;
+            while (lambda < MAX_LAMBDA) {
+                System.arraycopy(jtj, 0, damped, 0, 36);
+                for (int i = 0; i < 6; i++) damped[7 * i] *= 1 + lambda;
+                if (solveCholesky(damped, jtr, delta, 6)) {
+                    System.arraycopy(rotation, 0, backupRotation, 0, 9);
+                    System.arraycopy(translation, 0, backupTranslation, 0, 3);
+                    applyUpdate();
+                    newError = computeSquaredError(rotation, translation);
+                    if (newError < error) break;
+                    System.arraycopy(backupRotation, 0, rotation, 0, 9);
+                    System.arraycopy(backupTranslation, 0, translation, 0, 3);
+                }
+                lambda *= 10;
+            }
+            if (!(newError < error)) break;
+            lambda = Math.max(lambda / 10, MIN_LAMBDA);
+            var converged = error - newError < 1e-10 * error;
+            error = newError;
+            if (converged) break;
+        }
+        return error;
+    }
+
+    /** J^T * J and -J^T * r where J is Jacobian of the reprojection residuals r */
+    private void computeNormalEquations() {
+        Arrays.fill(jtj, 0);
+        Arrays.fill(jtr, 0);
+        var r = rotation;
+        var t = translation;
+        for (int p = 0; p < count; p++) {
+            var px = pws[3 * p];
+            var py = pws[3 * p + 1];
+            var pz = pws[3 * p + 2];
+            var x = r[0] * px + r[1] * py + r[2] * pz + t[0];
+            var y = r[3] * px + r[4] * py + r[5] * pz + t[1];
+            var z = r[6] * px + r[7] * py + r[8] * pz + t[2];
+            var iz = 1 / z;
+            x *= iz;
+            y *= iz;
+            var ru = fx * x + skew * y + cx - pixels[2 * p];
+            var rv = fy * y + cy - pixels[2 * p + 1];
+            // derivatives of normalized x and y by w
+            var xw0 = -x * y;
+            var xw1 = 1 + x * x;
+            var xw2 = -y;
+            var yw0 = -1 - y * y;
+            var yw1 = x * y;
+            var yw2 = x;
+            ju[0] = fx * xw0 + skew * yw0;
+            ju[1] = fx * xw1 + skew * yw1;
+            ju[2] = fx * xw2 + skew * yw2;
+            ju[3] = fx * iz;
+            ju[4] = skew * iz;
+            ju[5] = -(fx * x + skew * y) * iz;
+            jv[0] = fy * yw0;
+            jv[1] = fy * yw1;
+            jv[2] = fy * yw2;
+            jv[3] = 0;
+            jv[4] = fy * iz;
+            jv[5] = -fy * y * iz;
+            for (int i = 0; i < 6; i++) {
+                jtr[i] -= ju[i] * ru + jv[i] * rv;
+                for (int j = i; j < 6; j++) jtj[6 * i + j] += ju[i] * ju[j] + jv[i] * jv[j];
+            }
+        }
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < i; j++) jtj[6 * i + j] = jtj[6 * j + i];
+        }
+    }
+
+    private void applyUpdate() {
+        var w0 = delta[0];
+        var w1 = delta[1];
+        var w2 = delta[2];
+        var theta = Math.sqrt(w0 * w0 + w1 * w1 + w2 * w2);
+        double a, b;
+        if (theta < 1e-8) {
+            a = 1;
+            b = 0.5;
+        } else {
+            a = Math.sin(theta) / theta;
+            b = (1 - Math.cos(theta)) / (theta * theta);
+        }
+        // Rodrigues' formula: exp = I + a * [w]x + b * [w]x^2
+        exp[0] = 1 - b * (w1 * w1 + w2 * w2);
+        exp[1] = -a * w2 + b * w0 * w1;
+        exp[2] = a * w1 + b * w0 * w2;
+        exp[3] = a * w2 + b * w0 * w1;
+        exp[4] = 1 - b * (w0 * w0 + w2 * w2);
+        exp[5] = -a * w0 + b * w1 * w2;
+        exp[6] = -a * w1 + b * w0 * w2;
+        exp[7] = a * w0 + b * w1 * w2;
+        exp[8] = 1 - b * (w0 * w0 + w1 * w1);
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                tmp[3 * r + c] =
+                        exp[3 * r] * rotation[c]
+                                + exp[3 * r + 1] * rotation[3 + c]
+                                + exp[3 * r + 2] * rotation[6 + c];
+            }
+        }
+        System.arraycopy(tmp, 0, rotation, 0, 9);
+        var t0 = translation[0];
+        var t1 = translation[1];
+        var t2 = translation[2];
+        translation[0] = exp[0] * t0 + exp[1] * t1 + exp[2] * t2 + delta[3];
+        translation[1] = exp[3] * t0 + exp[4] * t1 + exp[5] * t2 + delta[4];
+        translation[2] = exp[6] * t0 + exp[7] * t1 + exp[8] * t2 + delta[5];
+    }
+
+    /**
+     * Solves {@link #lsA} * {@link #lsX} = {@link #lsB} in the least squares sense with
+     * Householder QR decomposition. Both {@link #lsA} and {@link #lsB} are overwritten.
+     *
+     * @return false if matrix is rank deficient
+     */
+    private boolean solveLeastSquares(int rows, int cols) {
+        var a = lsA;
+        var b = lsB;
+        for (int k = 0; k < cols; k++) {
+            var norm = 0.;
+            for (int i = k; i < rows; i++) norm += a[cols * i + k] * a[cols * i + k];
+            norm = Math.sqrt(norm);
+            if (norm < EPS) return false;
+            var alpha = a[cols * k + k] > 0 ? -norm : norm;
+            a[cols * k + k] -= alpha;
+            var vnorm = 0.;
+            for (int i = k; i < rows; i++) vnorm += a[cols * i + k] * a[cols * i + k];
+            for (int j = k + 1; j < cols; j++) {
+                var s = 0.;
+                for (int i = k; i < rows; i++) s += a[cols * i + k] * a[cols * i + j];
+                var f = 2 * s / vnorm;
+                for (int i = k; i < rows; i++) a[cols * i + j] -= f * a[cols * i + k];
+            }
+            var s = 0.;
+            for (int i = k; i < rows; i++) s += a[cols * i + k] * b[i];
+            var f = 2 * s / vnorm;
+            for (int i = k; i < rows; i++) b[i] -= f * a[cols * i + k];
+            lsDiag[k] = alpha;
+        }
+        for (int k = cols - 1; k >= 0; k--) {
+            var sum = b[k];
+            for (int j = k + 1; j < cols; j++) sum -= a[cols * k + j] * lsX[j];
+            lsX[k] = sum / lsDiag[k];
+        }
+        return true;
+    }
+
+    /**
+     * Solves a * x = b for symmetric positive definite matrix a. Matrix a is overwritten by its
+     * Cholesky decomposition.
+     */
+    private static boolean solveCholesky(double[] a, double[] b, double[] x, int n) {
+        if (!choleskyDecompose(a, n)) return false;
+        for (int i = 0; i < n; i++) {
+            var s = b[i];
+            for (int k = 0; k < i; k++) s -= a[n * i + k] * x[k];
+            x[i] = s / a[n * i + i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            var s = x[i];
+            for (int k = i + 1; k < n; k++) s -= a[n * k + i] * x[k];
+            x[i] = s / a[n * i + i];
+        }
+        return true;
+    }
+
+    /**
+     * Replaces lower triangle of symmetric positive definite matrix a with L, where a = L * L^T
+     *
+     * @return false if matrix is not positive definite
+     */
+    private static boolean choleskyDecompose(double[] a, int n) {
+        for (int j = 0; j < n; j++) {
+            var d = a[n * j + j];
+            for (int k = 0; k < j; k++) d -= a[n * j + k] * a[n * j + k];
+            if (d <= 0) return false;
+            d = Math.sqrt(d);
+            a[n * j + j] = d;
+            for (int i = j + 1; i < n; i++) {
+                var s = a[n * i + j];
+                for (int k = 0; k < j; k++) s -= a[n * i + k] * a[n * j + k];
+                a[n * i + j] = s / d;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solves a * x = b for column c of b, where a is decomposed with {@link
+     * #choleskyDecompose(double[], int)}. Result is stored to column c of x.
+     */
+    private static void choleskySolve(double[] a, double[] b, int c, double[] x, int n) {
+        for (int i = 0; i < n; i++) {
+            var s = b[n * i + c];
+            for (int k = 0; k < i; k++) s -= a[n * i + k] * x[n * k + c];
+            x[n * i + c] = s / a[n * i + i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            var s = x[n * i + c];
+            for (int k = i + 1; k < n; k++) s -= a[n * k + i] * x[n * k + c];
+            x[n * i + c] = s / a[n * i + i];
+        }
+    }
+
+    /**
+     * Eigen decomposition of symmetric matrix with cyclic Jacobi method. Matrix a is overwritten.
+     *
+     * @param vectors row-major matrix which columns are the eigen vectors
+     */
+    private static void jacobi(double[] a, int n, double[] values, double[] vectors) {
+        Arrays.fill(vectors, 0, n * n, 0);
+        for (int i = 0; i < n; i++) vectors[n * i + i] = 1;
+        for (int sweep = 0; sweep < MAX_JACOBI_SWEEPS; sweep++) {
+            var off = 0.;
+            var diag = 0.;
+            for (int p = 0; p < n; p++) {
+                diag += a[n * p + p] * a[n * p + p];
+                for (int q = p + 1; q < n; q++) off += a[n * p + q] * a[n * p + q];
+            }
+            if (off <= 1e-30 * diag) break;
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    var apq = a[n * p + q];
+                    if (apq == 0) continue;
+                    var theta = (a[n * q + q] - a[n * p + p]) / (2 * apq);
+                    var t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) t = 1;
+                    var c = 1 / Math.sqrt(t * t + 1);
+                    var s = t * c;
+                    // matrix is symmetric so only rows p and q (and same columns) change
+                    for (int k = 0; k < n; k++) {
+                        if (k == p || k == q) continue;
+                        var akp = a[n * k + p];
+                        var akq = a[n * k + q];
+                        a[n * k + p] = a[n * p + k] = c * akp - s * akq;
+                        a[n * k + q] = a[n * q + k] = s * akp + c * akq;
+                    }
+                    a[n * p + p] -= t * apq;
+                    a[n * q + q] += t * apq;
+                    a[n * p + q] = a[n * q + p] = 0;
+                    for (int k = 0; k < n; k++) {
+                        var vkp = vectors[n * k + p];
+                        var vkq = vectors[n * k + q];
+                        vectors[n * k + p] = c * vkp - s * vkq;
+                        vectors[n * k + q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) values[i] = a[n * i + i];
+    }
+
+    private static double sq(double v) {
+        return v * v;
+    }
+}
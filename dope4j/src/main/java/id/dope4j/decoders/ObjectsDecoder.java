@@ -22,7 +22,15 @@ import static id.dope4j.impl.Utils.debugNDArray;
 import ai.djl.ndarray.NDArray;
 import id.deeplearningutils.modality.cv.output.Cuboid3D;
 import id.dope4j.DopeConstants;
+import id.dope4j.PnpConfig;
 import id.dope4j.exceptions.DopeException;
+import id.dope4j.impl.BatchContext;
+import id.dope4j.impl.LatencyMetrics;
+import id.dope4j.impl.MemoryMetrics;
+import id.dope4j.impl.NDArrayScope;
+import id.dope4j.impl.jfr.FindKeypointsEvent;
+import id.dope4j.impl.jfr.MatchVerticesEvent;
+import id.dope4j.impl.jfr.PnpEvent;
 import id.dope4j.io.InputImage;
 import id.dope4j.io.OutputKeypoints;
 import id.dope4j.io.OutputObjects2D;
@@ -33,8 +41,7 @@ import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.metrics.LongCounter;
 import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.api.metrics.Meter;
-import java.time.Duration;
-import java.time.Instant;
+import java.nio.FloatBuffer;
 import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,7 +56,7 @@ import org.slf4j.LoggerFactory;
 public class ObjectsDecoder implements DopeDecoder<OutputPoses> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ObjectsDecoder.class);
-    private static final DopeDecoderUtils decoderUtils = new DopeDecoderUtils();
+    private final DopeDecoderUtils decoderUtils = new DopeDecoderUtils();
     private final Meter METER = GlobalOpenTelemetry.getMeter(ObjectsDecoder.class.getSimpleName());
     private final LongCounter INPUT_TENSORS_TOTAL =
             METER.counterBuilder("input_tensors_total")
@@ -65,10 +72,7 @@ public class ObjectsDecoder implements DopeDecoder<OutputPoses> {
                     .ofLongs()
                     .build();
     private final LongHistogram DECODE_TIME_METER =
-            METER.histogramBuilder("decode_time_ms")
-                    .setDescription("Decode time in millis")
-                    .ofLongs()
-                    .build();
+            LatencyMetrics.createHistogram(METER, "decode", "Decode time");
 
     /**
      * Decoding DOPE output is multistep process. Inspector allows to introspect every step of this
@@ -103,6 +107,7 @@ public class ObjectsDecoder implements DopeDecoder<OutputPoses> {
     private Optional<Inspector.Builder> inspectorBuilder = Optional.empty();
     public CameraInfo cameraInfo;
     private Cuboid3D objectCuboidModel;
+    private PnpConfig pnpConfig;
 
     /**
      * @param threshold keypoints threshold value (see {@link DopeConstants#DEFAULT_PEAK_THRESHOLD}
@@ -118,28 +123,66 @@ public class ObjectsDecoder implements DopeDecoder<OutputPoses> {
             Cuboid3D cuboid3DModel,
             CameraInfo cameraInfo,
             Inspector.Builder inspectorBuilder) {
+        this(threshold, cuboid3DModel, cameraInfo, PnpConfig.DEFAULT, inspectorBuilder);
+    }
+
+    /**
+     * @param pnpConfig PnP solver which is used to calculate poses of the detected objects
+     */
+    public ObjectsDecoder(
+            double threshold,
+            Cuboid3D cuboid3DModel,
+            CameraInfo cameraInfo,
+            PnpConfig pnpConfig,
+            Inspector.Builder inspectorBuilder) {
         this.threshold = threshold;
         this.objectCuboidModel = cuboid3DModel;
         this.cameraInfo = cameraInfo;
+        this.pnpConfig = pnpConfig;
         this.inspectorBuilder = Optional.ofNullable(inspectorBuilder);
     }
 
     @Override
     public Optional<OutputPoses> decode(InputImage inputImage, NDArray outputTensor)
             throws DopeException {
-        INPUT_TENSORS_TOTAL.add(1);
+        if (!BatchContext.isWarmup()) INPUT_TENSORS_TOTAL.add(1);
         LOGGER.debug("Input image: {}", inputImage);
-        debugNDArray("Input tensor", outputTensor, "0:3, 0:3, 0:3");
-        var inspectorOpt = inspectorBuilder.map(builder -> builder.build(inputImage));
+        // slices of the tensor are freed as soon as the image is decoded
+        try (var scope = new NDArrayScope(outputTensor, inputImage)) {
+            debugNDArray("Input tensor", outputTensor, "0:3, 0:3, 0:3");
+            var poses =
+                    decode(
+                            inputImage,
+                            outputTensor,
+                            inspectorBuilder.map(b -> b.build(inputImage)));
+            // sampled before slices are freed so that they are included
+            MemoryMetrics.sampleNativeMemory(scope.getManager().getParentManager());
+            return poses;
+        }
+    }
+
+    private Optional<OutputPoses> decode(
+            InputImage inputImage, NDArray outputTensor, Optional<Inspector> inspectorOpt) {
         try {
-            var startAt = Instant.now();
-            var output = decoderUtils.readDopeOutput(outputTensor);
+            var startAt = System.nanoTime();
+            var decodeAllocatedAt = MemoryMetrics.allocatedBytes();
+            var resolution = inputImage.resolution();
+            var output = decoderUtils.readDopeOutput(outputTensor, resolution);
+            var keypointsEvent = new FindKeypointsEvent();
+            keypointsEvent.begin();
+            var allocatedAt = MemoryMetrics.allocatedBytes();
             var keypoints = decoderUtils.findKeypoints(output, threshold);
+            allocatedAt = MemoryMetrics.record("findkeypoints", allocatedAt);
+            keypointsEvent.commit(inputImage, keypoints.keypointsCount());
+            var matchEvent = new MatchVerticesEvent();
+            matchEvent.begin();
             var objects2d = decoderUtils.findObjects(keypoints, output.affinities());
-            var poses = decoderUtils.findPoses(objects2d, objectCuboidModel, cameraInfo);
-            KEYPOINTS_PER_IMAGE.record(keypoints.keypointsCount());
-            DETECTED_OBJECTS_TOTAL.add(objects2d.size());
-            DECODE_TIME_METER.record(Duration.between(startAt, Instant.now()).toMillis());
+            MemoryMetrics.record("matcher", allocatedAt);
+            matchEvent.commit(inputImage, keypoints.keypointsCount(), objects2d.size());
+            var poses = findPoses(inputImage, objects2d);
+            recordDetections(keypoints, objects2d);
+            LatencyMetrics.record(DECODE_TIME_METER, startAt);
+            MemoryMetrics.record("decode", decodeAllocatedAt);
             inspectorOpt.ifPresent(inspector -> inspector.inspectTensor(output));
             inspectorOpt.ifPresent(inspector -> inspector.inspectKeypoints(keypoints));
             inspectorOpt.ifPresent(inspector -> inspector.inspectOjects2D(objects2d));
@@ -149,4 +192,67 @@ public class ObjectsDecoder implements DopeDecoder<OutputPoses> {
             inspectorOpt.ifPresent(Inspector::close);
         }
     }
+
+    /**
+     * Reads Belief Maps and affinity fields directly from the buffer without copying it to {@link
+     * NDArray}. When {@link Inspector} is set, it requires {@link OutputTensor} so the buffer is
+     * copied as in the default implementation.
+     */
+    @Override
+    public Optional<OutputPoses> decode(InputImage inputImage, FloatBuffer outputTensor)
+            throws DopeException {
+        if (inspectorBuilder.isPresent())
+            return DopeDecoder.super.decode(inputImage, outputTensor);
+        if (!BatchContext.isWarmup()) INPUT_TENSORS_TOTAL.add(1);
+        LOGGER.debug("Input image: {}", inputImage);
+        var startAt = System.nanoTime();
+        var decodeAllocatedAt = MemoryMetrics.allocatedBytes();
+        var resolution = inputImage.resolution();
+        var keypointsEvent = new FindKeypointsEvent();
+        keypointsEvent.begin();
+        var allocatedAt = MemoryMetrics.allocatedBytes();
+        var keypoints = decoderUtils.findKeypoints(outputTensor, resolution, threshold);
+        allocatedAt = MemoryMetrics.record("findkeypoints", allocatedAt);
+        keypointsEvent.commit(inputImage, keypoints.keypointsCount());
+        var matchEvent = new MatchVerticesEvent();
+        matchEvent.begin();
+        var objects2d = decoderUtils.findObjects(keypoints, outputTensor, resolution);
+        MemoryMetrics.record("matcher", allocatedAt);
+        matchEvent.commit(inputImage, keypoints.keypointsCount(), objects2d.size());
+        var poses = findPoses(inputImage, objects2d);
+        recordDetections(keypoints, objects2d);
+        LatencyMetrics.record(DECODE_TIME_METER, startAt);
+        MemoryMetrics.record("decode", decodeAllocatedAt);
+        MemoryMetrics.sampleNativeMemory();
+        return Optional.of(poses);
+    }
+
+    /** Detections of warmup images are not counted (see {@link BatchContext#startWarmup(int)}) */
+    private void recordDetections(OutputKeypoints keypoints, OutputObjects2D objects2d) {
+        if (BatchContext.isWarmup()) return;
+        KEYPOINTS_PER_IMAGE.record(keypoints.keypointsCount());
+        DETECTED_OBJECTS_TOTAL.add(objects2d.size());
+    }
+
+    private OutputPoses findPoses(InputImage inputImage, OutputObjects2D objects2d) {
+        var event = new PnpEvent();
+        event.begin();
+        var allocatedAt = MemoryMetrics.allocatedBytes();
+        var poses =
+                decoderUtils.findPoses(
+                        objects2d,
+                        objectCuboidModel,
+                        cameraInfo,
+                        inputImage.resolution(),
+                        pnpConfig);
+        MemoryMetrics.record("pose_calc", allocatedAt);
+        event.commit(inputImage, pnpConfig.method(), objects2d.size(), poses.size());
+        return poses;
+    }
+
+    /** Releases native memory which decoder keeps between the images */
+    @Override
+    public void close() {
+        decoderUtils.close();
+    }
 }
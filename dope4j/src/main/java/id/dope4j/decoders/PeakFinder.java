@@ -0,0 +1,169 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.decoders;
+
+import id.dope4j.DopeConstants;
+import java.util.Arrays;
+
+/**
+ * Finds peaks on the Belief Map and recalculates their coordinates with respect to weighted
+ * average of the Belief Map values around them.
+ *
+ * <p>Same as find_object_poses from original DOPE decoder but results are stored in the arrays
+ * which are reused between the Belief Maps, so that search of peaks does not allocate them again.
+ *
+ * <p>Not thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class PeakFinder {
+
+    private static final int INITIAL_PEAKS_CAPACITY = 32;
+    private int[] peaksX = new int[INITIAL_PEAKS_CAPACITY];
+    private int[] peaksY = new int[INITIAL_PEAKS_CAPACITY];
+    private float[] averagedX = new float[INITIAL_PEAKS_CAPACITY];
+    private float[] averagedY = new float[INITIAL_PEAKS_CAPACITY];
+    private int peaksCount;
+
+    /**
+     * Peak is a point of the blurred Belief Map which is not less than any of its 4 neighbours
+     * (those outside of the map are considered zero) and which value is above the blurred
+     * threshold. Value of the same point on the original Belief Map should be above the threshold.
+     *
+     * <p>Peaks are ordered by rows and then by columns. Any results of previous search are
+     * discarded.
+     *
+     * @param blurred blurred Belief Map stored in row-major order
+     * @param belief original Belief Map stored in row-major order
+     * @param shape shape of both Belief Maps
+     * @param blurredThreshold see {@link DopeConstants#DEFAULT_BLURRED_PEAK_THRESHOLD}
+     * @param threshold see {@link DopeConstants#DEFAULT_PEAK_THRESHOLD}
+     * @return number of peaks found
+     */
+    public int findPeaks(
+            float[] blurred,
+            float[] belief,
+            int[] shape,
+            double blurredThreshold,
+            double threshold) {
+        var rows = shape[0];
+        var cols = shape[1];
+        peaksCount = 0;
+        for (int y = 0; y < rows; y++) {
+            var rowOffset = y * cols;
+            for (int x = 0; x < cols; x++) {
+                var offset = rowOffset + x;
+                var value = blurred[offset];
+                if (value <= blurredThreshold) continue;
+                if (x > 0 && value < blurred[offset - 1]) continue;
+                if (x < cols - 1 && value < blurred[offset + 1]) continue;
+                if (y > 0 && value < blurred[offset - cols]) continue;
+                if (y < rows - 1 && value < blurred[offset + cols]) continue;
+                if (belief[offset] <= threshold) continue;
+                addPeak(x, y);
+            }
+        }
+        return peaksCount;
+    }
+
+    /**
+     * Calculates coordinates of each peak as an average of coordinates of the points inside the
+     * window around it, weighted by their values on the original Belief Map. There is one averaged
+     * point per each peak.
+     *
+     * <p>Peaks whose window weights sum up to zero cannot be averaged and keep their original
+     * coordinates.
+     *
+     * @param belief original Belief Map stored in row-major order
+     * @param shape shape of the Belief Map
+     * @param window size of the window (see {@link DopeConstants#PEAKS_WEIGHTED_AVERAGE_WINDOW})
+     */
+    public void applyWeightedAverage(float[] belief, int[] shape, int window) {
+        var rows = shape[0];
+        var cols = shape[1];
+        var range = window / 2;
+        for (int i = 0; i < peaksCount; i++) {
+            var minY = Math.max(0, peaksY[i] - range);
+            var maxY = Math.min(rows - 1, peaksY[i] + range);
+            var minX = Math.max(0, peaksX[i] - range);
+            var maxX = Math.min(cols - 1, peaksX[i] + range);
+            double weights = 0, sumX = 0, sumY = 0;
+            for (int y = minY; y <= maxY; y++) {
+                var rowOffset = y * cols;
+                for (int x = minX; x <= maxX; x++) {
+                    var weight = belief[rowOffset + x];
+                    weights += weight;
+                    sumX += weight * x;
+                    sumY += weight * y;
+                }
+            }
+            if (weights == 0) {
+                averagedX[i] = peaksX[i];
+                averagedY[i] = peaksY[i];
+            } else {
+                averagedX[i] = (float) (sumX / weights);
+                averagedY[i] = (float) (sumY / weights);
+            }
+        }
+    }
+
+    public int peaksCount() {
+        return peaksCount;
+    }
+
+    public int peakX(int index) {
+        return peaksX[index];
+    }
+
+    public int peakY(int index) {
+        return peaksY[index];
+    }
+
+    /** Available only after {@link #applyWeightedAverage(float[], int[], int)} */
+    public float averagedX(int index) {
+        return averagedX[index];
+    }
+
+    /** Available only after {@link #applyWeightedAverage(float[], int[], int)} */
+    public float averagedY(int index) {
+        return averagedY[index];
+    }
+
+    private void addPeak(int x, int y) {
+        if (peaksCount == peaksX.length) {
+            var capacity = peaksCount * 2;
+            peaksX = Arrays.copyOf(peaksX, capacity);
+            peaksY = Arrays.copyOf(peaksY, capacity);
+            averagedX = Arrays.copyOf(averagedX, capacity);
+            averagedY = Arrays.copyOf(averagedY, capacity);
+        }
+        peaksX[peaksCount] = x;
+        peaksY[peaksCount] = y;
+        peaksCount++;
+    }
+
+    @Override
+    public String toString() {
+        var buf = new StringBuilder("[");
+        for (int i = 0; i < peaksCount; i++) {
+            if (i > 0) buf.append(", ");
+            buf.append("{").append(peaksX[i]).append(", ").append(peaksY[i]).append("}");
+        }
+        return buf.append("]").toString();
+    }
+}
@@ -21,7 +21,11 @@ import ai.djl.modality.cv.Image;
 import ai.djl.ndarray.NDArray;
 import id.dope4j.exceptions.DopeException;
 import id.dope4j.impl.CacheFileMapper;
+import id.dope4j.impl.LatencyMetrics;
 import id.dope4j.io.InputImage;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -40,6 +44,11 @@ import org.slf4j.LoggerFactory;
 public class SaveStateToCacheDecoder implements DopeDecoder<Void> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SaveStateToCacheDecoder.class);
+    private final Meter METER =
+            GlobalOpenTelemetry.getMeter(SaveStateToCacheDecoder.class.getSimpleName());
+    private final LongHistogram CACHE_WRITE_TIME_METER =
+            LatencyMetrics.createHistogram(
+                    METER, "cache_write", "Preprocessed image and output tensor saving time");
     private CacheFileMapper mapper;
 
     public SaveStateToCacheDecoder(CacheFileMapper mapper) {
@@ -52,6 +61,7 @@ public class SaveStateToCacheDecoder implements DopeDecoder<Void> {
                 .path()
                 .ifPresent(
                         path -> {
+                            var startAt = System.nanoTime();
                             var outputFile = mapper.getProcessedImageFile(path);
                             try {
                                 Files.createDirectories(outputFile.getParent());
@@ -59,6 +69,7 @@ public class SaveStateToCacheDecoder implements DopeDecoder<Void> {
                                 outputFile = mapper.getTensorFile(path);
                                 Files.createDirectories(outputFile.getParent());
                                 saveToFile(outputTensor, outputFile);
+                                LatencyMetrics.record(CACHE_WRITE_TIME_METER, startAt);
                             } catch (IOException e) {
                                 LOGGER.error("Could not save some of the resources", e);
                             }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.impl;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batch which is processed by the current thread.
+ *
+ * <p>Batches may be nested (when backend splits the batch into smaller ones), closing the batch
+ * makes the outer one current again.
+ *
+ * <p>Warmup batches (see {@link #startWarmup(int)}) are not counted in any of the metrics, all
+ * batches nested into the warmup batch are warmup batches too.
+ *
+ * <p>Thread safe.
+ *
+ * @see LatencyMetrics
+ * @see MemoryMetrics
+ * @see id.dope4j.impl.jfr
+ * @author lambdaprime intid@protonmail.com
+ */
+public class BatchContext implements AutoCloseable {
+
+    public static final AttributeKey<Long> BATCH_SIZE_KEY = AttributeKey.longKey("batch_size");
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+    private static final ThreadLocal<BatchContext> CURRENT = new ThreadLocal<>();
+
+    private final long id = NEXT_ID.getAndIncrement();
+    private final int size;
+    private final boolean warmup;
+    private final Attributes attributes;
+    private final BatchContext outer;
+
+    private BatchContext(int size, boolean warmup, BatchContext outer) {
+        this.size = size;
+        this.warmup = warmup || (outer != null && outer.warmup);
+        this.outer = outer;
+        attributes = Attributes.of(BATCH_SIZE_KEY, (long) size);
+    }
+
+    /** Makes new batch of the given size current for the calling thread */
+    public static BatchContext start(int size) {
+        return start(size, false);
+    }
+
+    /**
+     * Makes new warmup batch of the given size current for the calling thread. Metrics are not
+     * recorded until it is closed.
+     */
+    public static BatchContext startWarmup(int size) {
+        return start(size, true);
+    }
+
+    private static BatchContext start(int size, boolean warmup) {
+        var batch = new BatchContext(size, warmup, CURRENT.get());
+        CURRENT.set(batch);
+        return batch;
+    }
+
+    /**
+     * @return null if current thread does not process any batch
+     */
+    public static BatchContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Id of the batch which current thread is processing
+     *
+     * @return 0 if current thread does not process any batch
+     */
+    public static long currentId() {
+        var batch = CURRENT.get();
+        return batch == null ? 0 : batch.id;
+    }
+
+    /**
+     * Attributes of the batch which current thread is processing
+     *
+     * @return empty attributes if current thread does not process any batch
+     */
+    public static Attributes currentAttributes() {
+        var batch = CURRENT.get();
+        return batch == null ? Attributes.empty() : batch.attributes;
+    }
+
+    /**
+     * @return true if current thread processes warmup batch and metrics should not be recorded
+     */
+    public static boolean isWarmup() {
+        var batch = CURRENT.get();
+        return batch != null && batch.warmup;
+    }
+
+    /** Unique id of the batch, ids start from 1 */
+    public long getId() {
+        return id;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /** Attributes with which all metrics recorded during the batch are labeled */
+    public Attributes getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public void close() {
+        if (outer == null) CURRENT.remove();
+        else CURRENT.set(outer);
+    }
+}
@@ -26,12 +26,16 @@ import id.xfunction.Preconditions;
 import java.util.ArrayList;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfDouble;
-import org.opencv.core.MatOfFloat;
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.MatOfPoint3f;
 import org.opencv.utils.Converters;
 
+/**
+ * Mats are created directly with their final shape, without intermediate Mats which would hold
+ * native memory until they are garbage collected.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
 public class DjlOpenCvConverters {
 
     public org.opencv.core.Point copyToPoint(Point p) {
@@ -81,7 +85,10 @@ public class DjlOpenCvConverters {
         c *= 2;
         ar[c] = (float) (cuboid2d.getCenter().getX() * scale);
         ar[c + 1] = (float) (cuboid2d.getCenter().getY() * scale);
-        return new MatOfPoint2f(new MatOfFloat(ar).reshape(2, rows));
+        var mat = new MatOfPoint2f();
+        mat.alloc(rows);
+        mat.put(0, 0, ar);
+        return mat;
     }
 
     /**
@@ -104,7 +111,9 @@ public class DjlOpenCvConverters {
         c *= 2;
         ar[c] = cuboid2d.getCenter().getX() * scale;
         ar[c + 1] = cuboid2d.getCenter().getY() * scale;
-        return new MatOfDouble(ar).reshape(2, rows);
+        var mat = new Mat(rows, 1, CvType.CV_64FC2);
+        mat.put(0, 0, ar);
+        return mat;
     }
 
     /**
@@ -134,14 +143,17 @@ public class DjlOpenCvConverters {
         ar[c] = (float) (cuboid3d.getCenter().getX() * scale);
         ar[c + 1] = (float) (cuboid3d.getCenter().getY() * scale);
         ar[c + 2] = (float) (cuboid3d.getCenter().getZ() * scale);
-        return new MatOfPoint3f(new MatOfFloat(ar).reshape(3, rows));
+        var mat = new MatOfPoint3f();
+        mat.alloc(rows);
+        mat.put(0, 0, ar);
+        return mat;
     }
 
     /**
      * Points are gathered in strict order defined in {@link Cuboid3D}. Only non null points are
      * copied. Center point is copied the last one.
      *
-     * <p>The output Mat is of type {@link CvType#CV_64FC2}
+     * <p>The output Mat is of type {@link CvType#CV_64FC3}
      */
     public Mat copyToMat(Cuboid3D cuboid3d, float scale) {
         var rows = cuboid3d.getAvailableVertexCount() + 1;
@@ -159,7 +171,9 @@ public class DjlOpenCvConverters {
         ar[c] = cuboid3d.getCenter().getX() * scale;
         ar[c + 1] = cuboid3d.getCenter().getY() * scale;
         ar[c + 2] = cuboid3d.getCenter().getZ() * scale;
-        return new MatOfDouble(ar).reshape(3, rows);
+        var mat = new Mat(rows, 1, CvType.CV_64FC3);
+        mat.put(0, 0, ar);
+        return mat;
     }
 
     /** Input vertices should be ordered as defined in {@link Cuboid2D} */
@@ -26,12 +26,19 @@ import ai.djl.modality.cv.Image;
 import ai.djl.modality.cv.util.NDImageUtils;
 import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.types.DataType;
 import ai.djl.translate.Batchifier;
 import ai.djl.translate.TranslateException;
 import ai.djl.translate.Translator;
 import ai.djl.translate.TranslatorContext;
+import id.dope4j.backends.DjlInferenceBackend;
 import id.dope4j.decoders.DopeDecoder;
+import id.dope4j.impl.jfr.InferenceEvent;
+import id.dope4j.impl.jfr.PreprocessEvent;
 import id.dope4j.io.InputImage;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
 import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,37 +48,113 @@ import org.slf4j.LoggerFactory;
  * TranslateException} and the prediction will stop. To avoid this and keep prediction going we use
  * {@link Optional} and return {@link Optional#empty()} in case of errors (the errors are logged).
  *
+ * <p>Inference time of the batch is measured from the moment when the last image of the batch is
+ * preprocessed till the moment when its first output is received, so translator should not be
+ * shared between the batches which run concurrently.
+ *
  * @author lambdaprime intid@protonmail.com
  */
 public class DopeTranslator<T> implements Translator<InputImage, Optional<T>> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DopeTranslator.class);
     private static final String IMAGE_KEY = "imageKey";
+
+    /**
+     * Meters of the translator. Translator is created per each batch, so they are created
+     * separately and shared by all translators of the same backend. They should be created after
+     * the meter provider is configured, otherwise they are no-op.
+     *
+     * @author lambdaprime intid@protonmail.com
+     */
+    public static class Metrics {
+        private final Meter METER =
+                GlobalOpenTelemetry.getMeter(DopeTranslator.class.getSimpleName());
+        private final LongHistogram PREPROCESS_TIME_METER =
+                LatencyMetrics.createHistogram(
+                        METER, "preprocess", "Image conversion to the network input tensor time");
+        private final LongHistogram INFERENCE_TIME_METER =
+                LatencyMetrics.createHistogram(
+                        METER, "inference", "Network inference time of the whole batch");
+    }
+
+    private final Metrics metrics;
+    private long inferenceStartAt;
+    private InferenceEvent inferenceEvent;
+    private int batchSize;
+    private boolean isInferenceRecorded = true;
     private DopeDecoder<T> decoder;
+    private DataType inputDataType;
 
     public DopeTranslator(DopeDecoder<T> decoder) {
+        this(decoder, DataType.FLOAT32);
+    }
+
+    /**
+     * @param inputDataType data type which model declares for its input (see {@link
+     *     Utils#readInputDataType(String)})
+     */
+    public DopeTranslator(DopeDecoder<T> decoder, DataType inputDataType) {
+        this(decoder, inputDataType, new Metrics());
+    }
+
+    /**
+     * @param metrics meters shared with the translators of other batches
+     */
+    public DopeTranslator(DopeDecoder<T> decoder, DataType inputDataType, Metrics metrics) {
         this.decoder = decoder;
+        this.inputDataType = inputDataType;
+        this.metrics = metrics;
     }
 
     @Override
     public NDList processInput(TranslatorContext ctx, InputImage inputImage) {
         LOGGER.trace("processInput {}", inputImage);
+        var startAt = System.nanoTime();
+        var allocatedAt = MemoryMetrics.allocatedBytes();
+        var event = new PreprocessEvent();
+        event.begin();
         ctx.setAttachment(IMAGE_KEY, inputImage);
-        NDArray rgbArray = inputImage.image().toNDArray(ctx.getNDManager(), Image.Flag.COLOR);
-        debugAsInt("Input rgbArray", rgbArray, "0:3, 0:3, 0:3");
-        var tensor = normalize(NDImageUtils.toTensor(rgbArray), .5F, .5F);
-        debugNDArray("Input tensor", tensor, "0:3, 0:3, 0:3");
-        return new NDList(tensor);
+        // intermediate arrays are freed right away instead of being kept until the end of the
+        // batch, only the tensor itself is moved to the batch manager
+        try (var manager = ctx.getNDManager().newSubManager()) {
+            NDArray rgbArray = inputImage.image().toNDArray(manager, Image.Flag.COLOR);
+            debugAsInt("Input rgbArray", rgbArray, "0:3, 0:3, 0:3");
+            var tensor = normalize(NDImageUtils.toTensor(rgbArray), .5F, .5F);
+            debugNDArray("Input tensor", tensor, "0:3, 0:3, 0:3");
+            // reduced precision models (fp16)
+            if (tensor.getDataType() != inputDataType)
+                tensor = tensor.toType(inputDataType, false);
+            tensor.attach(ctx.getNDManager());
+            LatencyMetrics.record(metrics.PREPROCESS_TIME_METER, startAt);
+            MemoryMetrics.record("preprocess", allocatedAt);
+            event.commit(inputImage);
+            // first input of the new batch
+            if (isInferenceRecorded) batchSize = 0;
+            batchSize++;
+            isInferenceRecorded = false;
+            inferenceStartAt = System.nanoTime();
+            inferenceEvent = new InferenceEvent();
+            inferenceEvent.begin();
+            return new NDList(tensor);
+        }
     }
 
     @Override
     public Optional<T> processOutput(TranslatorContext ctx, NDList list) {
         LOGGER.trace("processOutput {}", list);
+        if (!isInferenceRecorded) {
+            LatencyMetrics.record(metrics.INFERENCE_TIME_METER, inferenceStartAt);
+            inferenceEvent.commit(DjlInferenceBackend.class, batchSize);
+            isInferenceRecorded = true;
+        }
         if (list.isEmpty()) {
             LOGGER.warn("Received empty output");
             return Optional.empty();
         }
         var tensor = list.get(0);
+        // decoders expect output of full precision
+        if (tensor.getDataType() != DataType.FLOAT32)
+            tensor = tensor.toType(DataType.FLOAT32, false);
         debugNDArray("Output tensor", tensor, "0:3, 0:3, 0:3");
         if (ctx.getAttachment(IMAGE_KEY) instanceof InputImage image) {
             return decoder.decode(image, tensor);
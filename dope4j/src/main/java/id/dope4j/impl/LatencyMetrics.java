@@ -0,0 +1,100 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.impl;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Latency histograms of the processing stages (image loading, preprocessing, inference, decoding
+ * and its substages, cache I/O).
+ *
+ * <p>Time is measured with {@link System#nanoTime()} and recorded in nanos, so that stages which
+ * take less than a millisecond are not recorded as 0. All histograms are named "&lt;stage&gt;{@link
+ * #NAME_SUFFIX}".
+ *
+ * <p>Measurements are labeled with the size of the batch which current thread is processing (see
+ * {@link BatchContext}). Stages which run outside of any batch (for example images are loaded
+ * before they are batched) are not labeled. Stages of warmup batches (see {@link
+ * BatchContext#startWarmup(int)}) are not recorded, so that cold start does not skew the
+ * percentiles.
+ *
+ * <p>Thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class LatencyMetrics {
+
+    /** Suffix of names of all latency histograms */
+    public static final String NAME_SUFFIX = "_time_ns";
+
+    /**
+     * Histogram bucket boundaries in nanos from 1 microsecond to 10 seconds in 1-2-5 steps.
+     * OpenTelemetry default boundaries are meant for millis, so metric exporters should configure
+     * these ones for all latency histograms (see {@link #NAME_SUFFIX}).
+     */
+    public static final List<Double> BUCKET_BOUNDARIES = createBucketBoundaries();
+
+    /**
+     * @param stage name of the stage which is used as the histogram name prefix
+     */
+    public static LongHistogram createHistogram(Meter meter, String stage, String description) {
+        return meter.histogramBuilder(stage + NAME_SUFFIX)
+                .setDescription(description + " in nanos")
+                .setUnit("ns")
+                .ofLongs()
+                .build();
+    }
+
+    /**
+     * Records time passed since the given moment
+     *
+     * @param startAt value of {@link System#nanoTime()} when the stage started
+     */
+    public static void record(LongHistogram histogram, long startAt) {
+        if (BatchContext.isWarmup()) return;
+        histogram.record(System.nanoTime() - startAt, BatchContext.currentAttributes());
+    }
+
+    /**
+     * Same as {@link #record(LongHistogram, long)} with additional attributes
+     *
+     * @param attributes attributes of the stage, they are merged with the batch attributes
+     */
+    public static void record(LongHistogram histogram, long startAt, Attributes attributes) {
+        if (BatchContext.isWarmup()) return;
+        histogram.record(
+                System.nanoTime() - startAt,
+                BatchContext.currentAttributes().toBuilder().putAll(attributes).build());
+    }
+
+    private static List<Double> createBucketBoundaries() {
+        var boundaries = new ArrayList<Double>();
+        for (var scale = 1_000.; scale < 10_000_000_000.; scale *= 10) {
+            boundaries.add(scale);
+            boundaries.add(2 * scale);
+            boundaries.add(5 * scale);
+        }
+        boundaries.add(10_000_000_000.);
+        return Collections.unmodifiableList(boundaries);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.impl;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongGauge;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.opencv.core.Mat;
+
+/**
+ * Keeps track of the native memory held by {@link Mat}s which <b>dope4j</b> keeps between the
+ * images (see {@link #track(Mat)}).
+ *
+ * <p>Tracked {@link Mat}s should be released with {@link #release(Mat)} as soon as they are not
+ * needed anymore. Otherwise their native memory is reclaimed only when GC finalizes them. Such
+ * {@link Mat}s are not counted once they are garbage collected.
+ *
+ * <p>Gauges "live_mats" and "live_mat_bytes" are registered when the first {@link Mat} is tracked
+ * so that they pick up configured metrics exporters.
+ *
+ * <p>Thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class MatTracker {
+
+    private static class Holder {
+        private static final MatTracker INSTANCE = new MatTracker();
+    }
+
+    private volatile boolean isMetricsRegistered;
+    private ObservableLongGauge LIVE_MATS;
+    private ObservableLongGauge LIVE_MAT_BYTES;
+
+    // Mat does not override equals/hashCode so they are compared by identity
+    private final Map<Mat, Boolean> liveMats = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public static MatTracker getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /** Starts tracking of the {@link Mat} */
+    public <T extends Mat> T track(T mat) {
+        if (!isMetricsRegistered) registerMetrics();
+        liveMats.put(mat, Boolean.TRUE);
+        return mat;
+    }
+
+    /** Stops tracking of the {@link Mat} and releases its native memory */
+    public void release(Mat mat) {
+        liveMats.remove(mat);
+        mat.release();
+    }
+
+    /** Number of tracked {@link Mat}s which are not released yet */
+    public int getLiveMatsCount() {
+        return liveMats.size();
+    }
+
+    /**
+     * Native memory held by tracked {@link Mat}s. Size of {@link Mat}s is read at the moment of the
+     * call, so it includes any reallocations done by OpenCV.
+     */
+    public long getLiveBytes() {
+        ArrayList<Mat> mats;
+        synchronized (liveMats) {
+            mats = new ArrayList<>(liveMats.keySet());
+        }
+        var bytes = 0L;
+        for (var mat : mats) {
+            bytes += mat.total() * mat.elemSize();
+        }
+        return bytes;
+    }
+
+    private synchronized void registerMetrics() {
+        if (isMetricsRegistered) return;
+        Meter meter = GlobalOpenTelemetry.getMeter(MatTracker.class.getSimpleName());
+        LIVE_MATS =
+                meter.gaugeBuilder("live_mats")
+                        .setDescription("Number of tracked Mats which are not released")
+                        .ofLongs()
+                        .buildWithCallback(m -> m.record(getLiveMatsCount()));
+        LIVE_MAT_BYTES =
+                meter.gaugeBuilder("live_mat_bytes")
+                        .setDescription("Native memory in bytes held by tracked Mats")
+                        .ofLongs()
+                        .buildWithCallback(m -> m.record(getLiveBytes()));
+        isMetricsRegistered = true;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.impl;
+
+import ai.djl.ndarray.NDManager;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory usage of the processing stages.
+ *
+ * <p>For each stage it records number of bytes which were allocated on the Java heap by the
+ * thread which runs the stage (see {@link #allocatedBytes()}) to histogram
+ * "&lt;stage&gt;{@link #NAME_SUFFIX}". Stages are named same as in {@link LatencyMetrics}.
+ * Measurements are labeled with the batch size (see {@link BatchContext}).
+ *
+ * <p>Native memory is sampled after each image is decoded: bytes held by the {@link
+ * ai.djl.ndarray.NDArray}s of the batch (histogram "ndarray_bytes") and by the {@link MatTracker
+ * tracked} OpenCV Mats (histogram "mat_bytes").
+ *
+ * <p>Instrumentation is disabled by default (see {@link #setEnabled(boolean)}), since reading
+ * allocated bytes of the thread is not free.
+ *
+ * <p>Thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class MemoryMetrics {
+
+    /** Suffix of names of all allocation histograms */
+    public static final String NAME_SUFFIX = "_alloc_bytes";
+
+    /** Name of the meter which owns all memory histograms */
+    public static final String METER_NAME = MemoryMetrics.class.getSimpleName();
+
+    /**
+     * Histogram bucket boundaries in bytes from 1 KiB to 16 GiB in powers of 4. Metric exporters
+     * should configure these ones for all histograms of {@link #METER_NAME}.
+     */
+    public static final List<Double> BUCKET_BOUNDARIES = createBucketBoundaries();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryMetrics.class);
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static volatile boolean isEnabled;
+
+    /** Meters are created on first use so that they pick up configured metrics exporters */
+    private static class Holder {
+        private static final MemoryMetrics INSTANCE = new MemoryMetrics();
+    }
+
+    private record Stage(LongHistogram histogram, LongAdder calls, LongAdder bytes) {}
+
+    private final Meter METER = GlobalOpenTelemetry.getMeter(METER_NAME);
+    private final LongHistogram NDARRAY_BYTES_METER =
+            METER.histogramBuilder("ndarray_bytes")
+                    .setDescription(
+                            "Native memory in bytes held by NDArrays of the batch once its image"
+                                    + " is decoded")
+                    .setUnit("By")
+                    .ofLongs()
+                    .build();
+    private final LongHistogram MAT_BYTES_METER =
+            METER.histogramBuilder("mat_bytes")
+                    .setDescription(
+                            "Native memory in bytes held by tracked Mats once image is decoded")
+                    .setUnit("By")
+                    .ofLongs()
+                    .build();
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private final LongAccumulator peakNDArrayBytes = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator peakMatBytes = new LongAccumulator(Math::max, 0);
+
+    public static void setEnabled(boolean isEnabled) {
+        if (isEnabled && !THREAD_MX_BEAN.isThreadAllocatedMemorySupported()) {
+            LOGGER.warn("JVM does not support measuring of allocated memory, metrics are disabled");
+            return;
+        }
+        if (isEnabled) THREAD_MX_BEAN.setThreadAllocatedMemoryEnabled(true);
+        MemoryMetrics.isEnabled = isEnabled;
+    }
+
+    public static boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * Total number of bytes which current thread allocated on the heap so far
+     *
+     * @return 0 when metrics are disabled
+     */
+    public static long allocatedBytes() {
+        return isEnabled ? THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Records bytes allocated by current thread since the given moment
+     *
+     * @param stage name of the stage which is used as the histogram name prefix
+     * @param allocatedAt value of {@link #allocatedBytes()} when the stage started
+     * @return value of {@link #allocatedBytes()} when the stage ended, so that it can be used as
+     *     the start of the next stage
+     */
+    public static long record(String stage, long allocatedAt) {
+        if (!isEnabled) return 0;
+        var allocatedBytes = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+        var bytes = allocatedBytes - allocatedAt;
+        var metrics = Holder.INSTANCE;
+        var stats = metrics.stages.computeIfAbsent(stage, metrics::newStage);
+        stats.histogram().record(bytes, BatchContext.currentAttributes());
+        stats.calls().increment();
+        stats.bytes().add(bytes);
+        return allocatedBytes;
+    }
+
+    /**
+     * Samples native memory held by all arrays of the given manager (including its sub-managers)
+     * and by the tracked Mats
+     */
+    public static void sampleNativeMemory(NDManager manager) {
+        if (!isEnabled) return;
+        var bytes = 0L;
+        for (var array : manager.getManagedArrays())
+            bytes += array.size() * array.getDataType().getNumOfBytes();
+        var metrics = Holder.INSTANCE;
+        metrics.NDARRAY_BYTES_METER.record(bytes, BatchContext.currentAttributes());
+        metrics.peakNDArrayBytes.accumulate(bytes);
+        sampleNativeMemory();
+    }
+
+    /** Samples native memory held by the tracked Mats */
+    public static void sampleNativeMemory() {
+        if (!isEnabled) return;
+        var bytes = MatTracker.getInstance().getLiveBytes();
+        var metrics = Holder.INSTANCE;
+        metrics.MAT_BYTES_METER.record(bytes, BatchContext.currentAttributes());
+        metrics.peakMatBytes.accumulate(bytes);
+    }
+
+    /** Human readable summary of all stages recorded so far and peak native memory */
+    public static String getSummary() {
+        var metrics = Holder.INSTANCE;
+        var buf = new StringBuilder();
+        buf.append(
+                String.format(
+                        "%-16s %10s %18s %14s%n", "Stage", "Calls", "Allocated bytes", "Average"));
+        new TreeMap<>(metrics.stages)
+                .forEach(
+                        (name, stage) -> {
+                            var calls = stage.calls().sum();
+                            var bytes = stage.bytes().sum();
+                            buf.append(
+                                    String.format(
+                                            "%-16s %10d %18d %14d%n",
+                                            name, calls, bytes, calls == 0 ? 0 : bytes / calls));
+                        });
+        buf.append(
+                String.format(
+                        "Peak native memory: NDArrays %d bytes, Mats %d bytes",
+                        metrics.peakNDArrayBytes.get(), metrics.peakMatBytes.get()));
+        return buf.toString();
+    }
+
+    private Stage newStage(String name) {
+        return new Stage(
+                METER.histogramBuilder(name + NAME_SUFFIX)
+                        .setDescription("Bytes allocated on the heap by the stage")
+                        .setUnit("By")
+                        .ofLongs()
+                        .build(),
+                new LongAdder(),
+                new LongAdder());
+    }
+
+    private static List<Double> createBucketBoundaries() {
+        var boundaries = new ArrayList<Double>();
+        for (var bytes = 1024.; bytes <= 16. * 1024 * 1024 * 1024; bytes *= 4)
+            boundaries.add(bytes);
+        return Collections.unmodifiableList(boundaries);
+    }
+}
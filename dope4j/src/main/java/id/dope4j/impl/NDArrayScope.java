@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.impl;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scope of all {@link NDArray}s which are created while processing single image.
+ *
+ * <p>Array passed to the scope is temporarily attached to the new sub-manager of its original
+ * manager. All arrays derived from it (slices, conversions etc) are attached to the sub-manager
+ * too and are freed when the scope is closed. The array itself is returned back to its original
+ * manager.
+ *
+ * <p>When debug logging is enabled for this class (see "-debug" option of <b>dope4j-app</b>)
+ * scope runs leak detection: it reports all arrays which were created during the scope but left
+ * open in the original manager.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class NDArrayScope implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NDArrayScope.class);
+    private final NDManager parent;
+    private final NDManager manager;
+    private final Object owner;
+    private final Set<String> parentArrays;
+
+    /**
+     * @param owner object which is processed in this scope (used only for reporting)
+     */
+    public NDArrayScope(NDArray array, Object owner) {
+        this.owner = owner;
+        parent = array.getManager();
+        parentArrays = LOGGER.isDebugEnabled() ? findArrays(parent) : Set.of();
+        manager = parent.newSubManager();
+        array.tempAttach(manager);
+    }
+
+    /** Manager to which all arrays of this scope are attached */
+    public NDManager getManager() {
+        return manager;
+    }
+
+    @Override
+    public void close() {
+        var count = LOGGER.isDebugEnabled() ? manager.getManagedArrays().size() : 0;
+        manager.close();
+        if (!LOGGER.isDebugEnabled()) return;
+        LOGGER.debug("Freed {} arrays which were created for {}", count, owner);
+        var leaked =
+                parent.getManagedArrays().stream()
+                        .filter(a -> !parentArrays.contains(a.getUid()))
+                        .map(a -> a.getName() + a.getShape())
+                        .toList();
+        if (!leaked.isEmpty())
+            LOGGER.warn(
+                    "Found {} arrays which were created for {} but left open: {}",
+                    leaked.size(),
+                    owner,
+                    leaked);
+    }
+
+    private static Set<String> findArrays(NDManager manager) {
+        return manager.getManagedArrays().stream()
+                .map(NDArray::getUid)
+                .collect(Collectors.toSet());
+    }
+}
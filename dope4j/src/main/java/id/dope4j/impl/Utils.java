@@ -19,27 +19,43 @@ package id.dope4j.impl;
 
 import ai.djl.MalformedModelException;
 import ai.djl.Model;
+import ai.djl.engine.Engine;
 import ai.djl.modality.cv.output.Point;
 import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.types.DataType;
 import ai.djl.repository.zoo.Criteria;
 import ai.djl.repository.zoo.ModelNotFoundException;
+import ai.onnxruntime.OnnxJavaType;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession.SessionOptions;
+import ai.onnxruntime.OrtSession.SessionOptions.OptLevel;
+import ai.onnxruntime.TensorInfo;
 import id.deeplearningutils.modality.cv.output.Cuboid2D;
 import id.dope4j.DopeConstants;
+import id.dope4j.ModelLoadingConfig;
+import id.dope4j.exceptions.DopeException;
 import id.dope4j.io.AffinityFields;
 import id.matcv.OpenCvKit;
 import id.matcv.RgbColors;
 import id.matcv.accessors.Vector2f2DAccessor;
-import id.xfunction.Preconditions;
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.api.metrics.Meter;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.IntStream;
 import org.opencv.core.Mat;
 import org.opencv.core.Scalar;
@@ -51,6 +67,7 @@ public class Utils {
     private static final Logger LOGGER = LoggerFactory.getLogger(Utils.class);
     private static final DjlOpenCvConverters converters = new DjlOpenCvConverters();
     private static final OpenCvKit openCvKit = new OpenCvKit();
+    private static final Map<Path, DataType> INPUT_DATA_TYPES = new ConcurrentHashMap<>();
 
     private static final Meter METER = GlobalOpenTelemetry.getMeter(Utils.class.getSimpleName());
     private static final LongHistogram LOAD_TIME_METER =
@@ -117,14 +134,48 @@ public class Utils {
 
     public static Model loadModel(String modelUrl)
             throws ModelNotFoundException, MalformedModelException, IOException {
+        return loadModel(modelUrl, ModelLoadingConfig.DEFAULT);
+    }
+
+    public static Model loadModel(String modelUrl, ModelLoadingConfig config)
+            throws ModelNotFoundException, MalformedModelException, IOException {
         LOGGER.info("Loading model...");
-        var criteria =
+        LOGGER.info("Model loading configuration: {}", config);
+        var optimizationLevel = config.optimizationLevel();
+        if (config.optimizedModelFile().isPresent()) {
+            var optimizedModelFile = config.optimizedModelFile().get();
+            if (optimizedModelFile.toFile().exists()) {
+                LOGGER.info("Using previously optimized model {}", optimizedModelFile);
+            } else {
+                saveOptimizedModel(
+                        findLocalModelFile(modelUrl),
+                        optimizedModelFile,
+                        config,
+                        optimizationLevel.orElse(OptLevel.ALL_OPT));
+            }
+            modelUrl = optimizedModelFile.toAbsolutePath().toUri().toString();
+            // model is already optimized
+            optimizationLevel = Optional.of(OptLevel.NO_OPT);
+        }
+        // option names as they are accepted by DJL OnnxRuntime engine
+        var options = new LinkedHashMap<String, String>();
+        config.intraOpThreads().ifPresent(v -> options.put("intraOpNumThreads", v.toString()));
+        config.interOpThreads().ifPresent(v -> options.put("interOpNumThreads", v.toString()));
+        optimizationLevel.ifPresent(v -> options.put("optLevel", v.name()));
+        config.executionMode().ifPresent(v -> options.put("executionMode", v.name()));
+        config.memoryArena().ifPresent(v -> options.put("cpuArenaAllocator", v.toString()));
+        config.ortDevice().ifPresent(v -> options.put("ortDevice", v));
+        LOGGER.info(
+                "Effective OnnxRuntime session options: {}, execution provider: {}",
+                options,
+                findExecutionProvider(config).orElse("CPU"));
+        var criteriaBuilder =
                 Criteria.builder()
                         .setTypes(NDList.class, NDList.class)
                         .optModelUrls(modelUrl)
-                        .optEngine("OnnxRuntime") // use OnnxRuntime engine by default
-                        .optOption("ortDevice", "TensorRT")
-                        .build();
+                        .optEngine("OnnxRuntime"); // use OnnxRuntime engine by default
+        options.forEach(criteriaBuilder::optOption);
+        var criteria = criteriaBuilder.build();
         var startAt = Instant.now();
         var model = criteria.loadModel();
         LOAD_TIME_METER.record(Duration.between(startAt, Instant.now()).toMillis());
@@ -144,6 +195,163 @@ public class Utils {
         return model;
     }
 
+    /**
+     * Reads data type which model declares for its input. Models converted to reduced precision
+     * (fp16) may expect input of that type. For models which are not stored locally {@link
+     * DataType#FLOAT32} is assumed.
+     *
+     * <p>DJL does not expose the session it creates, so reading the input requires separate ONNX
+     * Runtime session (CPU only, without optimizations). It is created only once for each model
+     * file, so that replicas of the same model do not pay for it again.
+     */
+    public static DataType readInputDataType(String modelUrl) {
+        Path modelFile;
+        try {
+            modelFile = findLocalModelFile(modelUrl);
+        } catch (IOException e) {
+            LOGGER.warn(
+                    "Could not read model input data type, assuming {}: {}",
+                    DataType.FLOAT32,
+                    e.getMessage());
+            return DataType.FLOAT32;
+        }
+        return INPUT_DATA_TYPES.computeIfAbsent(
+                modelFile.toAbsolutePath().normalize(), Utils::readInputDataType);
+    }
+
+    private static DataType readInputDataType(Path modelFile) {
+        LOGGER.info("Reading input data type of the model {}", modelFile);
+        try (var options = new SessionOptions()) {
+            // only model metadata is needed
+            options.setOptimizationLevel(OptLevel.NO_OPT);
+            try (var session =
+                    OrtEnvironment.getEnvironment()
+                            .createSession(modelFile.toAbsolutePath().toString(), options)) {
+                var info = session.getInputInfo().values().iterator().next().getInfo();
+                if (!(info instanceof TensorInfo tensorInfo))
+                    throw new DopeException("Model input is not a tensor: " + info);
+                return toDataType(tensorInfo.type);
+            }
+        } catch (OrtException e) {
+            throw new DopeException("Could not read input of the model " + modelFile, e);
+        }
+    }
+
+    public static DataType toDataType(OnnxJavaType type) {
+        return switch (type) {
+            case FLOAT -> DataType.FLOAT32;
+            case FLOAT16 -> DataType.FLOAT16;
+            case DOUBLE -> DataType.FLOAT64;
+            default -> throw new DopeException("Unsupported tensor data type " + type);
+        };
+    }
+
+    /**
+     * Resolves model URL to the local ".onnx" file. If URL points to the directory, the first
+     * ".onnx" file found inside of it is used.
+     */
+    public static Path findLocalModelFile(String modelUrl) throws IOException {
+        var uri = URI.create(modelUrl);
+        Path path;
+        if (uri.getScheme() == null) path = Paths.get(modelUrl);
+        else if ("file".equals(uri.getScheme())) path = Paths.get(uri);
+        else
+            throw new IOException(
+                    "Only local models can be optimized and saved, model URL: " + modelUrl);
+        if (!Files.isDirectory(path)) return path;
+        try (var files = Files.list(path)) {
+            return files.filter(f -> f.toString().endsWith(".onnx"))
+                    .findFirst()
+                    .orElseThrow(() -> new IOException("No .onnx model found in " + modelUrl));
+        }
+    }
+
+    /**
+     * Creates ONNX Runtime session options for the sessions which are created without DJL.
+     * Optimized model file is ignored and should be handled by the caller.
+     */
+    public static SessionOptions newSessionOptions(ModelLoadingConfig config)
+            throws OrtException {
+        var options = new SessionOptions();
+        if (config.intraOpThreads().isPresent())
+            options.setIntraOpNumThreads(config.intraOpThreads().get());
+        if (config.interOpThreads().isPresent())
+            options.setInterOpNumThreads(config.interOpThreads().get());
+        if (config.optimizationLevel().isPresent())
+            options.setOptimizationLevel(config.optimizationLevel().get());
+        if (config.executionMode().isPresent())
+            options.setExecutionMode(config.executionMode().get());
+        if (config.memoryArena().isPresent())
+            options.setCPUArenaAllocator(config.memoryArena().get());
+        if (config.ortDevice().isPresent()) {
+            switch (config.ortDevice().get()) {
+                case "CUDA" -> options.addCUDA(0);
+                case "TensorRT" -> options.addTensorrt(0);
+                case "ROCM" -> options.addROCM();
+                case "CoreML" -> options.addCoreML();
+                default -> throw new OrtException(
+                        "Unsupported ortDevice: " + config.ortDevice().get());
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Execution provider with which DJL runs the model. DJL uses the configured provider only when
+     * it runs the model on GPU (CUDA is used when none is configured), on CPU only CoreML can be
+     * used.
+     *
+     * @return empty for CPU
+     */
+    private static Optional<String> findExecutionProvider(ModelLoadingConfig config) {
+        var device = config.ortDevice();
+        if (Engine.getEngine("OnnxRuntime").defaultDevice().isGpu())
+            return Optional.of(
+                    device.filter(d -> d.equals("TensorRT") || d.equals("ROCM")).orElse("CUDA"));
+        return device.filter("CoreML"::equals);
+    }
+
+    /**
+     * ONNX Runtime saves optimized model when session is created with optimized model file path.
+     *
+     * <p>Optimized model is specific to the execution provider it was optimized with, so session
+     * is created with same settings and provider which are used later to run the model.
+     */
+    private static void saveOptimizedModel(
+            Path modelFile,
+            Path optimizedModelFile,
+            ModelLoadingConfig config,
+            OptLevel optimizationLevel)
+            throws IOException {
+        var provider = findExecutionProvider(config);
+        LOGGER.info(
+                "Optimizing model {} with {} for execution provider {} and saving it to {}",
+                modelFile,
+                optimizationLevel,
+                provider.orElse("CPU"),
+                optimizedModelFile);
+        var startAt = Instant.now();
+        var sessionConfig =
+                new ModelLoadingConfig(
+                        config.intraOpThreads(),
+                        config.interOpThreads(),
+                        Optional.of(optimizationLevel),
+                        config.executionMode(),
+                        config.memoryArena(),
+                        provider,
+                        Optional.empty());
+        try (var options = newSessionOptions(sessionConfig)) {
+            options.setOptimizedModelFilePath(optimizedModelFile.toAbsolutePath().toString());
+            var session =
+                    OrtEnvironment.getEnvironment()
+                            .createSession(modelFile.toAbsolutePath().toString(), options);
+            session.close();
+        } catch (OrtException e) {
+            throw new IOException("Could not save optimized model " + optimizedModelFile, e);
+        }
+        LOGGER.info("Model optimized in {}", Duration.between(startAt, Instant.now()));
+    }
+
     //    public static List<Point2D> scalePoints(Stream<? extends Point> points, int scale) {
     //        return points.map(p -> new Point2D(p.getX() * scale, p.getY() * scale)).toList();
     //    }
@@ -161,8 +369,6 @@ public class Utils {
     /** Draws markers at the given points */
     public static void drawKeypoints(
             Mat image, Collection<? extends Point> points, int lineThickness) {
-        Preconditions.equals(DopeConstants.IMAGE_HEIGHT, image.rows(), "Image height is wrong");
-        Preconditions.equals(DopeConstants.IMAGE_WIDTH, image.cols(), "Image width is wrong");
         points.forEach(
                 p ->
                         Imgproc.drawMarker(
@@ -173,8 +379,6 @@ public class Utils {
     }
 
     public static void drawAffinityFields(Mat image, AffinityFields fields) {
-        Preconditions.equals(DopeConstants.IMAGE_HEIGHT, image.rows(), "Image height is wrong");
-        Preconditions.equals(DopeConstants.IMAGE_WIDTH, image.cols(), "Image width is wrong");
         for (int i = 0; i < fields.size(); i++) {
             // make i enclose final
             var j = i;
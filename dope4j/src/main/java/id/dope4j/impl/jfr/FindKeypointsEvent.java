@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.impl.jfr;
+
+import id.dope4j.impl.BatchContext;
+import id.dope4j.io.InputImage;
+import java.nio.file.Path;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author lambdaprime intid@protonmail.com
+ */
+@Name("dope4j.FindKeypoints")
+@Label("Find Keypoints")
+@Category("dope4j")
+@Description("Extraction of the keypoints from the Belief Maps")
+public class FindKeypointsEvent extends Event {
+
+    @Label("Image Path")
+    @Description("Empty when image does not come from the file system")
+    String imagePath;
+
+    @Label("Batch Id")
+    @Description("Id of the batch which image belongs to, 0 outside of batch")
+    long batchId;
+
+    @Label("Keypoints")
+    @Description("Number of found keypoints (vertices and center points)")
+    int keypoints;
+
+    public void commit(InputImage image, int keypoints) {
+        end();
+        if (!shouldCommit()) return;
+        imagePath = image.path().map(Path::toString).orElse("");
+        batchId = BatchContext.currentId();
+        this.keypoints = keypoints;
+        commit();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.impl.jfr;
+
+import id.dope4j.impl.BatchContext;
+import java.nio.file.Path;
+import java.util.Optional;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author lambdaprime intid@protonmail.com
+ */
+@Name("dope4j.ImageLoad")
+@Label("Image Load")
+@Category("dope4j")
+@Description("Decoding of the image and its resizing to the network input resolution")
+public class ImageLoadEvent extends Event {
+
+    @Label("Image Path")
+    @Description("Empty when image does not come from the file system")
+    String imagePath;
+
+    @Label("Batch Id")
+    @Description("Id of the batch which image belongs to, 0 outside of batch")
+    long batchId;
+
+    @Label("Reduction")
+    @Description("Factor by which JPEG image was reduced during decoding")
+    int reduction;
+
+    public void commit(Optional<Path> path, int reduction) {
+        end();
+        if (!shouldCommit()) return;
+        imagePath = path.map(Path::toString).orElse("");
+        batchId = BatchContext.currentId();
+        this.reduction = reduction;
+        commit();
+    }
+}
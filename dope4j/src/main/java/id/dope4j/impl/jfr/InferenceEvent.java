@@ -0,0 +1,54 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.impl.jfr;
+
+import id.dope4j.impl.BatchContext;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author lambdaprime intid@protonmail.com
+ */
+@Name("dope4j.Inference")
+@Label("Inference")
+@Category("dope4j")
+@Description("Network inference of the whole batch")
+public class InferenceEvent extends Event {
+
+    @Label("Batch Id")
+    @Description("0 when backend is called outside of the service")
+    long batchId;
+
+    @Label("Batch Size")
+    int batchSize;
+
+    @Label("Backend")
+    String backend;
+
+    public void commit(Class<?> backend, int batchSize) {
+        end();
+        if (!shouldCommit()) return;
+        this.batchId = BatchContext.currentId();
+        this.batchSize = batchSize;
+        this.backend = backend.getSimpleName();
+        commit();
+    }
+}
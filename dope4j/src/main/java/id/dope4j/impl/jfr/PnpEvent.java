@@ -0,0 +1,69 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.impl.jfr;
+
+import id.dope4j.PnpMethod;
+import id.dope4j.impl.BatchContext;
+import id.dope4j.io.InputImage;
+import java.nio.file.Path;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author lambdaprime intid@protonmail.com
+ */
+@Name("dope4j.Pnp")
+@Label("PnP")
+@Category("dope4j")
+@Description("Pose calculation for all cuboids found on the image")
+public class PnpEvent extends Event {
+
+    @Label("Image Path")
+    @Description("Empty when image does not come from the file system")
+    String imagePath;
+
+    @Label("Batch Id")
+    @Description("Id of the batch which image belongs to, 0 outside of batch")
+    long batchId;
+
+    @Label("Method")
+    @Description("Configured PnP method, some of the cuboids may be solved with fallback method")
+    String method;
+
+    @Label("Objects")
+    @Description("Number of cuboids")
+    int objects;
+
+    @Label("Poses")
+    @Description("Number of calculated poses")
+    int poses;
+
+    public void commit(InputImage image, PnpMethod method, int objects, int poses) {
+        end();
+        if (!shouldCommit()) return;
+        imagePath = image.path().map(Path::toString).orElse("");
+        batchId = BatchContext.currentId();
+        this.method = method.name();
+        this.objects = objects;
+        this.poses = poses;
+        commit();
+    }
+}
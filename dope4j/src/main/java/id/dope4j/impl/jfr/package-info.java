@@ -0,0 +1,12 @@
+/**
+ * Java Flight Recorder events of the inference and decoding pipeline.
+ *
+ * <p>Events are emitted only while recording is running with them enabled (they are enabled by
+ * default, see category "dope4j"), otherwise their overhead is near zero. Events of single image
+ * carry its path and id of the batch it belongs to (see {@link id.dope4j.impl.BatchContext}), so
+ * slow images can be correlated with GC, allocations and thread scheduling in JDK Mission Control.
+ *
+ * <p>Events do not share common base class since JFR in Java 17 fails to register events which
+ * inherit fields.
+ */
+package id.dope4j.impl.jfr;
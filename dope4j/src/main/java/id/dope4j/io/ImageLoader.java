@@ -0,0 +1,208 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.io;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.opencv.OpenCVImageFactory;
+import id.dope4j.InputResolution;
+import id.dope4j.impl.LatencyMetrics;
+import id.dope4j.impl.MemoryMetrics;
+import id.dope4j.impl.jfr.ImageLoadEvent;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Decodes input images and resizes them to the network input resolution.
+ *
+ * <p>When source image is JPEG which is at least 2, 4 or 8 times larger than the network input
+ * resolution, it is decoded directly at reduced resolution (see {@link
+ * Imgcodecs#IMREAD_REDUCED_COLOR_2} etc). Such decoding skips most of the pixels which would be
+ * thrown away by the resize anyway, which makes loading of high resolution camera images several
+ * times faster.
+ *
+ * <p>Thread safe.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public class ImageLoader {
+
+    private static final int[] REDUCTIONS = {8, 4, 2};
+    private static final AttributeKey<Long> REDUCTION_KEY = AttributeKey.longKey("reduction");
+    private final Meter METER = GlobalOpenTelemetry.getMeter(ImageLoader.class.getSimpleName());
+    private final LongHistogram DECODE_TIME_METER =
+            LatencyMetrics.createHistogram(
+                    METER, "image_decode", "Image decoding and resizing time");
+
+    /**
+     * @param resolution resolution to which image is resized
+     */
+    public Image load(Path path, InputResolution resolution, Interpolation interpolation)
+            throws IOException {
+        var startAt = System.nanoTime();
+        var allocatedAt = MemoryMetrics.allocatedBytes();
+        var event = new ImageLoadEvent();
+        event.begin();
+        var file = path.toAbsolutePath();
+        int reduction;
+        try (var in = new BufferedInputStream(Files.newInputStream(file))) {
+            reduction = findReduction(readJpegSize(in), resolution);
+        }
+        var decoded = Imgcodecs.imread(file.toString(), toImreadFlags(reduction));
+        if (decoded.empty()) throw new IOException("Read image failed: " + path);
+        var image = resize(decoded, resolution, interpolation, reduction, startAt);
+        MemoryMetrics.record("image_decode", allocatedAt);
+        event.commit(Optional.of(path), reduction);
+        return image;
+    }
+
+    /**
+     * @param data encoded image (JPEG, PNG etc)
+     * @param resolution resolution to which image is resized
+     */
+    public Image load(byte[] data, InputResolution resolution, Interpolation interpolation)
+            throws IOException {
+        var startAt = System.nanoTime();
+        var allocatedAt = MemoryMetrics.allocatedBytes();
+        var event = new ImageLoadEvent();
+        event.begin();
+        var reduction = findReduction(readJpegSize(new ByteArrayInputStream(data)), resolution);
+        var buf = new MatOfByte(data);
+        var decoded = Imgcodecs.imdecode(buf, toImreadFlags(reduction));
+        buf.release();
+        if (decoded.empty()) throw new IOException("Read image failed");
+        var image = resize(decoded, resolution, interpolation, reduction, startAt);
+        MemoryMetrics.record("image_decode", allocatedAt);
+        event.commit(Optional.empty(), reduction);
+        return image;
+    }
+
+    /**
+     * Finds the largest reduction factor (8, 4 or 2) with which image of the given size still
+     * covers the target resolution. Orientation of the image is not taken into account since JPEG
+     * images may be rotated during decoding (EXIF orientation).
+     *
+     * @param size size of the source image
+     * @return 1 when image cannot be reduced
+     */
+    public static int findReduction(Optional<Size> size, InputResolution target) {
+        if (size.isEmpty()) return 1;
+        var srcMax = Math.max(size.get().width, size.get().height);
+        var srcMin = Math.min(size.get().width, size.get().height);
+        var targetMax = Math.max(target.width(), target.height());
+        var targetMin = Math.min(target.width(), target.height());
+        for (var reduction : REDUCTIONS) {
+            if (srcMax / reduction >= targetMax && srcMin / reduction >= targetMin)
+                return reduction;
+        }
+        return 1;
+    }
+
+    /**
+     * Reads size of the JPEG image from its header (SOF segment) without decoding it.
+     *
+     * @return empty when stream does not contain JPEG image
+     */
+    public static Optional<Size> readJpegSize(InputStream in) throws IOException {
+        var data = new DataInputStream(in);
+        try {
+            // SOI
+            if (data.readUnsignedShort() != 0xFFD8) return Optional.empty();
+            while (true) {
+                if (data.readUnsignedByte() != 0xFF) return Optional.empty();
+                var marker = data.readUnsignedByte();
+                // skip fill bytes
+                while (marker == 0xFF) marker = data.readUnsignedByte();
+                // standalone markers without length
+                if (marker == 0x01 || marker == 0xD8 || (marker >= 0xD0 && marker <= 0xD7))
+                    continue;
+                // EOI or SOS before any SOF
+                if (marker == 0xD9 || marker == 0xDA) return Optional.empty();
+                var length = data.readUnsignedShort();
+                if (length < 2) return Optional.empty();
+                if (isStartOfFrame(marker)) {
+                    // sample precision
+                    data.readUnsignedByte();
+                    var height = data.readUnsignedShort();
+                    var width = data.readUnsignedShort();
+                    return Optional.of(new Size(width, height));
+                }
+                data.skipNBytes(length - 2);
+            }
+        } catch (EOFException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // DHT, JPG and DAC share the range with SOF markers
+        return marker >= 0xC0
+                && marker <= 0xCF
+                && marker != 0xC4
+                && marker != 0xC8
+                && marker != 0xCC;
+    }
+
+    private static int toImreadFlags(int reduction) {
+        return switch (reduction) {
+            case 2 -> Imgcodecs.IMREAD_REDUCED_COLOR_2;
+            case 4 -> Imgcodecs.IMREAD_REDUCED_COLOR_4;
+            case 8 -> Imgcodecs.IMREAD_REDUCED_COLOR_8;
+            default -> Imgcodecs.IMREAD_COLOR;
+        };
+    }
+
+    private Image resize(
+            Mat decoded,
+            InputResolution resolution,
+            Interpolation interpolation,
+            int reduction,
+            long startAt) {
+        var image = decoded;
+        if (decoded.cols() != resolution.width() || decoded.rows() != resolution.height()) {
+            image = new Mat();
+            Imgproc.resize(
+                    decoded,
+                    image,
+                    new Size(resolution.width(), resolution.height()),
+                    0,
+                    0,
+                    interpolation.getOpenCvFlag());
+            decoded.release();
+        }
+        LatencyMetrics.record(
+                DECODE_TIME_METER, startAt, Attributes.of(REDUCTION_KEY, (long) reduction));
+        return OpenCVImageFactory.getInstance().fromImage(image);
+    }
+}
@@ -18,8 +18,7 @@
 package id.dope4j.io;
 
 import ai.djl.modality.cv.Image;
-import ai.djl.opencv.OpenCVImageFactory;
-import id.dope4j.DopeConstants;
+import id.dope4j.InputResolution;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -29,6 +28,8 @@ import java.util.Optional;
  */
 public record InputImage(Image image, Optional<Path> path) {
 
+    private static final ImageLoader LOADER = new ImageLoader();
+
     public InputImage(Image image) {
         this(image, Optional.empty());
     }
@@ -38,11 +39,58 @@ public record InputImage(Image image, Optional<Path> path) {
     }
 
     public InputImage(Path path) throws IOException {
-        this(
-                OpenCVImageFactory.getInstance()
-                        .fromFile(path.toAbsolutePath())
-                        .resize(DopeConstants.IMAGE_WIDTH, DopeConstants.IMAGE_HEIGHT, false),
-                path);
+        this(path, InputResolution.DEFAULT);
+    }
+
+    /**
+     * @param resolution resolution to which image is resized
+     */
+    public InputImage(Path path, InputResolution resolution) throws IOException {
+        this(path, resolution, Interpolation.DEFAULT);
+    }
+
+    /**
+     * @param resolution resolution to which image is resized
+     * @param interpolation interpolation used to resize the image
+     * @see ImageLoader
+     */
+    public InputImage(Path path, InputResolution resolution, Interpolation interpolation)
+            throws IOException {
+        this(LOADER.load(path, resolution, interpolation), path);
+    }
+
+    /**
+     * @param data encoded image (JPEG, PNG etc)
+     * @param path optional path of the image
+     */
+    public InputImage(byte[] data, Optional<Path> path) throws IOException {
+        this(data, path, InputResolution.DEFAULT);
+    }
+
+    /**
+     * @param data encoded image (JPEG, PNG etc)
+     * @param path optional path of the image
+     * @param resolution resolution to which image is resized
+     */
+    public InputImage(byte[] data, Optional<Path> path, InputResolution resolution)
+            throws IOException {
+        this(data, path, resolution, Interpolation.DEFAULT);
+    }
+
+    /**
+     * @param data encoded image (JPEG, PNG etc)
+     * @param path optional path of the image
+     * @param resolution resolution to which image is resized
+     * @param interpolation interpolation used to resize the image
+     * @see ImageLoader
+     */
+    public InputImage(
+            byte[] data,
+            Optional<Path> path,
+            InputResolution resolution,
+            Interpolation interpolation)
+            throws IOException {
+        this(LOADER.load(data, resolution, interpolation), path);
     }
 
     /** Preprocessed image */
@@ -50,6 +98,11 @@ public record InputImage(Image image, Optional<Path> path) {
         return image;
     }
 
+    /** Resolution of the preprocessed image, it defines the shape of the network output */
+    public InputResolution resolution() {
+        return new InputResolution(image.getWidth(), image.getHeight());
+    }
+
     /** Path to the image if it comes from file system. */
     public Optional<Path> path() {
         return path;
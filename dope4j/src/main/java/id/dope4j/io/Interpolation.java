@@ -0,0 +1,52 @@
+/*
+ * Copyright 2023 dope4j project
+ * 
+ * Website: https://github.com/lambdaprime/dope4j
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package id.dope4j.io;
+
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Interpolation which is used to resize input images to the network input resolution.
+ *
+ * @author lambdaprime intid@protonmail.com
+ */
+public enum Interpolation {
+    /** Fastest, lowest quality */
+    NEAREST(Imgproc.INTER_NEAREST),
+
+    /** Bilinear interpolation, used by default */
+    LINEAR(Imgproc.INTER_LINEAR),
+
+    /** Bicubic interpolation, slower than {@link #LINEAR} */
+    CUBIC(Imgproc.INTER_CUBIC),
+
+    /** Resampling using pixel area relation, gives moire free results when downscaling */
+    AREA(Imgproc.INTER_AREA);
+
+    public static final Interpolation DEFAULT = LINEAR;
+
+    private final int openCvFlag;
+
+    Interpolation(int openCvFlag) {
+        this.openCvFlag = openCvFlag;
+    }
+
+    /** Interpolation flag as defined in {@link Imgproc} */
+    public int getOpenCvFlag() {
+        return openCvFlag;
+    }
+}
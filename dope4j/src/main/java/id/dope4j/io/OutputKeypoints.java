@@ -18,39 +18,170 @@
 package id.dope4j.io;
 
 import id.deeplearningutils.modality.cv.output.Point2D;
+import id.dope4j.DopeConstants;
+import id.xfunction.Preconditions;
 import id.xfunction.XJsonStringBuilder;
+import java.util.AbstractList;
 import java.util.List;
 
 /**
+ * Keypoints found on all Belief Maps.
+ *
+ * <p>Keypoints are stored in primitive arrays (struct of arrays) ordered by Belief Map: keypoints
+ * of Belief Map m have indices from {@link #offset(int) offset(m)} (inclusive) to {@link
+ * #offset(int) offset(m + 1)} (exclusive). First 8 Belief Maps contain cuboid vertices and the
+ * last one contains center points (see {@link DopeConstants#BELIEF_MAPS_COUNT}).
+ *
+ * <p>{@link #vertices()} and {@link #centerPoints()} are views which create {@link Point2D} only
+ * when their elements are accessed.
+ *
  * @author lambdaprime intid@protonmail.com
  */
-public record OutputKeypoints(
-        int keypointsCount, List<List<Point2D>> vertices, List<Point2D> centerPoints) {
+public class OutputKeypoints {
 
-    public static final OutputKeypoints EMPTY = new OutputKeypoints(List.of(), List.of());
+    public static final OutputKeypoints EMPTY =
+            new OutputKeypoints(
+                    new float[0],
+                    new float[0],
+                    new float[0],
+                    new int[DopeConstants.BELIEF_MAPS_COUNT + 1]);
 
+    private static final int CENTER_POINTS_MAP_ID = DopeConstants.BELIEF_MAPS_COUNT - 1;
+    private final float[] x;
+    private final float[] y;
+    private final float[] beliefs;
+    private final int[] offsets;
+
+    /**
+     * @param x x coordinates of all keypoints
+     * @param y y coordinates of all keypoints
+     * @param beliefs values of Belief Maps at the peaks where keypoints were found
+     * @param offsets offsets of the first keypoint of each Belief Map. Has one extra element at the
+     *     end which is equal to the total number of keypoints.
+     */
+    public OutputKeypoints(float[] x, float[] y, float[] beliefs, int[] offsets) {
+        Preconditions.equals(
+                DopeConstants.BELIEF_MAPS_COUNT + 1, offsets.length, "Wrong number of offsets");
+        var count = offsets[DopeConstants.BELIEF_MAPS_COUNT];
+        Preconditions.equals(count, x.length, "Wrong number of x coordinates");
+        Preconditions.equals(count, y.length, "Wrong number of y coordinates");
+        Preconditions.equals(count, beliefs.length, "Wrong number of beliefs");
+        this.x = x;
+        this.y = y;
+        this.beliefs = beliefs;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Creates keypoints from the lists of points. Their belief values are unknown and set to {@link
+     * Float#NaN}.
+     */
     public OutputKeypoints(List<List<Point2D>> vertices, List<Point2D> centerPoints) {
-        this(
-                centerPoints.size() + (int) vertices.stream().flatMap(List::stream).count(),
-                vertices,
-                centerPoints);
+        this(copy(vertices, centerPoints));
+    }
+
+    private OutputKeypoints(OutputKeypoints other) {
+        this(other.x, other.y, other.beliefs, other.offsets);
+    }
+
+    private static OutputKeypoints copy(List<List<Point2D>> vertices, List<Point2D> centerPoints) {
+        Preconditions.equals(
+                DopeConstants.BELIEF_MAPS_COUNT - 1, vertices.size(), "Wrong number of vertices");
+        var offsets = new int[DopeConstants.BELIEF_MAPS_COUNT + 1];
+        for (int i = 0; i < vertices.size(); i++) {
+            offsets[i + 1] = offsets[i] + vertices.get(i).size();
+        }
+        var count = offsets[CENTER_POINTS_MAP_ID] + centerPoints.size();
+        offsets[DopeConstants.BELIEF_MAPS_COUNT] = count;
+        var x = new float[count];
+        var y = new float[count];
+        var beliefs = new float[count];
+        var index = 0;
+        for (var list : vertices) {
+            for (var p : list) {
+                x[index] = (float) p.getX();
+                y[index] = (float) p.getY();
+                beliefs[index++] = Float.NaN;
+            }
+        }
+        for (var p : centerPoints) {
+            x[index] = (float) p.getX();
+            y[index] = (float) p.getY();
+            beliefs[index++] = Float.NaN;
+        }
+        return new OutputKeypoints(x, y, beliefs, offsets);
     }
 
     /**
      * There are 8 lists in total which represent 8 corners of 3D cuboids which surround the object
      */
     public List<List<Point2D>> vertices() {
-        return vertices;
+        return new AbstractList<>() {
+            @Override
+            public List<Point2D> get(int beliefMapId) {
+                Preconditions.isTrue(
+                        beliefMapId >= 0 && beliefMapId < CENTER_POINTS_MAP_ID,
+                        "Belief Map id is out of range");
+                return pointsView(beliefMapId);
+            }
+
+            @Override
+            public int size() {
+                return CENTER_POINTS_MAP_ID;
+            }
+        };
     }
 
     /** Center points of all objects */
     public List<Point2D> centerPoints() {
-        return centerPoints;
+        return pointsView(CENTER_POINTS_MAP_ID);
     }
 
     /** Total number of all keypoints */
     public int keypointsCount() {
-        return keypointsCount;
+        return offsets[DopeConstants.BELIEF_MAPS_COUNT];
+    }
+
+    /** Index of the first keypoint of the Belief Map */
+    public int offset(int beliefMapId) {
+        return offsets[beliefMapId];
+    }
+
+    /** Number of keypoints found on the Belief Map */
+    public int count(int beliefMapId) {
+        return offsets[beliefMapId + 1] - offsets[beliefMapId];
+    }
+
+    /** X coordinate of the keypoint */
+    public float x(int index) {
+        return x[index];
+    }
+
+    /** Y coordinate of the keypoint */
+    public float y(int index) {
+        return y[index];
+    }
+
+    /** Value of the Belief Map at the peak where keypoint was found */
+    public float belief(int index) {
+        return beliefs[index];
+    }
+
+    private List<Point2D> pointsView(int beliefMapId) {
+        var offset = offsets[beliefMapId];
+        var size = count(beliefMapId);
+        return new AbstractList<>() {
+            @Override
+            public Point2D get(int index) {
+                if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+                return new Point2D(x[offset + index], y[offset + index]);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 
     @Override